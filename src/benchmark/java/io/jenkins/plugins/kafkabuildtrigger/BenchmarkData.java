@@ -0,0 +1,69 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import hudson.model.ParameterDefinition;
+import hudson.model.ParametersDefinitionProperty;
+import hudson.model.StringParameterDefinition;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Synthetic messages, parameter definitions and triggers shared by the
+ * benchmarks.
+ */
+final class BenchmarkData {
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Creates a JSON build message with given number of parameters and an
+     * unknown field, as sent by typical producers.
+     */
+    static String buildMessage(String project, String token, int parameters) {
+        StringBuilder json = new StringBuilder(64 + parameters * 48);
+        json.append("{\"project\":\"").append(project).append("\",\"token\":\"").append(token)
+                .append("\",\"source\":{\"repository\":\"example/repo\",\"revision\":\"4f2a9c\"}");
+        if (parameters > 0) {
+            json.append(",\"parameter\":[");
+            for (int i = 0; i < parameters; i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                json.append("{\"name\":\"PARAM_").append(i).append("\",\"value\":\"value-").append(i).append("\"}");
+            }
+            json.append(']');
+        }
+        return json.append('}').toString();
+    }
+
+    /**
+     * Creates string parameter definitions named {@code PARAM_0} and on.
+     */
+    static ParametersDefinitionProperty parameterDefinitions(int count) {
+        List<ParameterDefinition> definitions = new ArrayList<ParameterDefinition>(count);
+        for (int i = 0; i < count; i++) {
+            definitions.add(new StringParameterDefinition("PARAM_" + i, "default-" + i, "Parameter " + i));
+        }
+        return new ParametersDefinitionProperty(definitions);
+    }
+
+    /**
+     * Creates message parameters overriding every other definition, with the
+     * names in lower case as they often arrive from other systems.
+     */
+    static String[] messageParameters(int definitions) {
+        String[] parameters = new String[(definitions + 1) / 2 * 2];
+        int size = 0;
+        for (int i = 0; i < definitions; i += 2) {
+            parameters[size++] = "param_" + i;
+            parameters[size++] = "message-" + i;
+        }
+        return parameters;
+    }
+
+    @SuppressWarnings("rawtypes")
+    static RemoteBuildTrigger newTrigger(String token) {
+        return new RemoteBuildTrigger(token);
+    }
+}
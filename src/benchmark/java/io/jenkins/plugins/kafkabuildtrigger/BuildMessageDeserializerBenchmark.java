@@ -0,0 +1,70 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.sf.json.JSONArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deserialization of build messages with and without parameters.
+ *
+ * <p>{@link #avro()} decodes the same message encoded by
+ * {@link AvroBuildMessageCodec}. {@link #legacyLinkedHashMap()} reads the message the way the plugin did
+ * before {@link BuildMessageDeserializer}: into a map, whose parameter list is
+ * then converted to a JSON array.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BuildMessageDeserializerBenchmark {
+
+    @Param({ "0", "5", "20", "100" })
+    public int parameters;
+
+    private final BuildMessageDeserializer deserializer = new BuildMessageDeserializer();
+    private final AvroBuildMessageCodec avro = new AvroBuildMessageCodec();
+    private final ObjectMapper mapper = new ObjectMapper();
+    private byte[] message;
+    private byte[] avroMessage;
+
+    @Setup
+    public void setUp() {
+        message = BenchmarkData.buildMessage("folder/job-42", "secret-token", parameters)
+                .getBytes(StandardCharsets.UTF_8);
+        avroMessage = avro.encode(deserializer.deserialize("builds", message));
+    }
+
+    @Benchmark
+    public BuildMessage streaming() {
+        return deserializer.deserialize("builds", message);
+    }
+
+    @Benchmark
+    public BuildMessage avro() {
+        return avro.decode("builds", avroMessage);
+    }
+
+    @Benchmark
+    public Object legacyLinkedHashMap() throws IOException {
+        LinkedHashMap<?, ?> map = mapper.readValue(message, LinkedHashMap.class);
+        Object parameter = map.get("parameter");
+        return parameter != null ? JSONArray.fromObject(parameter) : map.get("project");
+    }
+}
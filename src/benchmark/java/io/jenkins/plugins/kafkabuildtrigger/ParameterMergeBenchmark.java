@@ -0,0 +1,82 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import hudson.model.ParameterDefinition;
+import hudson.model.ParameterValue;
+import hudson.model.ParametersDefinitionProperty;
+import hudson.model.StringParameterValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merging message parameters with the parameter definitions of a job.
+ *
+ * <p>{@link #template()} merges with a compiled {@link ParameterTemplate}.
+ * {@link #legacyUpdatedParameters()} computes the defaults on every message
+ * and matches names by upper-casing both sides in a nested loop, as
+ * {@code getUpdatedParameters} of the trigger used to.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParameterMergeBenchmark {
+
+    @Param({ "5", "20", "100" })
+    public int definitions;
+
+    private ParametersDefinitionProperty property;
+    private ParameterTemplate template;
+    private String[] parameters;
+
+    @Setup
+    public void setUp() {
+        property = BenchmarkData.parameterDefinitions(definitions);
+        template = ParameterTemplate.compile(property);
+        parameters = BenchmarkData.messageParameters(definitions);
+    }
+
+    @Benchmark
+    public List<ParameterValue> template() {
+        return template.merge(parameters);
+    }
+
+    @Benchmark
+    public List<ParameterValue> legacyUpdatedParameters() {
+        List<ParameterValue> defined = new ArrayList<ParameterValue>();
+        for (ParameterDefinition definition : property.getParameterDefinitions()) {
+            ParameterValue value = definition.getDefaultParameterValue();
+            if (value != null) {
+                defined.add(value);
+            }
+        }
+        List<ParameterValue> merged = new ArrayList<ParameterValue>();
+        for (ParameterValue defParam : defined) {
+            boolean updated = false;
+            for (int i = 0; i + 1 < parameters.length; i += 2) {
+                if (defParam.getName().toUpperCase().equals(parameters[i].toUpperCase())) {
+                    merged.add(new StringParameterValue(defParam.getName(), parameters[i + 1]));
+                    updated = true;
+                }
+            }
+            if (!updated) {
+                merged.add(defParam);
+            }
+        }
+        return merged;
+    }
+}
@@ -0,0 +1,188 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import hudson.model.FreeStyleProject;
+import hudson.model.ParameterDefinition;
+import hudson.model.ParametersDefinitionProperty;
+import hudson.model.Queue;
+import hudson.model.StringParameterDefinition;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Offline load and soak test of the whole pipeline, from polling through
+ * deserialization, lookup, parameter merging and coalescing to the Jenkins
+ * queue, with mock consumers instead of a broker.
+ *
+ * <p>It is not part of the build. Run it with</p>
+ *
+ * <pre>
+ * mvn -Pbenchmark -Dtest=PipelineSoakHarness -Dsoak.records=5000000 -Dsoak.minutes=30 test
+ * </pre>
+ *
+ * <p>The harness prints sustained messages per second, queue insert latency
+ * percentiles, heap used after GC and the thread count at every report
+ * interval, and fails if consumer threads are left behind once the consumers
+ * have been stopped. Jenkins runs without executors, so builds stay in the queue
+ * and repeated triggers of a queued job are merged into it.</p>
+ */
+public class PipelineSoakHarness {
+
+    private static final String TOPIC = "soak-builds";
+    private static final String TOKEN = "soak-token";
+    private static final int PAYLOADS = 4096;
+
+    private static final int JOBS = Integer.getInteger("soak.jobs", 2000);
+    private static final long RECORDS = Long.getLong("soak.records", 1_000_000L);
+    private static final long MINUTES = Long.getLong("soak.minutes", 0L);
+    private static final int CONSUMERS = Integer.getInteger("soak.consumers", 1);
+    private static final int PARTITIONS = Integer.getInteger("soak.partitions", 8);
+    private static final int BATCH = Integer.getInteger("soak.batch", 500);
+    private static final long REPORT_SECONDS = Long.getLong("soak.reportSeconds", 10L);
+    private static final boolean ROUTE_BY_KEY = Boolean.parseBoolean(System.getProperty("soak.routeByKey", "true"));
+
+    @Rule
+    public JenkinsRule r = new JenkinsRule();
+
+    {
+        // Soaks run far longer than the default test timeout.
+        r.timeout = 0;
+    }
+
+    @Test
+    public void soak() throws Exception {
+        r.jenkins.setNumExecutors(0);
+        String[] jobNames = createJobs();
+        byte[][] keys = new byte[PAYLOADS][];
+        byte[][] payloads = createPayloads(jobNames, keys);
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        ConsumerMetrics metrics = ConsumerMetrics.getInstance();
+        long heapBefore = usedHeapAfterGc(memory);
+        int threadsBefore = threads.getThreadCount();
+
+        GlobalKafkaBuildTriggerConfig conf = GlobalKafkaBuildTriggerConfig.get();
+        conf.setConsumerConcurrency(CONSUMERS);
+        conf.setRouteByKey(ROUTE_BY_KEY);
+        KafkaSubscription subscription = new KafkaSubscription(KafkaSubscription.DEFAULT_NAME, "mock:9092", TOPIC,
+                null, "soak");
+        AtomicLong remaining = new AtomicLong(RECORDS);
+        KafkaConsumerHandler handler = new KafkaConsumerHandler(subscription, ConsumerSettings.from(conf),
+                properties -> new SyntheticConsumer(TOPIC, PARTITIONS, keys, payloads, remaining, BATCH));
+
+        System.out.printf("Soak: %d jobs, %d records, %d consumer(s), %d partitions, route by key %b%n", JOBS,
+                RECORDS, CONSUMERS, PARTITIONS, ROUTE_BY_KEY);
+        System.out.println("  elapsed      records      msg/s  sched p50/p99/max (us)   queue    heap MB  threads");
+        long start = System.nanoTime();
+        long deadline = MINUTES > 0 ? start + TimeUnit.MINUTES.toNanos(MINUTES) : Long.MAX_VALUE;
+        long recordsBefore = metrics.getRecords();
+        long lastRecords = recordsBefore;
+        long lastReport = start;
+        handler.enableConsumerThread();
+        try {
+            while (System.nanoTime() < deadline
+                    && (remaining.get() > 0 || metrics.getRecords() - recordsBefore < RECORDS)) {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(REPORT_SECONDS));
+                long now = System.nanoTime();
+                long records = metrics.getRecords();
+                LatencyHistogram schedule = metrics.getScheduleLatency();
+                System.out.printf("%8ds %12d %10.0f  %7d/%7d/%7d %8d %10d %8d%n",
+                        TimeUnit.NANOSECONDS.toSeconds(now - start),
+                        records - recordsBefore,
+                        (records - lastRecords) * 1e9 / (now - lastReport),
+                        micros(schedule.getPercentile(0.5)), micros(schedule.getPercentile(0.99)),
+                        micros(schedule.getMax()),
+                        Queue.getInstance().getApproximateItemsQuickly().size(),
+                        usedHeapAfterGc(memory) >> 20,
+                        threads.getThreadCount());
+                lastRecords = records;
+                lastReport = now;
+            }
+        } finally {
+            handler.disableConsumerThread();
+        }
+
+        long elapsed = System.nanoTime() - start;
+        long consumed = metrics.getRecords() - recordsBefore;
+        System.out.printf("Consumed %d records in %d s: %.0f msg/s, %d scheduled, %d coalesced, %d dropped%n",
+                consumed, TimeUnit.NANOSECONDS.toSeconds(elapsed), consumed * 1e9 / elapsed,
+                metrics.getScheduled(), metrics.getCoalesced(), metrics.getDropped());
+        System.out.printf("Heap growth %d MB, threads %d before, %d after%n",
+                (usedHeapAfterGc(memory) - heapBefore) >> 20, threadsBefore, threads.getThreadCount());
+        assertEquals("Leaked consumer threads", 0, countConsumerThreads());
+    }
+
+    /**
+     * Creates jobs with triggers, every fourth of them with parameters.
+     */
+    private String[] createJobs() throws Exception {
+        String[] names = new String[JOBS];
+        for (int i = 0; i < JOBS; i++) {
+            FreeStyleProject project = r.createFreeStyleProject("soak-" + i);
+            if (i % 4 == 0) {
+                List<ParameterDefinition> definitions = new ArrayList<ParameterDefinition>();
+                for (int p = 0; p < 5; p++) {
+                    definitions.add(new StringParameterDefinition("PARAM_" + p, "default", null));
+                }
+                project.addProperty(new ParametersDefinitionProperty(definitions));
+            }
+            RemoteBuildTrigger<FreeStyleProject> trigger = new RemoteBuildTrigger<FreeStyleProject>(TOKEN);
+            project.addTrigger(trigger);
+            trigger.start(project, true);
+            names[i] = project.getFullName();
+        }
+        return names;
+    }
+
+    /**
+     * Creates messages for random jobs with a few parameter values, so queued
+     * builds are merged, plus unknown projects and wrong tokens. The project of
+     * every message is stored in given keys.
+     */
+    private static byte[][] createPayloads(String[] jobNames, byte[][] keys) {
+        byte[][] payloads = new byte[PAYLOADS][];
+        Random random = new Random(42);
+        for (int i = 0; i < PAYLOADS; i++) {
+            String project = i % 20 == 0 ? "unknown-" + i : jobNames[random.nextInt(jobNames.length)];
+            String token = i % 50 == 1 ? "wrong" : TOKEN;
+            String json = BenchmarkData.buildMessage(project, token, 0);
+            json = json.substring(0, json.length() - 1) + ",\"parameter\":[{\"name\":\"param_0\",\"value\":\"v"
+                    + random.nextInt(4) + "\"}]}";
+            payloads[i] = json.getBytes(StandardCharsets.UTF_8);
+            keys[i] = project.getBytes(StandardCharsets.UTF_8);
+        }
+        return payloads;
+    }
+
+    private static long usedHeapAfterGc(MemoryMXBean memory) {
+        System.gc();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    private static int countConsumerThreads() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread instanceof ConsumerThread && thread.isAlive()) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,102 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Mock consumer producing synthetic build messages on every poll until a
+ * shared record budget is used up.
+ *
+ * <p>The records carry prepared JSON payloads and, if given, keys naming
+ * their project, which the consumer thread parses as it would with a real
+ * consumer. Since {@link MockConsumer#rebalance(Collection)} does not call
+ * the rebalance listener, the listener is called here after the partitions
+ * have been assigned.</p>
+ */
+class SyntheticConsumer extends MockConsumer<byte[], byte[]> {
+
+    private final List<TopicPartition> partitions;
+    private final byte[][] keys;
+    private final byte[][] payloads;
+    private final AtomicLong remaining;
+    private final int batchSize;
+    private final Map<TopicPartition, Long> offsets = new HashMap<TopicPartition, Long>();
+    private ConsumerRebalanceListener listener;
+    private long sequence;
+
+    SyntheticConsumer(String topic, int partitions, byte[][] keys, byte[][] payloads, AtomicLong remaining,
+                      int batchSize) {
+        super(OffsetResetStrategy.EARLIEST);
+        this.partitions = new ArrayList<TopicPartition>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            this.partitions.add(new TopicPartition(topic, i));
+        }
+        this.keys = keys;
+        this.payloads = payloads;
+        this.remaining = remaining;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public synchronized void subscribe(Collection<String> topics, ConsumerRebalanceListener listener) {
+        this.listener = listener;
+        super.subscribe(topics, listener);
+    }
+
+    @Override
+    public synchronized ConsumerRecords<byte[], byte[]> poll(Duration timeout) {
+        if (assignment().isEmpty() && !subscription().isEmpty()) {
+            Map<TopicPartition, Long> beginning = new HashMap<TopicPartition, Long>();
+            for (TopicPartition partition : partitions) {
+                beginning.put(partition, 0L);
+                offsets.put(partition, 0L);
+            }
+            rebalance(partitions);
+            updateBeginningOffsets(beginning);
+            if (listener != null) {
+                listener.onPartitionsAssigned(partitions);
+            }
+        }
+        if (!assignment().isEmpty()) {
+            addBatch();
+        }
+        return super.poll(timeout);
+    }
+
+    private void addBatch() {
+        for (int i = 0; i < batchSize; i++) {
+            TopicPartition partition = partitions.get((int) (sequence % partitions.size()));
+            if (paused().contains(partition) || !take()) {
+                // Paused partitions are not fetched, the record is produced once resumed.
+                return;
+            }
+            int payload = (int) (sequence++ % payloads.length);
+            long offset = offsets.merge(partition, 1L, Long::sum) - 1;
+            addRecord(new ConsumerRecord<byte[], byte[]>(partition.topic(), partition.partition(), offset,
+                    keys != null ? keys[payload] : null, payloads[payload]));
+        }
+    }
+
+    private boolean take() {
+        long left;
+        do {
+            left = remaining.get();
+            if (left <= 0) {
+                return false;
+            }
+        } while (!remaining.compareAndSet(left, left - 1));
+        return true;
+    }
+}
@@ -0,0 +1,105 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolving the triggers of a message among many registered ones.
+ *
+ * <p>{@link #index()} goes through {@link TriggerManager}. {@link #linearScan()}
+ * compares the project name with every trigger, as the plugin did before the
+ * index was introduced. {@link #globFanOut()} resolves a glob addressing
+ * every job of a folder.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TriggerLookupBenchmark {
+
+    @Param({ "100", "1000", "10000" })
+    public int triggers;
+
+    private final TriggerManager manager = TriggerManager.getInstance();
+    private RemoteBuildTrigger[] registered;
+    private String[] fullNames;
+    private String[] names;
+    private String[] lookups;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        registered = new RemoteBuildTrigger[triggers];
+        fullNames = new String[triggers];
+        names = new String[triggers];
+        for (int i = 0; i < triggers; i++) {
+            registered[i] = BenchmarkData.newTrigger("token-" + i);
+            names[i] = "job-" + i;
+            fullNames[i] = "folder-" + (i % 50) + "/" + names[i];
+            manager.addTrigger(registered[i], fullNames[i], names[i]);
+        }
+        // Hits by full name and short name, and misses, spread over the whole range.
+        lookups = new String[1024];
+        for (int i = 0; i < lookups.length; i++) {
+            int job = (int) ((i * 2654435761L) % triggers);
+            switch (i % 4) {
+            case 0:
+                lookups[i] = names[job];
+                break;
+            case 3:
+                lookups[i] = "unknown-" + job;
+                break;
+            default:
+                lookups[i] = fullNames[job];
+                break;
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (RemoteBuildTrigger trigger : registered) {
+            manager.removeTrigger(trigger);
+        }
+    }
+
+    @Benchmark
+    public RemoteBuildTrigger[] index() {
+        return manager.getTriggers(nextLookup());
+    }
+
+    @Benchmark
+    public RemoteBuildTrigger linearScan() {
+        String project = nextLookup();
+        for (int i = 0; i < registered.length; i++) {
+            if (fullNames[i].equals(project) || names[i].equals(project)) {
+                return registered[i];
+            }
+        }
+        return null;
+    }
+
+    @Benchmark
+    public RemoteBuildTrigger[] globFanOut() {
+        return manager.getMatchingTriggers(KafkaSubscription.DEFAULT_NAME, "folder-" + (next++ % 50) + "/*", false);
+    }
+
+    private String nextLookup() {
+        return lookups[next++ & (lookups.length - 1)];
+    }
+}
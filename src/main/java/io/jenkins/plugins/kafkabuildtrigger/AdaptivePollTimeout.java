@@ -0,0 +1,50 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+/**
+ * Poll timeout that doubles with every empty poll, so an idle consumer wakes
+ * up rarely, and drops back to the minimum as soon as records arrive.
+ *
+ * <p>How much a busy consumer fetches at once is governed by the fetch
+ * settings of the consumer, since polls return as soon as records are
+ * available. Instances are not thread-safe and belong to one consumer
+ * thread.</p>
+ */
+final class AdaptivePollTimeout {
+
+    /**
+     * The timeout after a poll that returned records.
+     */
+    static final long MIN_MILLIS = 50;
+
+    /**
+     * The longest timeout of an idle consumer.
+     */
+    static final long MAX_MILLIS = 5000;
+
+    /**
+     * The longest timeout while the consumer has work pending outside of the
+     * poll, such as builds in dispatch or paused partitions to check.
+     */
+    static final long BUSY_MILLIS = 100;
+
+    private long millis = MIN_MILLIS;
+
+    /**
+     * Gets the timeout of the next poll.
+     *
+     * @return the timeout in milliseconds.
+     */
+    long getMillis() {
+        return millis;
+    }
+
+    /**
+     * Adapts the timeout to the result of a poll.
+     *
+     * @param records
+     *            the number of records the poll returned.
+     */
+    void update(int records) {
+        millis = records > 0 ? MIN_MILLIS : Math.min(MAX_MILLIS, millis * 2);
+    }
+}
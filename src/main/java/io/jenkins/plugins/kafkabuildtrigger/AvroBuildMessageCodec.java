@@ -0,0 +1,244 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import hudson.Extension;
+import org.apache.kafka.common.errors.SerializationException;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Avro binary messages of the schema in {@code BuildMessage.avsc} next to this
+ * class.
+ *
+ * <p>Values are read either in Avro single-object encoding, where the
+ * fingerprint of the schema is embedded in front of the data and checked, or
+ * as plain Avro binary data of the same schema. No schema registry is
+ * involved. Messages are encoded in single-object encoding. The format is
+ * decoded by hand, so the plugin does not depend on the Avro library.</p>
+ */
+@Extension
+public class AvroBuildMessageCodec extends BuildMessageCodec {
+
+    /**
+     * The identifier.
+     */
+    public static final String ID = "avro";
+
+    /**
+     * Parsing Canonical Form of {@code BuildMessage.avsc}, which its
+     * fingerprint is computed from.
+     */
+    static final String CANONICAL_SCHEMA = "{\"name\":\"io.jenkins.plugins.kafkabuildtrigger.BuildMessage\","
+            + "\"type\":\"record\",\"fields\":[{\"name\":\"project\",\"type\":\"string\"},"
+            + "{\"name\":\"token\",\"type\":[\"null\",\"string\"]},"
+            + "{\"name\":\"parameter\",\"type\":[\"null\",{\"type\":\"array\",\"items\":"
+            + "{\"name\":\"io.jenkins.plugins.kafkabuildtrigger.Parameter\",\"type\":\"record\",\"fields\":["
+            + "{\"name\":\"name\",\"type\":\"string\"},{\"name\":\"value\",\"type\":[\"null\",\"string\"]}]}}]}]}";
+
+    /**
+     * The CRC-64-AVRO fingerprint of {@link #CANONICAL_SCHEMA}.
+     */
+    static final long FINGERPRINT = fingerprint64(CANONICAL_SCHEMA.getBytes(StandardCharsets.UTF_8));
+
+    private static final byte MAGIC_0 = (byte) 0xC3;
+    private static final byte MAGIC_1 = (byte) 0x01;
+    private static final int HEADER_LENGTH = 10;
+
+    @Override
+    public String getId() {
+        return ID;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Avro (BuildMessage.avsc)";
+    }
+
+    @Override
+    public BuildMessage decode(String topic, byte[] data) {
+        int offset = 0;
+        if (data.length >= HEADER_LENGTH && data[0] == MAGIC_0 && data[1] == MAGIC_1) {
+            long fingerprint = 0;
+            for (int i = HEADER_LENGTH - 1; i >= 2; i--) {
+                fingerprint = fingerprint << 8 | (data[i] & 0xff);
+            }
+            if (fingerprint != FINGERPRINT) {
+                throw new SerializationException("Build message from topic " + topic
+                        + " has unknown schema fingerprint " + Long.toHexString(fingerprint));
+            }
+            offset = HEADER_LENGTH;
+        }
+        Decoder in = new Decoder(data, offset);
+        String project = in.readString();
+        String token = in.readOptionalString();
+        String[] parameters = null;
+        if (in.readUnionBranch() == 1) {
+            parameters = new String[8];
+            int size = 0;
+            long count;
+            while ((count = in.readLong()) != 0) {
+                if (count < 0) {
+                    count = -count;
+                    // Size of the block in bytes.
+                    in.readLong();
+                }
+                in.checkCount(count);
+                for (long i = 0; i < count; i++) {
+                    if (size == parameters.length) {
+                        parameters = Arrays.copyOf(parameters, size * 2);
+                    }
+                    parameters[size++] = in.readString();
+                    parameters[size++] = in.readOptionalString();
+                }
+            }
+            if (size != parameters.length) {
+                parameters = Arrays.copyOf(parameters, size);
+            }
+        }
+        return new BuildMessage(project, token, parameters);
+    }
+
+    @Override
+    public byte[] encode(BuildMessage message) {
+        Encoder out = new Encoder();
+        out.write(MAGIC_0);
+        out.write(MAGIC_1);
+        for (int i = 0; i < 8; i++) {
+            out.write((int) (FINGERPRINT >>> (8 * i)));
+        }
+        out.writeString(message.getProject() != null ? message.getProject() : "");
+        out.writeOptionalString(message.getToken());
+        if (message.hasParameters()) {
+            out.writeLong(1);
+            int count = message.getParameterCount();
+            if (count > 0) {
+                out.writeLong(count);
+                for (int i = 0; i < count; i++) {
+                    out.writeString(message.getParameterName(i));
+                    out.writeOptionalString(message.getParameterValue(i));
+                }
+            }
+            // End of the array.
+            out.writeLong(0);
+        } else {
+            // The null branch.
+            out.writeLong(0);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Computes the CRC-64-AVRO fingerprint defined by the Avro specification.
+     */
+    static long fingerprint64(byte[] data) {
+        final long empty = 0xc15d213aa4d7a795L;
+        long[] table = new long[256];
+        for (int i = 0; i < 256; i++) {
+            long fp = i;
+            for (int j = 0; j < 8; j++) {
+                fp = (fp >>> 1) ^ (empty & -(fp & 1L));
+            }
+            table[i] = fp;
+        }
+        long fp = empty;
+        for (byte b : data) {
+            fp = (fp >>> 8) ^ table[(int) (fp ^ b) & 0xff];
+        }
+        return fp;
+    }
+
+    /**
+     * Reader of Avro binary data with bounds checks.
+     */
+    private static final class Decoder {
+        private final byte[] data;
+        private int pos;
+
+        Decoder(byte[] data, int pos) {
+            this.data = data;
+            this.pos = pos;
+        }
+
+        long readLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (pos >= data.length) {
+                    throw new SerializationException("Build message is truncated");
+                }
+                int b = data[pos++] & 0xff;
+                value |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return (value >>> 1) ^ -(value & 1);
+                }
+            }
+            throw new SerializationException("Build message has a malformed number");
+        }
+
+        int readUnionBranch() {
+            long branch = readLong();
+            if (branch != 0 && branch != 1) {
+                throw new SerializationException("Build message has an invalid union branch " + branch);
+            }
+            return (int) branch;
+        }
+
+        String readString() {
+            long length = readLong();
+            if (length < 0 || length > data.length - pos) {
+                throw new SerializationException("Build message has an invalid string length " + length);
+            }
+            String value = new String(data, pos, (int) length, StandardCharsets.UTF_8);
+            pos += (int) length;
+            return value;
+        }
+
+        String readOptionalString() {
+            return readUnionBranch() == 1 ? readString() : null;
+        }
+
+        /**
+         * Rejects block counts that cannot fit in the remaining data, every
+         * parameter taking at least two bytes.
+         */
+        void checkCount(long count) {
+            if (count > (data.length - pos) / 2) {
+                throw new SerializationException("Build message has an invalid block count " + count);
+            }
+        }
+    }
+
+    /**
+     * Writer of Avro binary data.
+     */
+    private static final class Encoder extends ByteArrayOutputStream {
+
+        Encoder() {
+            super(64);
+        }
+
+        void writeLong(long value) {
+            long n = (value << 1) ^ (value >> 63);
+            while ((n & ~0x7FL) != 0) {
+                write((int) ((n & 0x7f) | 0x80));
+                n >>>= 7;
+            }
+            write((int) n);
+        }
+
+        void writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeLong(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+
+        void writeOptionalString(String value) {
+            if (value == null) {
+                writeLong(0);
+            } else {
+                writeLong(1);
+                writeString(value);
+            }
+        }
+    }
+}
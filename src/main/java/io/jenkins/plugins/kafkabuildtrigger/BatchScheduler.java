@@ -0,0 +1,204 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import hudson.model.Action;
+import hudson.model.Queue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects builds and submits them to the Jenkins queue together.
+ *
+ * <p>The records a build has been created from are released once the queue
+ * has taken the build, or refused it, so their offsets can be committed.</p>
+ *
+ * <p>Parameters are resolved when a build is added, outside of the queue lock,
+ * unless its actions have been created before, see
+ * {@link #createActions(RemoteBuildTrigger, String, String[], String[], List, ConsumerMetrics, FailureRouter)}.
+ * On {@link #flush()} the builds are scheduled in chunks of at most
+ * {@link #MAX_LOCKED_BATCH} while holding the queue lock, so the lock is taken
+ * once per chunk instead of once per record. Instances are not thread-safe.
+ * The {@link BuildDispatcher} of a consumer uses one per scheduling run, for
+ * the builds all of its job lanes have prepared since the run before.</p>
+ *
+ * <p>Builds that cannot be created are dead-lettered, and builds the queue
+ * refuses are retried, by the {@link FailureRouter} if one is given.</p>
+ */
+class BatchScheduler implements BuildSink {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchScheduler.class);
+
+    /**
+     * The maximum number of builds scheduled while holding the queue lock once.
+     */
+    static final int MAX_LOCKED_BATCH = 100;
+
+    private final List<RemoteBuildTrigger> triggers = new ArrayList<RemoteBuildTrigger>();
+    private final List<Action[]> actions = new ArrayList<Action[]>();
+    private final List<List<PendingRecord>> records = new ArrayList<List<PendingRecord>>();
+    private final List<String> topicNames = new ArrayList<String>();
+    private final List<String[]> buildParameters = new ArrayList<String[]>();
+    private final List<String[]> buildCorrelationIds = new ArrayList<String[]>();
+    private final ConsumerMetrics metrics;
+    private final FailureRouter failureRouter;
+
+    BatchScheduler() {
+        this(ConsumerMetrics.getInstance());
+    }
+
+    BatchScheduler(ConsumerMetrics metrics) {
+        this(metrics, null);
+    }
+
+    BatchScheduler(ConsumerMetrics metrics, FailureRouter failureRouter) {
+        this.metrics = metrics;
+        this.failureRouter = failureRouter;
+    }
+
+    /**
+     * Adds build to be scheduled on next flush.
+     */
+    @Override
+    public void add(RemoteBuildTrigger trigger, String topicName, String[] parameters, String[] correlationIds,
+                    List<PendingRecord> pendingRecords) {
+        Action[] buildActions = createActions(trigger, topicName, parameters, correlationIds, pendingRecords,
+                metrics, failureRouter);
+        if (buildActions != null) {
+            add(trigger, topicName, parameters, correlationIds, buildActions, pendingRecords);
+        }
+    }
+
+    /**
+     * Adds build whose actions have been created already to be scheduled on
+     * next flush.
+     */
+    void add(RemoteBuildTrigger trigger, String topicName, String[] parameters, String[] correlationIds,
+             Action[] buildActions, List<PendingRecord> pendingRecords) {
+        triggers.add(trigger);
+        actions.add(buildActions);
+        records.add(pendingRecords);
+        topicNames.add(topicName);
+        buildParameters.add(parameters);
+        buildCorrelationIds.add(correlationIds);
+    }
+
+    /**
+     * Creates the actions of a build, resolving its parameters. A build whose
+     * actions cannot be created is dropped, dead-lettered and its records
+     * released. It can be called from any thread.
+     *
+     * @return the actions, or null if the build has been dropped.
+     */
+    static Action[] createActions(RemoteBuildTrigger trigger, String topicName, String[] parameters,
+                                  String[] correlationIds, List<PendingRecord> pendingRecords,
+                                  ConsumerMetrics metrics, FailureRouter failureRouter) {
+        try {
+            return trigger.createActions(topicName, parameters, correlationIds);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Cannot create build for project {}", trigger.getProjectFullName(), e);
+            metrics.recordDropped();
+            if (failureRouter != null) {
+                failureRouter.buildFailed(trigger, topicName, parameters, correlationIds, false, e.toString());
+            }
+            release(pendingRecords);
+            return null;
+        }
+    }
+
+    /**
+     * Gets the number of builds waiting for next flush.
+     *
+     * @return the number of builds.
+     */
+    public int size() {
+        return triggers.size();
+    }
+
+    /**
+     * Schedules all collected builds.
+     *
+     * @return the number of builds accepted by the queue.
+     */
+    public int flush() {
+        int size = triggers.size();
+        if (size == 0) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        int accepted = 0;
+        try {
+            for (int from = 0; from < size; from += MAX_LOCKED_BATCH) {
+                LockedBatch batch = new LockedBatch(from, Math.min(size, from + MAX_LOCKED_BATCH));
+                Queue.withLock(batch);
+                accepted += batch.accepted;
+                if (failureRouter != null) {
+                    // Published outside of the queue lock.
+                    for (int i = from; i < batch.to; i++) {
+                        if (!batch.scheduled[i - from]) {
+                            failureRouter.buildFailed(triggers.get(i), topicNames.get(i), buildParameters.get(i),
+                                    buildCorrelationIds.get(i), true, "Build not accepted by the queue");
+                        }
+                    }
+                }
+            }
+        } finally {
+            for (List<PendingRecord> pendingRecords : records) {
+                release(pendingRecords);
+            }
+            triggers.clear();
+            actions.clear();
+            records.clear();
+            topicNames.clear();
+            buildParameters.clear();
+            buildCorrelationIds.clear();
+        }
+        long batchNanos = System.nanoTime() - start;
+        metrics.recordBatch(batchNanos);
+        LOGGER.debug("Scheduled {} of {} builds in {} ms", accepted, size,
+                TimeUnit.NANOSECONDS.toMillis(batchNanos));
+        return accepted;
+    }
+
+    private static void release(List<PendingRecord> pendingRecords) {
+        if (pendingRecords != null) {
+            for (PendingRecord record : pendingRecords) {
+                record.release();
+            }
+        }
+    }
+
+    private final class LockedBatch implements Runnable {
+        private final int from;
+        private final int to;
+        private final boolean[] scheduled;
+        private int accepted;
+
+        LockedBatch(int from, int to) {
+            this.from = from;
+            this.to = to;
+            this.scheduled = new boolean[to - from];
+        }
+
+        @Override
+        public void run() {
+            for (int i = from; i < to; i++) {
+                RemoteBuildTrigger trigger = triggers.get(i);
+                long start = System.nanoTime();
+                boolean scheduled = false;
+                try {
+                    scheduled = trigger.scheduleBuild(actions.get(i));
+                } catch (RuntimeException e) {
+                    LOGGER.warn("Cannot schedule build for project {}", trigger.getProjectFullName(), e);
+                }
+                metrics.recordSchedule(System.nanoTime() - start, scheduled);
+                if (scheduled) {
+                    accepted++;
+                }
+                this.scheduled[i - from] = scheduled;
+            }
+        }
+    }
+}
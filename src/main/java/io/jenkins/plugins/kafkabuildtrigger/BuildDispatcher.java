@@ -0,0 +1,261 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import hudson.model.Action;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules the builds of one consumer off its polling thread.
+ *
+ * <p>Builds are queued in one lane per job. A lane runs on the shared executor
+ * while it has builds, creating their actions, which resolves their
+ * parameters, in arrival order, so different jobs are prepared concurrently.
+ * Prepared builds of all lanes are handed to the queue by one scheduling run
+ * at a time through a {@link BatchScheduler}, which takes the queue lock once
+ * per chunk of builds, whichever jobs they belong to. Builds prepared while a
+ * run holds the lock are scheduled together by the next one. Lanes append in
+ * order and runs take builds in order, so builds of one job keep their order.
+ * The executor runs virtual threads on Java 21 and later, and a small pool of
+ * daemon threads otherwise.</p>
+ *
+ * <p>The records of a build are released once the build has been handed to
+ * the queue, as with {@link BatchScheduler}. The consumer pauses while
+ * {@link #getInFlight()} is at its capacity and waits for
+ * {@link #awaitIdle(long)} before committing on revocation and on close.</p>
+ */
+class BuildDispatcher implements BuildSink {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BuildDispatcher.class);
+
+    private static final ExecutorService EXECUTOR = createExecutor();
+
+    private final ConsumerMetrics metrics;
+    /** Lanes of jobs with builds in dispatch, guarded by this. */
+    private final Map<String, Lane> lanes = new HashMap<String, Lane>();
+    /** Builds prepared by the lanes and not yet taken by a scheduling run, guarded by this. */
+    private final List<Build> prepared = new ArrayList<Build>();
+    /** Whether a scheduling run is active, guarded by this. */
+    private boolean scheduling;
+    /** Builds added and not yet scheduled, guarded by this. */
+    private int inFlight;
+    private final Runnable schedulingRun = this::schedule;
+    private volatile FailureRouter failureRouter;
+
+    BuildDispatcher(ConsumerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void add(RemoteBuildTrigger trigger, String topicName, String[] parameters, String[] correlationIds,
+                    List<PendingRecord> pendingRecords) {
+        Lane start = null;
+        synchronized (this) {
+            String job = trigger.getProjectFullName();
+            Lane lane = lanes.get(job);
+            if (lane == null) {
+                lane = new Lane(job);
+                lanes.put(job, lane);
+            }
+            lane.builds.add(new Build(trigger, topicName, parameters, correlationIds, pendingRecords));
+            inFlight++;
+            if (!lane.running) {
+                lane.running = true;
+                start = lane;
+            }
+        }
+        if (start != null) {
+            execute(start);
+        }
+    }
+
+    private static void execute(Runnable task) {
+        try {
+            EXECUTOR.execute(task);
+        } catch (RejectedExecutionException e) {
+            // Only when the JVM is going down, run on the calling thread instead.
+            task.run();
+        }
+    }
+
+    /**
+     * Hands builds prepared by a lane to the scheduling run, starting one if
+     * none is active.
+     */
+    private void schedule(List<Build> builds) {
+        boolean start;
+        synchronized (this) {
+            prepared.addAll(builds);
+            start = !scheduling;
+            scheduling = true;
+        }
+        if (start) {
+            execute(schedulingRun);
+        }
+    }
+
+    /**
+     * Schedules the prepared builds of all lanes until none is left.
+     */
+    private void schedule() {
+        while (true) {
+            Build[] batch;
+            synchronized (this) {
+                if (prepared.isEmpty()) {
+                    scheduling = false;
+                    return;
+                }
+                batch = prepared.toArray(new Build[0]);
+                prepared.clear();
+            }
+            BatchScheduler scheduler = new BatchScheduler(metrics, failureRouter);
+            try {
+                for (Build build : batch) {
+                    scheduler.add(build.trigger, build.topicName, build.parameters, build.correlationIds,
+                            build.actions, build.pendingRecords);
+                }
+                scheduler.flush();
+            } catch (RuntimeException e) {
+                LOGGER.warn("Cannot schedule {} builds", batch.length, e);
+            } finally {
+                completed(batch.length);
+            }
+        }
+    }
+
+    /**
+     * Sets the router of builds that cannot be scheduled.
+     *
+     * @param failureRouter
+     *            the router, or null.
+     */
+    void setFailureRouter(FailureRouter failureRouter) {
+        this.failureRouter = failureRouter;
+    }
+
+    /**
+     * Gets the number of builds added and not yet handed to the queue.
+     *
+     * @return the number of builds.
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Waits until all added builds have been handed to the queue.
+     *
+     * @param timeoutMillis
+     *            the maximum time to wait.
+     * @return true if no build is left in dispatch.
+     */
+    public synchronized boolean awaitIdle(long timeoutMillis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (inFlight > 0) {
+            long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (left <= 0) {
+                LOGGER.warn("{} builds still in dispatch after {} ms", inFlight, timeoutMillis);
+                return false;
+            }
+            try {
+                wait(left);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private synchronized void completed(int count) {
+        inFlight -= count;
+        if (inFlight == 0) {
+            notifyAll();
+        }
+    }
+
+    private static ExecutorService createExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (NoSuchMethodException e) {
+            // Before Java 21.
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOGGER.warn("Cannot create virtual thread executor, using platform threads", e);
+        }
+        int threads = Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+        return Executors.newFixedThreadPool(threads,
+                new NamingThreadFactory(new DaemonThreadFactory(), "Kafka build trigger dispatcher"));
+    }
+
+    private final class Lane implements Runnable {
+        private final String job;
+        private final List<Build> builds = new ArrayList<Build>();
+        private boolean running;
+
+        Lane(String job) {
+            this.job = job;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Build[] batch;
+                synchronized (BuildDispatcher.this) {
+                    if (builds.isEmpty()) {
+                        running = false;
+                        lanes.remove(job);
+                        return;
+                    }
+                    batch = builds.toArray(new Build[0]);
+                    builds.clear();
+                }
+                List<Build> ready = new ArrayList<Build>(batch.length);
+                FailureRouter router = failureRouter;
+                for (Build build : batch) {
+                    build.actions = BatchScheduler.createActions(build.trigger, build.topicName, build.parameters,
+                            build.correlationIds, build.pendingRecords, metrics, router);
+                    if (build.actions != null) {
+                        ready.add(build);
+                    }
+                }
+                if (ready.size() < batch.length) {
+                    completed(batch.length - ready.size());
+                }
+                if (!ready.isEmpty()) {
+                    schedule(ready);
+                }
+            }
+        }
+    }
+
+    private static final class Build {
+        private final RemoteBuildTrigger trigger;
+        private final String topicName;
+        private final String[] parameters;
+        private final String[] correlationIds;
+        private final List<PendingRecord> pendingRecords;
+        /** The actions, set by the lane once created. */
+        private Action[] actions;
+
+        Build(RemoteBuildTrigger trigger, String topicName, String[] parameters, String[] correlationIds,
+              List<PendingRecord> pendingRecords) {
+            this.trigger = trigger;
+            this.topicName = topicName;
+            this.parameters = parameters;
+            this.correlationIds = correlationIds;
+            this.pendingRecords = pendingRecords;
+        }
+    }
+}
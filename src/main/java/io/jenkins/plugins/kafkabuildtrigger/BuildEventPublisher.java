@@ -0,0 +1,346 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import hudson.model.Action;
+import hudson.model.Cause;
+import hudson.model.CauseAction;
+import hudson.model.Item;
+import hudson.model.Queue;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes the lifecycle events of builds caused by a
+ * {@link RemoteBuildCause} to the event topic, so producers learn what became
+ * of their messages without polling Jenkins.
+ *
+ * <p>An event is a JSON object with its {@code type}, one of
+ * {@value #QUEUED}, {@value #CANCELLED}, {@value #STARTED} and
+ * {@value #COMPLETED}, the {@code correlationId} of the cause, the
+ * {@code topic} the message was read from, the {@code job}, the
+ * {@code queueId} and the {@code timestamp} of the event. Queued events carry
+ * {@code queuedAt}, build events the {@code build} number and
+ * {@code startedAt}, completed events the {@code result} and
+ * {@code duration}, all times in milliseconds. Events are keyed by correlation
+ * id, so the events of one message arrive in order.</p>
+ *
+ * <p>A build coalesced from several messages has one cause per message, so
+ * each of them gets its own events. A build equal to one already waiting is
+ * folded into that queue item, which then has the causes of both. No item enters the queue for it, so its
+ * queued event is published by the trigger once the queue accepted it, with
+ * the id of the existing item.</p>
+ *
+ * <p>Listeners only encode an event and put it into a bounded buffer. A
+ * single sender thread hands the events to a producer that batches and
+ * compresses them. When the buffer is full the oldest event is dropped, so a
+ * slow or unreachable broker never holds up the queue or a build.</p>
+ */
+final class BuildEventPublisher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BuildEventPublisher.class);
+
+    static final String QUEUED = "queued";
+    static final String CANCELLED = "cancelled";
+    static final String STARTED = "started";
+    static final String COMPLETED = "completed";
+
+    /**
+     * The maximum number of events waiting for the sender thread.
+     */
+    static final int MAX_PENDING = 10000;
+
+    private static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(10);
+
+    private static final JsonFactory FACTORY = new ObjectMapper().getFactory();
+
+    /** The publisher of the configured topic, replaced under the class lock. */
+    private static volatile BuildEventPublisher instance;
+    /** The configuration of {@link #instance}, guarded by the class. */
+    private static String instanceKey;
+
+    private final String topic;
+    private final Producer<byte[], byte[]> producer;
+    private final BlockingQueue<ProducerRecord<byte[], byte[]>> buffer =
+            new ArrayBlockingQueue<ProducerRecord<byte[], byte[]>>(MAX_PENDING);
+    private final Thread sender;
+    private volatile boolean closed;
+
+    /**
+     * Creates instance publishing to given topic through given producer.
+     *
+     * @param topic
+     *            the event topic.
+     * @param producer
+     *            the producer, a mock one in tests.
+     */
+    BuildEventPublisher(String topic, Producer<byte[], byte[]> producer) {
+        this.topic = topic;
+        this.producer = producer;
+        this.sender = new NamingThreadFactory(new DaemonThreadFactory(), "Kafka build trigger event publisher")
+                .newThread(this::send);
+        this.sender.start();
+    }
+
+    /**
+     * Gets the publisher of the configured event topic.
+     *
+     * @return the publisher, or null if no event topic is set.
+     */
+    static BuildEventPublisher getInstance() {
+        return instance;
+    }
+
+    /**
+     * Opens the publisher of given configuration, closing the previous one
+     * if the event topic or the connection has changed.
+     *
+     * @param conf
+     *            the configuration.
+     */
+    static synchronized void update(GlobalKafkaBuildTriggerConfig conf) {
+        String topic = conf.getEventTopic();
+        String brokers = conf.getEventBrokers();
+        String key = topic != null && brokers != null
+                ? brokers + '\n' + conf.getConsumerProperties() + '\n' + topic
+                : null;
+        if (Objects.equals(key, instanceKey)) {
+            return;
+        }
+        BuildEventPublisher previous = instance;
+        instance = null;
+        instanceKey = key;
+        if (previous != null) {
+            previous.close();
+        }
+        if (key != null) {
+            try {
+                instance = new BuildEventPublisher(topic, new KafkaProducer<byte[], byte[]>(
+                        producerProperties(brokers, conf.getConsumerProperties()),
+                        new ByteArraySerializer(), new ByteArraySerializer()));
+                LOGGER.info("Publishing build events to topic {}", topic);
+            } catch (KafkaException | IllegalArgumentException e) {
+                LOGGER.warn("Cannot publish build events to topic {}", topic, e);
+            }
+        }
+    }
+
+    /**
+     * Sends what is pending and closes the publisher.
+     */
+    static synchronized void shutdown() {
+        BuildEventPublisher previous = instance;
+        instance = null;
+        instanceKey = null;
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    /**
+     * Gets the producer properties of the event topic. Events are only
+     * acknowledged by the leader and linger longer than failed records, as
+     * they are informational and come in bursts of queue activity.
+     */
+    static Properties producerProperties(String brokers, String consumerProperties) {
+        Properties properties = FailurePublisher.producerProperties(brokers, consumerProperties);
+        properties.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, "false");
+        properties.put(ProducerConfig.ACKS_CONFIG, "1");
+        properties.put(ProducerConfig.LINGER_MS_CONFIG, "100");
+        return properties;
+    }
+
+    /**
+     * Publishes the events of given queue item.
+     *
+     * @param type
+     *            {@value #QUEUED} or {@value #CANCELLED}.
+     * @param item
+     *            the queue item.
+     */
+    void publish(String type, Queue.Item item) {
+        publish(type, item.getCauses(), getJobName(item), item.getId(), item.getInQueueSince(), null);
+    }
+
+    /**
+     * Publishes the queued events of the remote causes in given actions that
+     * the queue folded into an existing item of given task.
+     *
+     * @param task
+     *            the task the actions have been scheduled for.
+     * @param actions
+     *            the actions the queue accepted.
+     */
+    void publishFolded(Queue.Task task, Action[] actions) {
+        for (Action action : actions) {
+            if (!(action instanceof CauseAction)) {
+                continue;
+            }
+            for (Cause cause : ((CauseAction) action).getCauses()) {
+                if (cause instanceof RemoteBuildCause && !((RemoteBuildCause) cause).isQueuedPublished()) {
+                    for (Queue.Item item : Queue.getInstance().getItems(task)) {
+                        if (item.getCauses().contains(cause)) {
+                            publish(QUEUED, Collections.singletonList(cause), getJobName(item), item.getId(),
+                                    item.getInQueueSince(), null);
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Publishes the events of given build.
+     *
+     * @param type
+     *            {@value #STARTED} or {@value #COMPLETED}.
+     * @param run
+     *            the build.
+     */
+    void publish(String type, Run<?, ?> run) {
+        publish(type, run.getCauses(), run.getParent().getFullName(), run.getQueueId(), 0, run);
+    }
+
+    /**
+     * Publishes one event per remote cause, a queue item absorbing equal
+     * builds having the causes of all of them.
+     */
+    void publish(String type, List<Cause> causes, String job, long queueId, long queuedAt, Run<?, ?> run) {
+        for (Cause cause : causes) {
+            if (cause instanceof RemoteBuildCause) {
+                RemoteBuildCause remoteCause = (RemoteBuildCause) cause;
+                if (QUEUED.equals(type)) {
+                    remoteCause.setQueuedPublished();
+                }
+                byte[] value;
+                try {
+                    value = encode(type, remoteCause, job, queueId, queuedAt, run);
+                } catch (IOException e) {
+                    LOGGER.warn("Cannot encode {} event of project {}", type, job, e);
+                    continue;
+                }
+                String key = remoteCause.getCorrelationId() != null ? remoteCause.getCorrelationId() : job;
+                enqueue(new ProducerRecord<byte[], byte[]>(topic, key.getBytes(StandardCharsets.UTF_8), value));
+            }
+        }
+    }
+
+    private static String getJobName(Queue.Item item) {
+        return item.task instanceof Item ? ((Item) item.task).getFullName() : item.task.getFullDisplayName();
+    }
+
+    private static byte[] encode(String type, RemoteBuildCause cause, String job, long queueId, long queuedAt,
+                                 Run<?, ?> run) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        try (JsonGenerator json = FACTORY.createGenerator(out)) {
+            long now = System.currentTimeMillis();
+            json.writeStartObject();
+            json.writeStringField("type", type);
+            json.writeStringField("correlationId", cause.getCorrelationId());
+            json.writeStringField("topic", cause.getTopicName());
+            json.writeStringField("job", job);
+            json.writeNumberField("queueId", queueId);
+            json.writeNumberField("timestamp", now);
+            if (queuedAt > 0) {
+                json.writeNumberField("queuedAt", queuedAt);
+            }
+            if (run != null) {
+                json.writeNumberField("build", run.getNumber());
+                json.writeNumberField("startedAt", run.getStartTimeInMillis());
+                if (COMPLETED.equals(type)) {
+                    Result result = run.getResult();
+                    json.writeStringField("result", result != null ? result.toString() : null);
+                    long duration = run.getDuration();
+                    json.writeNumberField("duration", duration > 0 ? duration
+                            : Math.max(0, now - run.getStartTimeInMillis()));
+                }
+            }
+            json.writeEndObject();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Buffers given event, dropping the oldest one if the buffer is full.
+     */
+    private void enqueue(ProducerRecord<byte[], byte[]> event) {
+        if (closed) {
+            return;
+        }
+        while (!buffer.offer(event)) {
+            if (buffer.poll() != null) {
+                ConsumerMetrics.getInstance().recordEventDropped();
+                LOGGER.debug("Dropping oldest build event of topic {}, {} events are waiting", topic,
+                        MAX_PENDING);
+            }
+        }
+    }
+
+    /**
+     * Hands the buffered events to the producer until closed. Only this
+     * thread waits for a full producer buffer or missing metadata.
+     */
+    private void send() {
+        while (!closed || !buffer.isEmpty()) {
+            ProducerRecord<byte[], byte[]> event;
+            try {
+                event = buffer.poll(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (event == null) {
+                continue;
+            }
+            try {
+                producer.send(event, (metadata, exception) -> {
+                    if (exception != null) {
+                        LOGGER.debug("Cannot publish build event to topic {}", topic, exception);
+                    }
+                });
+            } catch (KafkaException | IllegalStateException e) {
+                LOGGER.warn("Cannot publish build event to topic {}", topic, e);
+            }
+        }
+    }
+
+    /**
+     * Sends what is pending and closes the producer.
+     */
+    void close() {
+        closed = true;
+        try {
+            sender.join(CLOSE_TIMEOUT.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (sender.isAlive()) {
+            LOGGER.warn("{} build events not published", buffer.size());
+            sender.interrupt();
+        }
+        producer.close(CLOSE_TIMEOUT);
+    }
+}
@@ -0,0 +1,73 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+/**
+ * Build request read from a Kafka record.
+ *
+ * <p>Parameters are kept as one flat array of alternating names and values,
+ * so a message is a single small object graph that is never modified after it
+ * has been read. Instances are created by a {@link BuildMessageCodec}.</p>
+ */
+public final class BuildMessage {
+
+    private static final String[] NO_PARAMETERS = new String[0];
+
+    private final String project;
+    private final String token;
+    private final String[] parameters;
+
+    /**
+     * Creates instance with specified parameters.
+     *
+     * @param project
+     *            the project name.
+     * @param token
+     *            the token for remote build.
+     * @param parameters
+     *            the alternating parameter names and values, or null if the
+     *            message has no parameter list.
+     */
+    public BuildMessage(String project, String token, String[] parameters) {
+        this.project = project;
+        this.token = token;
+        this.parameters = parameters;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public String getProject() {
+        return project;
+    }
+
+    /**
+     * Gets whether the message carries a parameter list.
+     *
+     * @return true if the message has a parameter list, even an empty one.
+     */
+    public boolean hasParameters() {
+        return parameters != null;
+    }
+
+    /**
+     * Gets the parameters as alternating names and values. The returned array
+     * is shared and must not be modified.
+     *
+     * @return the parameters, or an empty array.
+     */
+    public String[] getParameters() {
+        return parameters != null ? parameters : NO_PARAMETERS;
+    }
+
+    public int getParameterCount() {
+        return parameters != null ? parameters.length / 2 : 0;
+    }
+
+    public String getParameterName(int i) {
+        return parameters[2 * i];
+    }
+
+    public String getParameterValue(int i) {
+        return parameters[2 * i + 1];
+    }
+}
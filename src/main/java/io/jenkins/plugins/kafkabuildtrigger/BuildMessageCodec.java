@@ -0,0 +1,77 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import hudson.ExtensionList;
+import hudson.ExtensionPoint;
+import org.apache.kafka.common.errors.SerializationException;
+
+/**
+ * Wire format of trigger messages.
+ *
+ * <p>The codec used by the consumers is chosen in
+ * {@link GlobalKafkaBuildTriggerConfig}. Implementations are thread-safe, as
+ * one instance is shared by all consumers.</p>
+ */
+public abstract class BuildMessageCodec implements ExtensionPoint {
+
+    /**
+     * Gets the identifier stored in the configuration.
+     *
+     * @return the identifier.
+     */
+    public abstract String getId();
+
+    /**
+     * Gets the name shown in the configuration.
+     *
+     * @return the display name.
+     */
+    public abstract String getDisplayName();
+
+    /**
+     * Decodes record value.
+     *
+     * @param topic
+     *            the topic the record has been read from.
+     * @param data
+     *            the record value.
+     * @return the message.
+     * @throws SerializationException
+     *             throw if the value is not a valid message.
+     */
+    public abstract BuildMessage decode(String topic, byte[] data);
+
+    /**
+     * Encodes message, e.g. to republish it.
+     *
+     * @param message
+     *            the message.
+     * @return the record value.
+     */
+    public abstract byte[] encode(BuildMessage message);
+
+    /**
+     * Gets all codecs.
+     *
+     * @return the codecs.
+     */
+    public static ExtensionList<BuildMessageCodec> all() {
+        return ExtensionList.lookup(BuildMessageCodec.class);
+    }
+
+    /**
+     * Gets codec by identifier.
+     *
+     * @param id
+     *            the identifier.
+     * @return the codec, or the JSON codec if there is none with given
+     *         identifier.
+     */
+    public static BuildMessageCodec get(String id) {
+        for (BuildMessageCodec codec : all()) {
+            if (codec.getId().equals(id)) {
+                return codec;
+            }
+        }
+        return ExtensionList.lookupSingleton(JsonBuildMessageCodec.class);
+    }
+}
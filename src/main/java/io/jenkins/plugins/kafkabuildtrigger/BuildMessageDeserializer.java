@@ -0,0 +1,115 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Deserializer;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Deserializer reading JSON build messages straight into {@link BuildMessage}.
+ *
+ * <p>The message has the form
+ * <code>{"project": "...", "token": "...", "parameter": [{"name": "...", "value": "..."}]}</code>.
+ * Unknown fields are skipped without being materialized.</p>
+ */
+class BuildMessageDeserializer implements Deserializer<BuildMessage> {
+
+    private static final String KEY_PROJECT = "project";
+    private static final String KEY_TOKEN = "token";
+    private static final String KEY_PARAMETER = "parameter";
+    private static final String KEY_PARAM_NAME = "name";
+    private static final String KEY_PARAM_VALUE = "value";
+
+    /**
+     * Shared factory. It is thread-safe once configured, and its codec is used
+     * to render structured parameter values back to JSON text.
+     */
+    private static final JsonFactory FACTORY = new ObjectMapper().getFactory();
+
+    @Override
+    public BuildMessage deserialize(String topic, byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        try (JsonParser parser = FACTORY.createParser(data)) {
+            return read(parser);
+        } catch (IOException e) {
+            throw new SerializationException("Cannot deserialize build message from topic " + topic, e);
+        }
+    }
+
+    private static BuildMessage read(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new SerializationException("Build message is not a JSON object");
+        }
+        String project = null;
+        String token = null;
+        String[] parameters = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (KEY_PROJECT.equals(field)) {
+                project = readText(parser, value);
+            } else if (KEY_TOKEN.equals(field)) {
+                token = readText(parser, value);
+            } else if (KEY_PARAMETER.equals(field)) {
+                parameters = readParameters(parser, value);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return new BuildMessage(project, token, parameters);
+    }
+
+    private static String[] readParameters(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token != JsonToken.START_ARRAY) {
+            throw new SerializationException("Build message parameter is not a JSON array");
+        }
+        String[] parameters = new String[8];
+        int size = 0;
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            String name = null;
+            String value = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken t = parser.nextToken();
+                if (KEY_PARAM_NAME.equals(field)) {
+                    name = readText(parser, t);
+                } else if (KEY_PARAM_VALUE.equals(field)) {
+                    value = readText(parser, t);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (name != null) {
+                if (size == parameters.length) {
+                    parameters = Arrays.copyOf(parameters, size * 2);
+                }
+                parameters[size++] = name;
+                parameters[size++] = value;
+            }
+        }
+        if (parser.currentToken() != JsonToken.END_ARRAY) {
+            throw new SerializationException("Build message parameter is not an array of objects");
+        }
+        return size == parameters.length ? parameters : Arrays.copyOf(parameters, size);
+    }
+
+    private static String readText(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+            return parser.readValueAsTree().toString();
+        }
+        return parser.getText();
+    }
+}
@@ -0,0 +1,29 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import java.util.List;
+
+/**
+ * Takes builds resolved from trigger messages on their way to the queue.
+ */
+interface BuildSink {
+
+    /**
+     * Adds build for given trigger.
+     *
+     * @param trigger
+     *            the matched trigger.
+     * @param topicName
+     *            the topic name the message was read from.
+     * @param parameters
+     *            the alternating parameter names and values of the message, or
+     *            null if the message has no parameters.
+     * @param correlationIds
+     *            the ids producers correlate the build events with, one per
+     *            message the build has been coalesced from, or null.
+     * @param pendingRecords
+     *            the records the build has been created from, released once
+     *            the build has been handed to the queue, or null.
+     */
+    void add(RemoteBuildTrigger trigger, String topicName, String[] parameters, String[] correlationIds,
+             List<PendingRecord> pendingRecords);
+}
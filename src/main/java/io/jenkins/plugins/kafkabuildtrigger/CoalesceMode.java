@@ -0,0 +1,29 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+/**
+ * How trigger messages for the same job are coalesced within the coalescing
+ * window.
+ */
+public enum CoalesceMode {
+
+    /**
+     * Only messages with equal parameters are merged into one build.
+     */
+    EQUAL_PARAMETERS("Merge messages with equal parameters"),
+
+    /**
+     * All messages for a job are merged into one build using the parameters
+     * of the last message.
+     */
+    LAST_WINS("Merge all messages, last parameters win");
+
+    private final String displayName;
+
+    CoalesceMode(String displayName) {
+        this.displayName = displayName;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+}
@@ -0,0 +1,200 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collapses trigger messages for the same job that arrive within the
+ * coalescing window into one build.
+ *
+ * <p>The window of a job starts with its first message. Messages arriving
+ * while the window is open are absorbed into the pending build, either only
+ * when their parameters are equal or always with the last parameters winning,
+ * depending on {@link CoalesceMode}. The pending build keeps the correlation
+ * ids of all messages it absorbs, so that its events are published for each
+ * of them. Instances are not thread-safe and belong to one consumer
+ * thread.</p>
+ */
+class Coalescer {
+
+    private final long windowNanos;
+    private final CoalesceMode mode;
+    private final Map<Object, Pending> pending = new LinkedHashMap<Object, Pending>();
+    private long absorbed;
+
+    Coalescer(long windowMillis, CoalesceMode mode) {
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.mode = mode != null ? mode : CoalesceMode.EQUAL_PARAMETERS;
+    }
+
+    /**
+     * Offers build for given trigger.
+     *
+     * @param trigger
+     *            the matched trigger.
+     * @param topicName
+     *            the topic name the message was read from.
+     * @param parameters
+     *            the alternating parameter names and values of the message, or
+     *            null if the message has no parameters.
+     * @param correlationIds
+     *            the correlation ids of the message, which a pending build
+     *            absorbing it adds to its own.
+     * @param record
+     *            the record the message has been read from, released once the
+     *            coalesced build has been handed to the queue, or null.
+     * @return true if the build has been absorbed by a pending one.
+     */
+    public boolean offer(RemoteBuildTrigger trigger, String topicName, String[] parameters,
+                         String[] correlationIds, PendingRecord record) {
+        Object key = mode == CoalesceMode.LAST_WINS ? trigger : new ParametersKey(trigger, parameters);
+        Pending p = pending.get(key);
+        if (p != null) {
+            p.topicName = topicName;
+            p.parameters = parameters;
+            p.addCorrelationIds(correlationIds);
+            p.addRecord(record);
+            absorbed++;
+            return true;
+        }
+        p = new Pending(trigger, topicName, parameters, System.nanoTime());
+        p.addCorrelationIds(correlationIds);
+        p.addRecord(record);
+        pending.put(key, p);
+        return false;
+    }
+
+    /**
+     * Moves the builds whose window has closed to given sink.
+     *
+     * @param sink
+     *            the sink.
+     */
+    public void drainDue(BuildSink sink) {
+        long now = System.nanoTime();
+        Iterator<Pending> it = pending.values().iterator();
+        while (it.hasNext()) {
+            Pending p = it.next();
+            if (now - p.since < windowNanos) {
+                // Entries are in arrival order, so later ones are not due either.
+                break;
+            }
+            sink.add(p.trigger, p.topicName, p.parameters, p.getCorrelationIds(), p.records);
+            it.remove();
+        }
+    }
+
+    /**
+     * Moves all pending builds to given sink regardless of their window.
+     *
+     * @param sink
+     *            the sink.
+     */
+    public void drainAll(BuildSink sink) {
+        for (Pending p : pending.values()) {
+            sink.add(p.trigger, p.topicName, p.parameters, p.getCorrelationIds(), p.records);
+        }
+        pending.clear();
+    }
+
+    /**
+     * Gets whether builds are waiting for their window to close.
+     *
+     * @return true if there are pending builds.
+     */
+    public boolean hasPending() {
+        return !pending.isEmpty();
+    }
+
+    /**
+     * Gets when the window of the oldest pending build closes.
+     *
+     * @return the {@link System#nanoTime()} of the deadline, only meaningful
+     *         if {@link #hasPending()}.
+     */
+    public long getNextDueNanos() {
+        for (Pending p : pending.values()) {
+            return p.since + windowNanos;
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Gets the number of messages absorbed so far.
+     *
+     * @return the number of messages.
+     */
+    public long getAbsorbedCount() {
+        return absorbed;
+    }
+
+    private static final class Pending {
+        private final RemoteBuildTrigger trigger;
+        private final long since;
+        private String topicName;
+        private String[] parameters;
+        private List<String> correlationIds;
+        private List<PendingRecord> records;
+
+        void addCorrelationIds(String[] ids) {
+            if (ids != null) {
+                if (correlationIds == null) {
+                    correlationIds = new ArrayList<String>(ids.length + 1);
+                }
+                Collections.addAll(correlationIds, ids);
+            }
+        }
+
+        String[] getCorrelationIds() {
+            return correlationIds != null ? correlationIds.toArray(new String[0]) : null;
+        }
+
+        void addRecord(PendingRecord record) {
+            if (record != null) {
+                if (records == null) {
+                    records = new ArrayList<PendingRecord>(2);
+                }
+                records.add(record);
+            }
+        }
+
+        Pending(RemoteBuildTrigger trigger, String topicName, String[] parameters, long since) {
+            this.trigger = trigger;
+            this.topicName = topicName;
+            this.parameters = parameters;
+            this.since = since;
+        }
+    }
+
+    private static final class ParametersKey {
+        private final RemoteBuildTrigger trigger;
+        private final String[] parameters;
+        private final int hash;
+
+        ParametersKey(RemoteBuildTrigger trigger, String[] parameters) {
+            this.trigger = trigger;
+            this.parameters = parameters;
+            this.hash = 31 * System.identityHashCode(trigger) + Arrays.hashCode(parameters);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ParametersKey)) {
+                return false;
+            }
+            ParametersKey that = (ParametersKey) o;
+            return trigger == that.trigger && Arrays.equals(parameters, that.parameters);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+
+import java.util.Properties;
+
+/**
+ * Creates the consumers run by {@link KafkaConsumerHandler}. Load tests pass
+ * a factory of mock consumers to run the whole pipeline without a broker.
+ */
+interface ConsumerFactory {
+
+    /**
+     * Creates Kafka consumers handing out keys and values as raw bytes. Values
+     * are only parsed once the record has been routed to a trigger.
+     */
+    ConsumerFactory DEFAULT = properties -> new KafkaConsumer<byte[], byte[]>(properties,
+            new ByteArrayDeserializer(), new ByteArrayDeserializer());
+
+    /**
+     * Creates consumer.
+     *
+     * @param properties
+     *            the consumer configuration.
+     * @return the consumer.
+     */
+    Consumer<byte[], byte[]> create(Properties properties);
+}
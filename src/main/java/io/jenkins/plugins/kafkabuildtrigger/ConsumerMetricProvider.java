@@ -0,0 +1,87 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricSet;
+import hudson.Extension;
+import jenkins.metrics.api.MetricProvider;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Publishes {@link ConsumerMetrics} as gauges of the Metrics plugin. The
+ * extension is only loaded when that plugin is installed.
+ */
+@Extension(optional = true)
+public class ConsumerMetricProvider extends MetricProvider {
+
+    private static final String PREFIX = "kafka-build-trigger.";
+
+    private final MetricSet metricSet;
+
+    public ConsumerMetricProvider() {
+        ConsumerMetrics metrics = ConsumerMetrics.getInstance();
+        Map<String, Metric> gauges = new LinkedHashMap<String, Metric>();
+        gauges.put(PREFIX + "records", (Gauge<Long>) metrics::getRecords);
+        gauges.put(PREFIX + "records.rate", (Gauge<Double>) metrics::getRecordsPerSecond);
+        gauges.put(PREFIX + "matched", (Gauge<Long>) metrics::getMatched);
+        gauges.put(PREFIX + "unmatched", (Gauge<Long>) metrics::getUnmatched);
+        gauges.put(PREFIX + "ignored", (Gauge<Long>) metrics::getIgnored);
+        gauges.put(PREFIX + "coalesced", (Gauge<Long>) metrics::getCoalesced);
+        gauges.put(PREFIX + "scheduled", (Gauge<Long>) metrics::getScheduled);
+        gauges.put(PREFIX + "dropped", (Gauge<Long>) metrics::getDropped);
+        gauges.put(PREFIX + "malformed", (Gauge<Long>) metrics::getMalformed);
+        gauges.put(PREFIX + "duplicates", (Gauge<Long>) metrics::getDuplicates);
+        gauges.put(PREFIX + "dead-lettered", (Gauge<Long>) metrics::getDeadLettered);
+        gauges.put(PREFIX + "retried", (Gauge<Long>) metrics::getRetried);
+        gauges.put(PREFIX + "deferred", (Gauge<Long>) metrics::getDeferred);
+        gauges.put(PREFIX + "rate-dropped", (Gauge<Long>) metrics::getRateDropped);
+        gauges.put(PREFIX + "filtered", (Gauge<Long>) metrics::getFiltered);
+        gauges.put(PREFIX + "events-dropped", (Gauge<Long>) metrics::getEventsDropped);
+        gauges.put(PREFIX + "failures-dropped", (Gauge<Long>) metrics::getFailuresDropped);
+        gauges.put(PREFIX + "consumer-errors", (Gauge<Long>) metrics::getConsumerErrors);
+        putHistogram(gauges, "poll", metrics.getPollLatency());
+        putHistogram(gauges, "deserialize", metrics.getDeserializeLatency());
+        putHistogram(gauges, "lookup", metrics.getLookupLatency());
+        putHistogram(gauges, "schedule", metrics.getScheduleLatency());
+        putHistogram(gauges, "batch", metrics.getBatchLatency());
+        gauges.put(PREFIX + "lag.max", (Gauge<Long>) ConsumerMetricProvider::getMaxLag);
+        gauges.put(PREFIX + "consumers.dead", (Gauge<Integer>) ConsumerMetricProvider::getDeadConsumers);
+        this.metricSet = () -> Collections.unmodifiableMap(gauges);
+    }
+
+    @Override
+    public MetricSet getMetricSet() {
+        return metricSet;
+    }
+
+    private static void putHistogram(Map<String, Metric> gauges, String name, LatencyHistogram histogram) {
+        String prefix = PREFIX + name + ".nanos.";
+        gauges.put(prefix + "count", (Gauge<Long>) histogram::getCount);
+        gauges.put(prefix + "mean", (Gauge<Long>) histogram::getMean);
+        gauges.put(prefix + "p50", (Gauge<Long>) () -> histogram.getPercentile(0.5));
+        gauges.put(prefix + "p99", (Gauge<Long>) () -> histogram.getPercentile(0.99));
+        gauges.put(prefix + "max", (Gauge<Long>) histogram::getMax);
+    }
+
+    private static int getDeadConsumers() {
+        int count = 0;
+        for (KafkaConsumerHandler connection : KafkaManager.getInstance().getConnections()) {
+            count += connection.getDeadConsumerCount();
+        }
+        return count;
+    }
+
+    private static long getMaxLag() {
+        long max = 0;
+        for (KafkaConsumerHandler connection : KafkaManager.getInstance().getConnections()) {
+            for (Map.Entry<TopicPartition, Long> lag : connection.getRecordsLag().entrySet()) {
+                max = Math.max(max, lag.getValue());
+            }
+        }
+        return max;
+    }
+}
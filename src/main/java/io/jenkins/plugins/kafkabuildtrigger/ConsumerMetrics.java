@@ -0,0 +1,331 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of all consumers of the plugin.
+ *
+ * <p>The consumer threads record into them on every poll without taking locks
+ * or allocating. The values are read by {@link ConsumerMetricsAction} and,
+ * when the Metrics plugin is installed, by {@link ConsumerMetricProvider}.
+ * Per partition lag is read from the consumers themselves, see
+ * {@link KafkaConsumerHandler#getRecordsLag()}.</p>
+ */
+public final class ConsumerMetrics {
+
+    /**
+     * Intance holder class for {@link ConsumerMetrics}.
+     */
+    private static class InstanceHolder {
+        private static final ConsumerMetrics INSTANCE = new ConsumerMetrics();
+    }
+
+    private static final long RATE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final LongAdder records = new LongAdder();
+    private final LongAdder matched = new LongAdder();
+    private final LongAdder unmatched = new LongAdder();
+    private final LongAdder ignored = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder scheduled = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder malformed = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder deadLettered = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+    private final LongAdder deferred = new LongAdder();
+    private final LongAdder rateDropped = new LongAdder();
+    private final LongAdder filtered = new LongAdder();
+    private final LongAdder eventsDropped = new LongAdder();
+    private final LongAdder failuresDropped = new LongAdder();
+    private final LongAdder consumerErrors = new LongAdder();
+
+    private final LatencyHistogram pollLatency = new LatencyHistogram();
+    private final LatencyHistogram deserializeLatency = new LatencyHistogram();
+    private final LatencyHistogram lookupLatency = new LatencyHistogram();
+    private final LatencyHistogram scheduleLatency = new LatencyHistogram();
+    private final LatencyHistogram batchLatency = new LatencyHistogram();
+
+    private long rateSinceNanos = System.nanoTime();
+    private long rateSinceRecords;
+    private double recordsPerSecond;
+
+    /**
+     * Gets instance.
+     *
+     * @return the instance.
+     */
+    public static ConsumerMetrics getInstance() {
+        return InstanceHolder.INSTANCE;
+    }
+
+    /**
+     * Records one poll.
+     *
+     * @param nanos
+     *            the time the poll took, including deserialization.
+     * @param count
+     *            the number of records returned.
+     */
+    void recordPoll(long nanos, int count) {
+        pollLatency.record(nanos);
+        if (count > 0) {
+            records.add(count);
+        }
+    }
+
+    void recordDeserialize(long nanos) {
+        deserializeLatency.record(nanos);
+    }
+
+    void recordLookup(long nanos) {
+        lookupLatency.record(nanos);
+    }
+
+    /**
+     * Records one call to schedule a build.
+     *
+     * @param nanos
+     *            the time the call took.
+     * @param accepted
+     *            whether the queue has taken the build.
+     */
+    void recordSchedule(long nanos, boolean accepted) {
+        scheduleLatency.record(nanos);
+        if (accepted) {
+            scheduled.increment();
+        } else {
+            dropped.increment();
+        }
+    }
+
+    /**
+     * Records a message whose project and token matched a trigger.
+     */
+    void recordMatched() {
+        matched.increment();
+    }
+
+    /**
+     * Records a message for a project without trigger.
+     */
+    void recordUnmatched() {
+        unmatched.increment();
+    }
+
+    /**
+     * Records a message ignored by a trigger because of a wrong or missing
+     * token.
+     */
+    void recordIgnored() {
+        ignored.increment();
+    }
+
+    /**
+     * Records a message absorbed into a pending build by coalescing.
+     */
+    void recordCoalesced() {
+        coalesced.increment();
+    }
+
+    /**
+     * Records a build that could not be created or scheduled.
+     */
+    void recordDropped() {
+        dropped.increment();
+    }
+
+    /**
+     * Records the time a batch of builds took to be handed to the queue.
+     *
+     * @param nanos
+     *            the duration of the flush.
+     */
+    void recordBatch(long nanos) {
+        batchLatency.record(nanos);
+    }
+
+    /**
+     * Records a record whose value could not be deserialized.
+     */
+    void recordMalformed() {
+        malformed.increment();
+    }
+
+    /**
+     * Records a record skipped as a duplicate of a handled one.
+     */
+    void recordDuplicate() {
+        duplicates.increment();
+    }
+
+    /**
+     * Records a record or build published to the dead-letter topic.
+     */
+    void recordDeadLettered() {
+        deadLettered.increment();
+    }
+
+    /**
+     * Records a build published to the retry topic.
+     */
+    void recordRetried() {
+        retried.increment();
+    }
+
+    /**
+     * Records a build held back by a rate limit.
+     */
+    void recordDeferred() {
+        deferred.increment();
+    }
+
+    /**
+     * Records a build dropped by a rate limit.
+     */
+    void recordRateDropped() {
+        rateDropped.increment();
+    }
+
+    /**
+     * Records a build the payload filter of its trigger rejected.
+     */
+    void recordFiltered() {
+        filtered.increment();
+    }
+
+    /**
+     * Records a build event dropped because the event buffer was full.
+     */
+    void recordEventDropped() {
+        eventsDropped.increment();
+    }
+
+    /**
+     * Records a failed record or build that could not be published to the
+     * dead-letter or retry topic.
+     */
+    void recordFailureDropped() {
+        failuresDropped.increment();
+    }
+
+    /**
+     * Records an error a consumer recovers from by polling again.
+     */
+    void recordConsumerError() {
+        consumerErrors.increment();
+    }
+
+    public long getRecords() {
+        return records.sum();
+    }
+
+    /**
+     * Gets the number of records consumed per second, measured between two
+     * calls at least a second apart.
+     *
+     * @return the rate.
+     */
+    public synchronized double getRecordsPerSecond() {
+        long now = System.nanoTime();
+        long elapsed = now - rateSinceNanos;
+        if (elapsed >= RATE_INTERVAL_NANOS) {
+            long current = records.sum();
+            recordsPerSecond = (current - rateSinceRecords) * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+            rateSinceRecords = current;
+            rateSinceNanos = now;
+        }
+        return recordsPerSecond;
+    }
+
+    public long getMatched() {
+        return matched.sum();
+    }
+
+    public long getUnmatched() {
+        return unmatched.sum();
+    }
+
+    public long getIgnored() {
+        return ignored.sum();
+    }
+
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    public long getScheduled() {
+        return scheduled.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getMalformed() {
+        return malformed.sum();
+    }
+
+    public long getDuplicates() {
+        return duplicates.sum();
+    }
+
+    public long getDeadLettered() {
+        return deadLettered.sum();
+    }
+
+    public long getRetried() {
+        return retried.sum();
+    }
+
+    public long getDeferred() {
+        return deferred.sum();
+    }
+
+    public long getRateDropped() {
+        return rateDropped.sum();
+    }
+
+    public long getFiltered() {
+        return filtered.sum();
+    }
+
+    public long getEventsDropped() {
+        return eventsDropped.sum();
+    }
+
+    public long getFailuresDropped() {
+        return failuresDropped.sum();
+    }
+
+    public long getConsumerErrors() {
+        return consumerErrors.sum();
+    }
+
+    LatencyHistogram getPollLatency() {
+        return pollLatency;
+    }
+
+    LatencyHistogram getDeserializeLatency() {
+        return deserializeLatency;
+    }
+
+    LatencyHistogram getLookupLatency() {
+        return lookupLatency;
+    }
+
+    LatencyHistogram getScheduleLatency() {
+        return scheduleLatency;
+    }
+
+    LatencyHistogram getBatchLatency() {
+        return batchLatency;
+    }
+
+    /**
+     * Creates instance.
+     */
+    private ConsumerMetrics() {
+    }
+}
@@ -0,0 +1,129 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import hudson.Extension;
+import hudson.model.RootAction;
+import jenkins.model.Jenkins;
+import org.apache.kafka.common.TopicPartition;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Exposes {@link ConsumerMetrics} and the lag of the running consumers as JSON
+ * at <code>/kafka-build-trigger-metrics/</code>.
+ *
+ * <p>Per subscription, the number of consumers and of those that have
+ * stopped after a fatal error are reported along with that error. Such
+ * consumers are recreated when the configuration is saved.</p>
+ *
+ * <p>Durations are reported in nanoseconds. Reading requires the
+ * {@link Jenkins#SYSTEM_READ} permission.</p>
+ */
+@Extension
+public class ConsumerMetricsAction implements RootAction {
+
+    private static final String URL_NAME = "kafka-build-trigger-metrics";
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    @Override
+    public String getIconFileName() {
+        // Not shown in the side panel.
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Kafka Build Trigger Metrics";
+    }
+
+    @Override
+    public String getUrlName() {
+        return URL_NAME;
+    }
+
+    /**
+     * Writes the metrics.
+     *
+     * @param req
+     *            the request.
+     * @param rsp
+     *            the response.
+     * @throws IOException
+     *             throw if the response cannot be written.
+     */
+    public void doIndex(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Jenkins.get().checkPermission(Jenkins.SYSTEM_READ);
+        rsp.setContentType("application/json;charset=UTF-8");
+        rsp.setHeader("Cache-Control", "no-cache");
+        try (JsonGenerator json = FACTORY.createGenerator(rsp.getWriter())) {
+            write(json, ConsumerMetrics.getInstance());
+        }
+    }
+
+    private static void write(JsonGenerator json, ConsumerMetrics metrics) throws IOException {
+        json.writeStartObject();
+        json.writeNumberField("records", metrics.getRecords());
+        json.writeNumberField("recordsPerSecond", metrics.getRecordsPerSecond());
+        json.writeNumberField("matched", metrics.getMatched());
+        json.writeNumberField("unmatched", metrics.getUnmatched());
+        json.writeNumberField("ignored", metrics.getIgnored());
+        json.writeNumberField("coalesced", metrics.getCoalesced());
+        json.writeNumberField("scheduled", metrics.getScheduled());
+        json.writeNumberField("dropped", metrics.getDropped());
+        json.writeNumberField("malformed", metrics.getMalformed());
+        json.writeNumberField("duplicates", metrics.getDuplicates());
+        json.writeNumberField("deadLettered", metrics.getDeadLettered());
+        json.writeNumberField("retried", metrics.getRetried());
+        json.writeNumberField("deferred", metrics.getDeferred());
+        json.writeNumberField("rateDropped", metrics.getRateDropped());
+        json.writeNumberField("filtered", metrics.getFiltered());
+        json.writeNumberField("eventsDropped", metrics.getEventsDropped());
+        json.writeNumberField("failuresDropped", metrics.getFailuresDropped());
+        json.writeNumberField("consumerErrors", metrics.getConsumerErrors());
+        writeHistogram(json, "pollNanos", metrics.getPollLatency());
+        writeHistogram(json, "deserializeNanos", metrics.getDeserializeLatency());
+        writeHistogram(json, "lookupNanos", metrics.getLookupLatency());
+        writeHistogram(json, "scheduleNanos", metrics.getScheduleLatency());
+        writeHistogram(json, "batchNanos", metrics.getBatchLatency());
+
+        json.writeArrayFieldStart("subscriptions");
+        for (KafkaConsumerHandler connection : KafkaManager.getInstance().getConnections()) {
+            json.writeStartObject();
+            json.writeStringField("name", connection.getSubscription().getName());
+            json.writeStringField("groupId", connection.getGroupId());
+            json.writeNumberField("coalesced", connection.getCoalescedCount());
+            json.writeNumberField("consumers", connection.getConsumerCount());
+            json.writeNumberField("deadConsumers", connection.getDeadConsumerCount());
+            Throwable failure = connection.getFailure();
+            json.writeStringField("failure", failure != null ? failure.toString() : null);
+            json.writeArrayFieldStart("lag");
+            for (Map.Entry<TopicPartition, Long> lag : connection.getRecordsLag().entrySet()) {
+                json.writeStartObject();
+                json.writeStringField("topic", lag.getKey().topic());
+                json.writeNumberField("partition", lag.getKey().partition());
+                json.writeNumberField("records", lag.getValue());
+                json.writeEndObject();
+            }
+            json.writeEndArray();
+            json.writeEndObject();
+        }
+        json.writeEndArray();
+        json.writeEndObject();
+    }
+
+    private static void writeHistogram(JsonGenerator json, String name, LatencyHistogram histogram)
+            throws IOException {
+        json.writeObjectFieldStart(name);
+        json.writeNumberField("count", histogram.getCount());
+        json.writeNumberField("mean", histogram.getMean());
+        json.writeNumberField("p50", histogram.getPercentile(0.5));
+        json.writeNumberField("p99", histogram.getPercentile(0.99));
+        json.writeNumberField("max", histogram.getMax());
+        json.writeEndObject();
+    }
+}
@@ -0,0 +1,386 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import java.util.Objects;
+
+/**
+ * Immutable snapshot of the global configuration the consumers run with.
+ *
+ * <p>{@link KafkaManager} compares the snapshot of the running consumers with
+ * the current configuration to find out whether they need to be restarted or
+ * can take the new settings while running.</p>
+ */
+final class ConsumerSettings {
+
+    private final int concurrency;
+    private final long coalesceWindowMillis;
+    private final CoalesceMode coalesceMode;
+    private final boolean atLeastOnce;
+    private final long commitIntervalMillis;
+    private final int commitBatchRecords;
+    private final int queueHighWatermark;
+    private final int queueLowWatermark;
+    private final boolean cooperativeRebalancing;
+    private final boolean staticMembership;
+    private final int dispatchCapacity;
+    private final int maxPollRecords;
+    private final int fetchMinBytes;
+    private final int fetchMaxWaitMillis;
+    private final String consumerProperties;
+    private final boolean routeByKey;
+    private final boolean regexProjects;
+    private final String codec;
+    private final int dedupeTtlMinutes;
+    private final String deadLetterTopic;
+    private final String retryTopic;
+    private final int retryDelaySeconds;
+    private final int rateLimitPerMinute;
+    private final int rateLimitBurst;
+    private final RateLimitPolicy rateLimitPolicy;
+
+    private ConsumerSettings(GlobalKafkaBuildTriggerConfig conf) {
+        this.concurrency = conf.getConsumerConcurrency();
+        this.coalesceWindowMillis = conf.getCoalesceWindowMillis();
+        this.coalesceMode = conf.getCoalesceMode();
+        this.atLeastOnce = conf.isAtLeastOnce();
+        this.commitIntervalMillis = conf.getCommitIntervalMillis();
+        this.commitBatchRecords = conf.getCommitBatchRecords();
+        this.queueHighWatermark = conf.getQueueHighWatermark();
+        this.queueLowWatermark = conf.getQueueLowWatermark();
+        this.cooperativeRebalancing = conf.isCooperativeRebalancing();
+        this.staticMembership = conf.isStaticMembership();
+        this.dispatchCapacity = conf.getDispatchCapacity();
+        this.maxPollRecords = conf.getMaxPollRecords();
+        this.fetchMinBytes = conf.getFetchMinBytes();
+        this.fetchMaxWaitMillis = conf.getFetchMaxWaitMillis();
+        this.consumerProperties = conf.getConsumerProperties();
+        this.routeByKey = conf.isRouteByKey();
+        this.regexProjects = conf.isRegexProjects();
+        this.codec = conf.getCodec();
+        this.dedupeTtlMinutes = conf.getDedupeTtlMinutes();
+        this.deadLetterTopic = conf.getDeadLetterTopic();
+        this.retryTopic = conf.getRetryTopic();
+        this.retryDelaySeconds = conf.getRetryDelaySeconds();
+        this.rateLimitPerMinute = conf.getRateLimitPerMinute();
+        this.rateLimitBurst = conf.getRateLimitBurst();
+        this.rateLimitPolicy = conf.getRateLimitPolicy();
+    }
+
+    /**
+     * Creates snapshot of given configuration.
+     *
+     * @param conf
+     *            the global configuration.
+     * @return the settings.
+     */
+    static ConsumerSettings from(GlobalKafkaBuildTriggerConfig conf) {
+        return new ConsumerSettings(conf);
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public long getCoalesceWindowMillis() {
+        return coalesceWindowMillis;
+    }
+
+    public CoalesceMode getCoalesceMode() {
+        return coalesceMode;
+    }
+
+    /**
+     * Gets whether messages are coalesced before scheduling.
+     *
+     * @return true if the coalescing window is set.
+     */
+    public boolean isCoalescing() {
+        return coalesceWindowMillis > 0;
+    }
+
+    /**
+     * Gets whether offsets are committed manually once builds have been queued.
+     *
+     * @return true for at-least-once delivery.
+     */
+    public boolean isAtLeastOnce() {
+        return atLeastOnce;
+    }
+
+    public long getCommitIntervalMillis() {
+        return commitIntervalMillis;
+    }
+
+    public int getCommitBatchRecords() {
+        return commitBatchRecords;
+    }
+
+    /**
+     * Gets the queue length at which the consumers pause their partitions.
+     *
+     * @return the high-water mark, 0 if backpressure is disabled.
+     */
+    public int getQueueHighWatermark() {
+        return queueHighWatermark;
+    }
+
+    /**
+     * Gets the queue length below which paused consumers resume.
+     *
+     * @return the low-water mark.
+     */
+    public int getQueueLowWatermark() {
+        return queueLowWatermark;
+    }
+
+    /**
+     * Gets whether the cooperative sticky assignor is used, so rebalances only
+     * move the partitions that change owner.
+     *
+     * @return true for cooperative rebalancing.
+     */
+    public boolean isCooperativeRebalancing() {
+        return cooperativeRebalancing;
+    }
+
+    /**
+     * Gets whether consumers join the group with a static instance id, so a
+     * restart within the session timeout does not cause a rebalance.
+     *
+     * @return true for static membership.
+     */
+    public boolean isStaticMembership() {
+        return staticMembership;
+    }
+
+    /**
+     * Gets whether consumers running with these settings have to be recreated
+     * to run with given ones, because the settings differ in the consumer
+     * configuration itself.
+     *
+     * @param other
+     *            the new settings.
+     * @return true if the consumers have to be restarted.
+     */
+    public boolean requiresRestart(ConsumerSettings other) {
+        return concurrency != other.concurrency
+                || atLeastOnce != other.atLeastOnce
+                || cooperativeRebalancing != other.cooperativeRebalancing
+                || staticMembership != other.staticMembership
+                || maxPollRecords != other.maxPollRecords
+                || fetchMinBytes != other.fetchMinBytes
+                || fetchMaxWaitMillis != other.fetchMaxWaitMillis
+                || !Objects.equals(consumerProperties, other.consumerProperties)
+                // The retry topic is subscribed to with the topic.
+                || !Objects.equals(retryTopic, other.retryTopic);
+    }
+
+    /**
+     * Gets whether given settings coalesce messages the same way.
+     *
+     * @param other
+     *            the other settings.
+     * @return true if window and mode are equal.
+     */
+    public boolean isCoalescingEqual(ConsumerSettings other) {
+        return coalesceWindowMillis == other.coalesceWindowMillis && coalesceMode == other.coalesceMode;
+    }
+
+    /**
+     * Gets the number of builds a consumer may have handed to the dispatcher
+     * before it pauses its partitions.
+     *
+     * @return the capacity.
+     */
+    public int getDispatchCapacity() {
+        return dispatchCapacity;
+    }
+
+    public int getMaxPollRecords() {
+        return maxPollRecords;
+    }
+
+    public int getFetchMinBytes() {
+        return fetchMinBytes;
+    }
+
+    public int getFetchMaxWaitMillis() {
+        return fetchMaxWaitMillis;
+    }
+
+    /**
+     * Gets further consumer configuration in properties format.
+     *
+     * @return the properties, or null.
+     */
+    public String getConsumerProperties() {
+        return consumerProperties;
+    }
+
+    /**
+     * Gets whether records are routed by their key when they have no project
+     * header.
+     *
+     * @return true to route by key.
+     */
+    public boolean isRouteByKey() {
+        return routeByKey;
+    }
+
+    /**
+     * Gets whether messages may address jobs by a regular expression.
+     *
+     * @return true to allow regular expressions.
+     */
+    public boolean isRegexProjects() {
+        return regexProjects;
+    }
+
+    /**
+     * Gets the identifier of the {@link BuildMessageCodec} values are decoded
+     * with.
+     *
+     * @return the identifier.
+     */
+    public String getCodec() {
+        return codec;
+    }
+
+    /**
+     * Gets how long record identities are kept to suppress duplicates.
+     *
+     * @return the time in minutes, 0 if duplicates are not suppressed.
+     */
+    public int getDedupeTtlMinutes() {
+        return dedupeTtlMinutes;
+    }
+
+    /**
+     * Gets the topic records and builds that failed are published to.
+     *
+     * @return the topic, or null.
+     */
+    public String getDeadLetterTopic() {
+        return deadLetterTopic;
+    }
+
+    /**
+     * Gets the topic builds the queue did not take are retried through.
+     *
+     * @return the topic, or null.
+     */
+    public String getRetryTopic() {
+        return retryTopic;
+    }
+
+    /**
+     * Gets how long builds wait in the retry topic.
+     *
+     * @return the delay in seconds.
+     */
+    public int getRetryDelaySeconds() {
+        return retryDelaySeconds;
+    }
+
+    /**
+     * Gets the builds all jobs may be triggered with per minute.
+     *
+     * @return the number of builds, 0 for no limit.
+     */
+    public int getRateLimitPerMinute() {
+        return rateLimitPerMinute;
+    }
+
+    /**
+     * Gets the builds a rate limit allows at once.
+     *
+     * @return the number of builds.
+     */
+    public int getRateLimitBurst() {
+        return rateLimitBurst;
+    }
+
+    /**
+     * Gets what happens to builds over a rate limit.
+     *
+     * @return the policy.
+     */
+    public RateLimitPolicy getRateLimitPolicy() {
+        return rateLimitPolicy;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ConsumerSettings)) {
+            return false;
+        }
+        ConsumerSettings that = (ConsumerSettings) o;
+        return concurrency == that.concurrency
+                && coalesceWindowMillis == that.coalesceWindowMillis
+                && coalesceMode == that.coalesceMode
+                && atLeastOnce == that.atLeastOnce
+                && commitIntervalMillis == that.commitIntervalMillis
+                && commitBatchRecords == that.commitBatchRecords
+                && queueHighWatermark == that.queueHighWatermark
+                && queueLowWatermark == that.queueLowWatermark
+                && cooperativeRebalancing == that.cooperativeRebalancing
+                && staticMembership == that.staticMembership
+                && dispatchCapacity == that.dispatchCapacity
+                && maxPollRecords == that.maxPollRecords
+                && fetchMinBytes == that.fetchMinBytes
+                && fetchMaxWaitMillis == that.fetchMaxWaitMillis
+                && Objects.equals(consumerProperties, that.consumerProperties)
+                && routeByKey == that.routeByKey
+                && regexProjects == that.regexProjects
+                && Objects.equals(codec, that.codec)
+                && dedupeTtlMinutes == that.dedupeTtlMinutes
+                && Objects.equals(deadLetterTopic, that.deadLetterTopic)
+                && Objects.equals(retryTopic, that.retryTopic)
+                && retryDelaySeconds == that.retryDelaySeconds
+                && rateLimitPerMinute == that.rateLimitPerMinute
+                && rateLimitBurst == that.rateLimitBurst
+                && rateLimitPolicy == that.rateLimitPolicy;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(concurrency, coalesceWindowMillis, coalesceMode, atLeastOnce,
+                commitIntervalMillis, commitBatchRecords, queueHighWatermark, queueLowWatermark,
+                cooperativeRebalancing, staticMembership, dispatchCapacity, maxPollRecords,
+                fetchMinBytes, fetchMaxWaitMillis, consumerProperties, routeByKey, regexProjects,
+                codec, dedupeTtlMinutes, deadLetterTopic, retryTopic, retryDelaySeconds, rateLimitPerMinute,
+                rateLimitBurst, rateLimitPolicy);
+    }
+
+    @Override
+    public String toString() {
+        return "ConsumerSettings{concurrency=" + concurrency
+                + ", coalesceWindowMillis=" + coalesceWindowMillis
+                + ", coalesceMode=" + coalesceMode
+                + ", atLeastOnce=" + atLeastOnce
+                + ", commitIntervalMillis=" + commitIntervalMillis
+                + ", commitBatchRecords=" + commitBatchRecords
+                + ", queueHighWatermark=" + queueHighWatermark
+                + ", queueLowWatermark=" + queueLowWatermark
+                + ", cooperativeRebalancing=" + cooperativeRebalancing
+                + ", staticMembership=" + staticMembership
+                + ", dispatchCapacity=" + dispatchCapacity
+                + ", maxPollRecords=" + maxPollRecords
+                + ", fetchMinBytes=" + fetchMinBytes
+                + ", fetchMaxWaitMillis=" + fetchMaxWaitMillis
+                // Values may hold credentials.
+                + ", consumerProperties=" + (consumerProperties != null ? "(set)" : null)
+                + ", routeByKey=" + routeByKey
+                + ", regexProjects=" + regexProjects
+                + ", codec=" + codec
+                + ", dedupeTtlMinutes=" + dedupeTtlMinutes
+                + ", deadLetterTopic=" + deadLetterTopic
+                + ", retryTopic=" + retryTopic
+                + ", retryDelaySeconds=" + retryDelaySeconds
+                + ", rateLimitPerMinute=" + rateLimitPerMinute
+                + ", rateLimitBurst=" + rateLimitBurst
+                + ", rateLimitPolicy=" + rateLimitPolicy + "}";
+    }
+}
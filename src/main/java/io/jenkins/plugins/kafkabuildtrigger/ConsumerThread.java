@@ -0,0 +1,1013 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import hudson.model.Queue;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.CooperativeStickyAssignor;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetCommitCallback;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.AuthenticationException;
+import org.apache.kafka.common.errors.AuthorizationException;
+import org.apache.kafka.common.errors.FencedInstanceIdException;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.header.Header;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Pattern;
+
+/**
+ * Thread polling one consumer of the consumer group and scheduling the builds
+ * requested by its records.
+ *
+ * <p>With at-least-once delivery, auto-commit is disabled. The offsets of
+ * records are committed asynchronously once their builds have been handed to
+ * the queue, whenever the commit interval has passed or enough records have
+ * completed, and synchronously when partitions are revoked or the consumer
+ * stops.</p>
+ *
+ * <p>Matched builds are handed to a {@link BuildDispatcher}, which creates and
+ * schedules them on other threads, so a slow queue lock or an expensive job
+ * does not delay the next poll.</p>
+ *
+ * <p>When the Jenkins queue grows past the high-water mark, or the dispatcher
+ * holds as many builds as its capacity, all assigned partitions are paused
+ * until the queue drops below the low-water mark and the dispatcher below half
+ * of its capacity. The consumer keeps polling while paused, so it stays in the
+ * group and the backlog stays in Kafka.</p>
+ *
+ * <p>An error while polling, committing or applying a new configuration is
+ * logged and counted, and the consumer polls again after a back-off that
+ * doubles with each error in a row, up to 30 seconds. Only errors polling
+ * again cannot fix, failed authentication or authorization and a fenced
+ * static member, end the thread. They are kept for
+ * {@link KafkaConsumerHandler}, which recreates the consumers on the next
+ * configuration update.</p>
+ *
+ * <p>A subscription with a new topic or pattern, and settings that do not
+ * change the consumer itself, are applied by the running thread between two
+ * polls, so the consumer keeps its group membership. Switching between a
+ * topic and a pattern makes the consumer unsubscribe first, after its
+ * pending builds have been scheduled and its offsets committed.</p>
+ *
+ * <p>Records are consumed as raw bytes. When a record names its project in a
+ * {@value #PROJECT_HEADER} header, or in its key if routing by key is enabled,
+ * the project is looked up first and the value is only decoded for
+ * projects with triggers, so records for other controllers cost almost
+ * nothing. The routed project takes precedence over the project in the
+ * value. Values are decoded by the {@link BuildMessageCodec} selected in the
+ * global configuration. A project may be a glob or, if the global
+ * configuration allows it, a regular expression over job full names, see
+ * {@link TriggerPatternIndex}, to trigger all matching jobs with one
+ * message.</p>
+ *
+ * <p>Poll, lookup and scheduling times as well as message counts are recorded
+ * into {@link ConsumerMetrics}. A record that cannot be deserialized is
+ * skipped and counted as malformed. With duplicate suppression enabled, a
+ * record for a known project whose identity is in the {@link DedupeStore} is
+ * skipped and counted as a duplicate. With at-least-once delivery the
+ * identity is recorded only once all builds of the record have been handed to
+ * the queue, so a record whose deferred builds are discarded on stop or
+ * revocation builds when it is consumed again.</p>
+ *
+ * <p>Records that cannot be decoded or handled are published to the
+ * dead-letter topic, and builds the queue refuses to the retry topic, through
+ * a {@link FailureRouter}. The retry topic is subscribed to along with the
+ * topic or pattern of the subscription, and its records are held back by
+ * {@link RetryDelays} until they are due. It is shared by all subscriptions,
+ * so records another subscription retries are skipped and only committed.</p>
+ *
+ * <p>Builds over the global rate limit or the limit of their job are dropped
+ * or deferred. Deferred builds keep their records uncommitted and are handed
+ * on once the limits allow them, in order per job. A job without deferred
+ * builds is not held back by those of other jobs. Builds deferred by the
+ * global limit count towards the dispatch capacity, so the consumer pauses
+ * while too many are deferred. Builds deferred by the limit of their job do
+ * not, so one job flooded with messages cannot stop the others. Instead, a
+ * job defers at most one minute of builds at its limit, and at least the
+ * burst. Builds past that are dropped to the dead-letter topic. Without any
+ * limit, the check costs one null and one zero comparison per build.</p>
+ */
+class ConsumerThread extends Thread implements ConsumerRebalanceListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConsumerThread.class);
+
+    /**
+     * The time given to the consumer to commit and leave the group on close.
+     */
+    static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(30);
+
+    /**
+     * The record header naming the project a record is meant for.
+     */
+    static final String PROJECT_HEADER = "project";
+
+    /** Results of {@link #acquire(RemoteBuildTrigger, long)}. */
+    private static final int ACQUIRED = 0;
+    private static final int JOB_LIMITED = 1;
+    private static final int GLOBALLY_LIMITED = 2;
+
+    private static final long MIN_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 30000;
+
+    private static final String FETCH_METRICS_GROUP = "consumer-fetch-manager-metrics";
+    private static final String RECORDS_LAG_METRIC = "records-lag";
+
+    private KafkaSubscription subscription;
+    private ConsumerSettings settings;
+    private final Consumer<byte[], byte[]> kafkaConsumer;
+    private final RetryDelays retryDelays;
+    private BuildMessageCodec codec;
+    private DedupeStore dedupeStore;
+    private FailureRouter failureRouter;
+    private RateLimiter globalLimiter;
+    private final ArrayDeque<DeferredBuild> deferred = new ArrayDeque<DeferredBuild>();
+    /** Number of deferred builds per trigger. */
+    private final Map<RemoteBuildTrigger, Integer> deferredPerTrigger = new HashMap<RemoteBuildTrigger, Integer>();
+    /** Number of deferred builds held back by the global limit. */
+    private int globallyDeferred;
+    private final ConsumerMetrics metrics = ConsumerMetrics.getInstance();
+    private final BuildDispatcher dispatcher = new BuildDispatcher(metrics);
+    private Coalescer coalescer;
+    private final OffsetTracker offsetTracker;
+    private final OffsetCommitCallback commitCallback = new CommitCallback();
+    private volatile KafkaSubscription nextSubscription;
+    private volatile ConsumerSettings nextSettings;
+    private volatile boolean stopping;
+    private volatile Set<TopicPartition> assignment = Collections.emptySet();
+    /** Hashes of the assigned topics, see {@link DedupeStore#topicHashOf(String)}. */
+    private final Map<String, Long> topicHashes = new HashMap<String, Long>();
+    private final AdaptivePollTimeout pollTimeout = new AdaptivePollTimeout();
+    private volatile long coalescedCount;
+    private long absorbedBefore;
+    private long lastCommitNanos = System.nanoTime();
+    private boolean paused;
+    /** Number of errors in a row. */
+    private int failures;
+    private volatile Throwable failure;
+    private volatile boolean backOffEnded;
+
+    /**
+     * Creates the consumer thread together with its consumer, so that it
+     * can be woken up as soon as the thread has been created.
+     */
+    ConsumerThread(KafkaSubscription subscription, String groupId, String groupInstanceId, ConsumerSettings settings,
+                   ConsumerFactory consumerFactory){
+        this.subscription = subscription;
+        this.settings = settings;
+        this.nextSubscription = subscription;
+        this.nextSettings = settings;
+        this.coalescer = createCoalescer(settings);
+        this.codec = BuildMessageCodec.get(settings.getCodec());
+        this.dedupeStore = settings.getDedupeTtlMinutes() > 0 ? DedupeStore.getInstance() : null;
+        this.failureRouter = FailureRouter.create(subscription, settings, codec, metrics);
+        dispatcher.setFailureRouter(failureRouter);
+        this.globalLimiter = RateLimiter.global(settings.getRateLimitPerMinute(), settings.getRateLimitBurst());
+        this.offsetTracker = settings.isAtLeastOnce() ? new OffsetTracker() : null;
+
+        Properties configProperties = GlobalKafkaBuildTriggerConfig.parseConsumerProperties(
+                settings.getConsumerProperties());
+        for (String name : GlobalKafkaBuildTriggerConfig.MANAGED_CONSUMER_PROPERTIES) {
+            if (configProperties.remove(name) != null) {
+                LOGGER.warn("Ignoring consumer property {}, it is set by the plugin", name);
+            }
+        }
+        configProperties.putIfAbsent(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "latest");
+        if (settings.getMaxPollRecords() > 0) {
+            configProperties.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, Integer.toString(settings.getMaxPollRecords()));
+        }
+        if (settings.getFetchMinBytes() > 0) {
+            configProperties.put(ConsumerConfig.FETCH_MIN_BYTES_CONFIG, Integer.toString(settings.getFetchMinBytes()));
+        }
+        if (settings.getFetchMaxWaitMillis() > 0) {
+            configProperties.put(ConsumerConfig.FETCH_MAX_WAIT_MS_CONFIG,
+                    Integer.toString(settings.getFetchMaxWaitMillis()));
+        }
+        configProperties.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, subscription.getBrokers());
+        configProperties.put(ConsumerConfig.GROUP_ID_CONFIG, groupId);
+        configProperties.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, Boolean.toString(!settings.isAtLeastOnce()));
+        if (settings.isCooperativeRebalancing()) {
+            configProperties.put(ConsumerConfig.PARTITION_ASSIGNMENT_STRATEGY_CONFIG,
+                    CooperativeStickyAssignor.class.getName());
+        }
+        if (groupInstanceId != null) {
+            configProperties.put(ConsumerConfig.GROUP_INSTANCE_ID_CONFIG, groupInstanceId);
+        }
+
+        try {
+            this.kafkaConsumer = consumerFactory.create(configProperties);
+        } catch (RuntimeException e) {
+            if (failureRouter != null) {
+                failureRouter.release();
+            }
+            throw e;
+        }
+        this.retryDelays = new RetryDelays(kafkaConsumer);
+    }
+
+    @Override
+    public void run() {
+        try {
+            subscribe();
+            while (!stopping) {
+                try {
+                    pollOnce();
+                    failures = 0;
+                } catch (WakeupException e) {
+                    // Woken up to stop or to apply a new configuration.
+                } catch (RuntimeException e) {
+                    if (isFatal(e)) {
+                        throw e;
+                    }
+                    backOff(e);
+                }
+            }
+            LOGGER.info("Consumer {} stopping", getName());
+            try {
+                if (!deferred.isEmpty()) {
+                    LOGGER.info("Consumer {} discarding {} deferred builds", getName(), deferred.size());
+                    for (DeferredBuild build : deferred) {
+                        build.discard();
+                    }
+                    deferred.clear();
+                    deferredPerTrigger.clear();
+                    globallyDeferred = 0;
+                }
+                flushAll();
+                commitSync();
+                if (dedupeStore != null) {
+                    dedupeStore.force();
+                }
+            } catch (RuntimeException e) {
+                LOGGER.warn("Consumer {} cannot commit its offsets on stop", getName(), e);
+            }
+        } catch (RuntimeException e) {
+            failure = e;
+            LOGGER.error("Consumer {} stopped by a fatal error, it is restarted when the configuration is saved",
+                    getName(), e);
+        } finally{
+            kafkaConsumer.close(CLOSE_TIMEOUT);
+            LOGGER.info("After closing KafkaConsumer");
+            if (failureRouter != null) {
+                failureRouter.release();
+            }
+        }
+    }
+
+    /**
+     * Closes the consumer of this thread, which has not been started, and
+     * releases its failure publisher.
+     */
+    void discard() {
+        kafkaConsumer.close(CLOSE_TIMEOUT);
+        if (failureRouter != null) {
+            failureRouter.release();
+        }
+    }
+
+    /**
+     * Polls once and hands the records on.
+     */
+    private void pollOnce() {
+        applyReconfiguration();
+        applyBackpressure();
+        resumeDueRetries();
+        drainDeferred();
+        long pollStart = System.nanoTime();
+        ConsumerRecords<byte[], byte[]> records = kafkaConsumer.poll(
+                Duration.ofMillis(nextPollTimeoutMillis(pollStart)));
+        metrics.recordPoll(System.nanoTime() - pollStart, records.count());
+        pollTimeout.update(records.count());
+        for (ConsumerRecord<byte[], byte[]> record : records) {
+            boolean retry = isRetry(record);
+            if (retry && retryDelays.isDelayed(record, System.currentTimeMillis())) {
+                continue;
+            }
+            PendingRecord pendingRecord = offsetTracker != null
+                    ? offsetTracker.track(new TopicPartition(record.topic(), record.partition()), record.offset())
+                    : null;
+            if (record.value() != null
+                    && (!retry || FailureRouter.isRetriedBy(record, subscription.getName()))) {
+                try {
+                    handleRecord(record, pendingRecord);
+                } catch (RuntimeException e) {
+                    LOGGER.error("Cannot handle record {}-{} at offset {}", record.topic(),
+                            record.partition(), record.offset(), e);
+                    if (failureRouter != null) {
+                        failureRouter.deadLetter(record, e.toString());
+                    }
+                }
+            }
+            if (pendingRecord != null) {
+                pendingRecord.release();
+            }
+        }
+        if (coalescer != null) {
+            coalescer.drainDue(dispatcher);
+            coalescedCount = absorbedBefore + coalescer.getAbsorbedCount();
+        }
+        commitIfDue();
+    }
+
+    /**
+     * Gets whether given error cannot go away by polling again: the
+     * credentials or permissions are wrong, or another member took over the
+     * static group instance id.
+     */
+    static boolean isFatal(RuntimeException e) {
+        return e instanceof AuthenticationException
+                || e instanceof AuthorizationException
+                || e instanceof FencedInstanceIdException;
+    }
+
+    /**
+     * Waits before polling again after an error, twice as long after each
+     * one in a row. Stop and reconfiguration end the wait.
+     */
+    private void backOff(RuntimeException e) {
+        metrics.recordConsumerError();
+        long millis = Math.min(MAX_BACKOFF_MILLIS, MIN_BACKOFF_MILLIS << Math.min(failures, 16));
+        failures++;
+        LOGGER.error("Consumer {} failed, polling again in {} ms", getName(), millis, e);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        long remaining;
+        backOffEnded = false;
+        while (!stopping && !backOffEnded && (remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(this, remaining);
+        }
+    }
+
+    /**
+     * Gets the error that stopped this thread.
+     *
+     * @return the error, or null if the thread is running or has been
+     *         stopped.
+     */
+    Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * Stops this thread after its current poll. Pending builds are scheduled
+     * and offsets committed before the consumer leaves the group.
+     */
+    void shutdown() {
+        stopping = true;
+        backOffEnded = true;
+        kafkaConsumer.wakeup();
+        LockSupport.unpark(this);
+    }
+
+    /**
+     * Applies new subscription and settings between two polls.
+     *
+     * @param subscription
+     *            the subscription with the same brokers and group id.
+     * @param settings
+     *            the settings, not requiring a restart of the consumer.
+     */
+    void reconfigure(KafkaSubscription subscription, ConsumerSettings settings) {
+        this.nextSubscription = subscription;
+        this.nextSettings = settings;
+        backOffEnded = true;
+        kafkaConsumer.wakeup();
+        LockSupport.unpark(this);
+    }
+
+    private void subscribe() {
+        String retryTopic = settings.getRetryTopic();
+        if (subscription.getTopicPattern() != null) {
+            String pattern = subscription.getTopicPattern();
+            if (retryTopic != null) {
+                pattern = "(?:" + pattern + ")|" + Pattern.quote(retryTopic);
+            }
+            kafkaConsumer.subscribe(Pattern.compile(pattern), this);
+        } else {
+            List<String> topics = new ArrayList<String>(2);
+            topics.add(subscription.getTopic());
+            if (retryTopic != null) {
+                topics.add(retryTopic);
+            }
+            kafkaConsumer.subscribe(topics, this);
+        }
+    }
+
+    private void applyReconfiguration() {
+        ConsumerSettings newSettings = nextSettings;
+        KafkaSubscription newSubscription = nextSubscription;
+        if (newSettings == settings && newSubscription == subscription) {
+            return;
+        }
+        if (newSettings != settings) {
+            if (!newSettings.isCoalescingEqual(settings)) {
+                if (coalescer != null) {
+                    coalescer.drainAll(dispatcher);
+                    absorbedBefore += coalescer.getAbsorbedCount();
+                }
+                coalescer = createCoalescer(newSettings);
+            }
+            if (!newSettings.getCodec().equals(settings.getCodec())) {
+                codec = BuildMessageCodec.get(newSettings.getCodec());
+            }
+            dedupeStore = newSettings.getDedupeTtlMinutes() > 0 ? DedupeStore.getInstance() : null;
+            globalLimiter = RateLimiter.global(newSettings.getRateLimitPerMinute(), newSettings.getRateLimitBurst());
+            settings = newSettings;
+            LOGGER.info("Consumer {} applied {}", getName(), settings);
+        }
+        if (newSubscription != subscription) {
+            boolean patternChanged = (newSubscription.getTopicPattern() == null)
+                    != (subscription.getTopicPattern() == null);
+            subscription = newSubscription;
+            if (patternChanged) {
+                // A consumer cannot switch between topics and a pattern while subscribed.
+                flushAll();
+                commitSync();
+                kafkaConsumer.unsubscribe();
+            }
+            // The rebalance listener schedules pending builds and commits the revoked partitions.
+            subscribe();
+            LOGGER.info("Consumer {} subscribed to {}", getName(), subscription);
+        }
+        FailureRouter previous = failureRouter;
+        failureRouter = FailureRouter.create(subscription, settings, codec, metrics);
+        dispatcher.setFailureRouter(failureRouter);
+        if (previous != null) {
+            // Builds in dispatch may still fail through the previous router.
+            dispatcher.awaitIdle(CLOSE_TIMEOUT.toMillis());
+            previous.release();
+        }
+    }
+
+    private boolean isRetry(ConsumerRecord<byte[], byte[]> record) {
+        return record.topic().equals(settings.getRetryTopic());
+    }
+
+    private void resumeDueRetries() {
+        if (!retryDelays.isEmpty()) {
+            retryDelays.resumeDue(System.currentTimeMillis(), !paused);
+        }
+    }
+
+    /**
+     * Gets how long the next poll may wait for records. The adaptive timeout
+     * is cut short by the next coalescing deadline and, while builds are in
+     * dispatch or offsets wait for their commit, by the next commit. Stop and
+     * reconfiguration wake the consumer up regardless of the timeout.
+     */
+    private long nextPollTimeoutMillis(long now) {
+        long timeout = pollTimeout.getMillis();
+        if (paused || dispatcher.getInFlight() > 0 || !deferred.isEmpty()) {
+            timeout = Math.min(timeout, AdaptivePollTimeout.BUSY_MILLIS);
+        }
+        if (coalescer != null && coalescer.hasPending()) {
+            timeout = Math.min(timeout, TimeUnit.NANOSECONDS.toMillis(coalescer.getNextDueNanos() - now));
+        }
+        if (!retryDelays.isEmpty()) {
+            timeout = Math.min(timeout, retryDelays.getFirstDue() - System.currentTimeMillis());
+        }
+        if (offsetTracker != null && offsetTracker.getCompletedSinceCommit() > 0) {
+            long commitDue = lastCommitNanos + TimeUnit.MILLISECONDS.toNanos(settings.getCommitIntervalMillis());
+            timeout = Math.min(timeout, TimeUnit.NANOSECONDS.toMillis(commitDue - now));
+        }
+        return Math.max(0, timeout);
+    }
+
+    private static Coalescer createCoalescer(ConsumerSettings settings) {
+        return settings.isCoalescing()
+                ? new Coalescer(settings.getCoalesceWindowMillis(), settings.getCoalesceMode())
+                : null;
+    }
+
+    /**
+     * Routes record to the triggers of its project, parsing its value only if
+     * there are any.
+     */
+    private void handleRecord(ConsumerRecord<byte[], byte[]> record, PendingRecord pendingRecord) {
+        String project = getRoutedProject(record);
+        RemoteBuildTrigger[] triggers = null;
+        if (project != null) {
+            triggers = findTriggers(project);
+            if (triggers.length == 0) {
+                metrics.recordUnmatched();
+                return;
+            }
+        }
+        BuildMessage buildMsg;
+        long decodeStart = System.nanoTime();
+        try {
+            buildMsg = codec.decode(record.topic(), record.value());
+            metrics.recordDeserialize(System.nanoTime() - decodeStart);
+        } catch (SerializationException e) {
+            metrics.recordMalformed();
+            LOGGER.warn("Skipping malformed record {}-{} at offset {}", record.topic(), record.partition(),
+                    record.offset(), e);
+            if (failureRouter != null) {
+                failureRouter.deadLetter(record, e.toString());
+            }
+            return;
+        }
+        if (triggers == null) {
+            triggers = findTriggers(buildMsg.getProject());
+            if (triggers.length == 0) {
+                metrics.recordUnmatched();
+                return;
+            }
+        }
+        if (dedupeStore != null && !reserve(record, pendingRecord)) {
+            metrics.recordDuplicate();
+            return;
+        }
+        handleBuildMessage(record.topic(), triggers, buildMsg, record.value(), getCorrelationIds(record),
+                pendingRecord);
+    }
+
+    /**
+     * Gets the ids the build events of given record are correlated with, from
+     * its correlation id headers, one per message a retried build has been
+     * coalesced from, or its message id header, or else its topic, partition
+     * and offset.
+     */
+    private static String[] getCorrelationIds(ConsumerRecord<byte[], byte[]> record) {
+        List<String> ids = null;
+        for (Header header : record.headers().headers(FailureRouter.CORRELATION_ID_HEADER)) {
+            if (header.value() != null) {
+                if (ids == null) {
+                    ids = new ArrayList<String>(1);
+                }
+                ids.add(new String(header.value(), StandardCharsets.UTF_8));
+            }
+        }
+        if (ids != null) {
+            return ids.toArray(new String[0]);
+        }
+        Header header = record.headers().lastHeader(DedupeStore.MESSAGE_ID_HEADER);
+        if (header != null && header.value() != null) {
+            return new String[] { new String(header.value(), StandardCharsets.UTF_8) };
+        }
+        return new String[] { record.topic() + '-' + record.partition() + '@' + record.offset() };
+    }
+
+    /**
+     * Reserves the identity of given record until its builds have been handed
+     * to the queue. Without at-least-once delivery, offsets are committed
+     * regardless of the builds, so the identity is recorded right away.
+     *
+     * @return false if the record is a duplicate.
+     */
+    private boolean reserve(ConsumerRecord<byte[], byte[]> record, PendingRecord pendingRecord) {
+        long identity = getIdentity(record);
+        long now = System.currentTimeMillis();
+        long ttlMillis = TimeUnit.MINUTES.toMillis(settings.getDedupeTtlMinutes());
+        if (pendingRecord == null) {
+            return dedupeStore.markSeen(identity, now, ttlMillis);
+        }
+        if (!dedupeStore.reserve(identity, now)) {
+            return false;
+        }
+        pendingRecord.recordOnCompletion(dedupeStore, identity, ttlMillis);
+        return true;
+    }
+
+    /**
+     * Gets the identity of given record from its message id header, or else
+     * from its topic, partition and offset.
+     */
+    private long getIdentity(ConsumerRecord<byte[], byte[]> record) {
+        Header header = record.headers().lastHeader(DedupeStore.MESSAGE_ID_HEADER);
+        if (header != null && header.value() != null) {
+            return DedupeStore.identityOf(header.value());
+        }
+        Long topicHash = topicHashes.get(record.topic());
+        if (topicHash == null) {
+            topicHash = DedupeStore.topicHashOf(record.topic());
+            topicHashes.put(record.topic(), topicHash);
+        }
+        return DedupeStore.identityOf(topicHash, record.partition(), record.offset());
+    }
+
+    /**
+     * Gets the project given record is routed to by its header or key.
+     *
+     * @return the project name, or null if the value has to be parsed to
+     *         find it.
+     */
+    private String getRoutedProject(ConsumerRecord<byte[], byte[]> record) {
+        Header header = record.headers().lastHeader(PROJECT_HEADER);
+        if (header != null && header.value() != null) {
+            return new String(header.value(), StandardCharsets.UTF_8);
+        }
+        if (settings.isRouteByKey() && record.key() != null) {
+            return new String(record.key(), StandardCharsets.UTF_8);
+        }
+        return null;
+    }
+
+    /**
+     * Finds the triggers of given project, or of the jobs it matches if it is
+     * a pattern.
+     */
+    private RemoteBuildTrigger[] findTriggers(String project) {
+        long lookupStart = System.nanoTime();
+        TriggerManager manager = TriggerManager.getInstance();
+        RemoteBuildTrigger[] triggers = manager.getTriggers(subscription.getName(), project);
+        if (triggers.length == 0 && project != null && TriggerPatternIndex.isPattern(project)) {
+            triggers = manager.getMatchingTriggers(subscription.getName(), project, settings.isRegexProjects());
+        }
+        metrics.recordLookup(System.nanoTime() - lookupStart);
+        return triggers;
+    }
+
+    /**
+     * Checks the token and payload filter of given message against the
+     * triggers of its project then hands the builds of the matched ones to
+     * the dispatcher. The fields of the message are read only for triggers
+     * with a filter, and only once for all of them.
+     */
+    void handleBuildMessage(String topicName, RemoteBuildTrigger[] triggers, BuildMessage buildMsg, byte[] value,
+                            String[] correlationIds, PendingRecord pendingRecord) {
+        MessageFields fields = null;
+        for (int i = 0; i < triggers.length; i++) {
+            RemoteBuildTrigger t = triggers[i];
+
+            if (t.getRemoteBuildToken() == null) {
+                LOGGER.warn("Ignoring kafka trigger for project {}: no token set", t.getProjectName());
+                metrics.recordIgnored();
+                continue;
+            }
+
+            if (t.getRemoteBuildToken().equals(buildMsg.getToken())) {
+
+                PayloadFilter filter = t.getPayloadFilterMatcher();
+                if (filter != null) {
+                    if (fields == null) {
+                        fields = new MessageFields(codec instanceof JsonBuildMessageCodec ? value : null, buildMsg);
+                    }
+                    if (!filter.test(fields)) {
+                        metrics.recordFiltered();
+                        continue;
+                    }
+                }
+                metrics.recordMatched();
+                String[] parameters = buildMsg.hasParameters() ? buildMsg.getParameters() : null;
+                if (globalLimiter != null || t.getRateLimitPerMinute() > 0) {
+                    Integer jobDeferred = deferredPerTrigger.get(t);
+                    int limited;
+                    if (jobDeferred != null) {
+                        // Behind builds of the job deferred before, to keep its order.
+                        limited = t.getRateLimitPerMinute() > 0 ? JOB_LIMITED : GLOBALLY_LIMITED;
+                    } else {
+                        limited = acquire(t, System.nanoTime());
+                    }
+                    if (limited != ACQUIRED) {
+                        if (settings.getRateLimitPolicy() == RateLimitPolicy.DROP) {
+                            metrics.recordRateDropped();
+                            continue;
+                        }
+                        if (limited == JOB_LIMITED && jobDeferred != null && jobDeferred >= getMaxDeferred(t)) {
+                            metrics.recordRateDropped();
+                            if (failureRouter != null) {
+                                failureRouter.buildFailed(t, topicName, parameters, correlationIds, false,
+                                        "Too many builds deferred by the rate limit of the job");
+                            }
+                            continue;
+                        }
+                        metrics.recordDeferred();
+                        if (pendingRecord != null) {
+                            pendingRecord.retain();
+                        }
+                        boolean global = limited == GLOBALLY_LIMITED;
+                        deferred.add(new DeferredBuild(t, topicName, parameters, correlationIds, pendingRecord,
+                                global));
+                        deferredPerTrigger.merge(t, 1, Integer::sum);
+                        if (global) {
+                            globallyDeferred++;
+                        }
+                        continue;
+                    }
+                }
+                if (pendingRecord != null) {
+                    pendingRecord.retain();
+                }
+                submit(t, topicName, parameters, correlationIds, pendingRecord);
+            } else {
+                metrics.recordIgnored();
+            }
+        }
+
+    }
+
+    /**
+     * Hands build with its retained record to the coalescer or the
+     * dispatcher.
+     */
+    private void submit(RemoteBuildTrigger trigger, String topicName, String[] parameters, String[] correlationIds,
+                        PendingRecord pendingRecord) {
+        if (coalescer != null) {
+            if (coalescer.offer(trigger, topicName, parameters, correlationIds, pendingRecord)) {
+                metrics.recordCoalesced();
+            }
+        } else {
+            dispatcher.add(trigger, topicName, parameters, correlationIds,
+                    pendingRecord != null ? Collections.singletonList(pendingRecord) : null);
+        }
+    }
+
+    /**
+     * Takes a token from the limit of given job and from the global one.
+     *
+     * @return {@link #ACQUIRED} if both limits allow the build, otherwise
+     *         the limit that does not.
+     */
+    private int acquire(RemoteBuildTrigger trigger, long now) {
+        RateLimiter jobLimiter = trigger.getRateLimiter(settings.getRateLimitBurst());
+        if (jobLimiter != null && !jobLimiter.tryAcquire(now)) {
+            return JOB_LIMITED;
+        }
+        if (globalLimiter != null && !globalLimiter.tryAcquire(now)) {
+            if (jobLimiter != null) {
+                jobLimiter.release();
+            }
+            return GLOBALLY_LIMITED;
+        }
+        return ACQUIRED;
+    }
+
+    /**
+     * Gets how many builds given job may defer: one minute of builds at its
+     * limit, and at least the burst.
+     */
+    private int getMaxDeferred(RemoteBuildTrigger trigger) {
+        return Math.max(trigger.getRateLimitPerMinute(), settings.getRateLimitBurst());
+    }
+
+    /**
+     * Hands on the deferred builds the limits allow by now. A build denied by
+     * its job's limit leaves later builds of the job denied as well, so every
+     * job keeps its order.
+     */
+    private void drainDeferred() {
+        if (deferred.isEmpty()) {
+            return;
+        }
+        long now = System.nanoTime();
+        Iterator<DeferredBuild> it = deferred.iterator();
+        while (it.hasNext()) {
+            DeferredBuild build = it.next();
+            if (acquire(build.trigger, now) == ACQUIRED) {
+                it.remove();
+                undefer(build);
+                submit(build.trigger, build.topicName, build.parameters, build.correlationIds, build.pendingRecord);
+            }
+        }
+    }
+
+    /**
+     * Drops the deferred builds of given partitions, which are consumed again
+     * by their new owner.
+     */
+    private void forgetDeferred(Collection<TopicPartition> partitions) {
+        deferred.removeIf(build -> {
+            if (build.pendingRecord == null || !partitions.contains(build.pendingRecord.getPartition())) {
+                return false;
+            }
+            build.discard();
+            undefer(build);
+            return true;
+        });
+    }
+
+    private void undefer(DeferredBuild build) {
+        deferredPerTrigger.computeIfPresent(build.trigger, (t, count) -> count > 1 ? count - 1 : null);
+        if (build.global) {
+            globallyDeferred--;
+        }
+    }
+
+    private void applyBackpressure() {
+        int high = settings.getQueueHighWatermark();
+        int length = high > 0 ? Queue.getInstance().getApproximateItemsQuickly().size() : 0;
+        int inFlight = dispatcher.getInFlight() + globallyDeferred;
+        int capacity = settings.getDispatchCapacity();
+        if (!paused && (high > 0 && length >= high || inFlight >= capacity)) {
+            paused = true;
+            kafkaConsumer.pause(kafkaConsumer.assignment());
+            LOGGER.info("Consumer {} paused, queue length {}, builds in dispatch {}", getName(), length, inFlight);
+        } else if (paused && (high <= 0 || length <= settings.getQueueLowWatermark()) && inFlight <= capacity / 2) {
+            paused = false;
+            Set<TopicPartition> resumed = new HashSet<TopicPartition>(kafkaConsumer.paused());
+            resumed.removeAll(retryDelays.getPartitions());
+            kafkaConsumer.resume(resumed);
+            LOGGER.info("Consumer {} resumed, queue length {}, builds in dispatch {}", getName(), length, inFlight);
+        }
+    }
+
+    /**
+     * Hands all builds held back by coalescing to the dispatcher and waits
+     * until they have been scheduled, so the offsets of their records can be
+     * committed.
+     */
+    private void flushAll() {
+        if (coalescer != null) {
+            coalescer.drainAll(dispatcher);
+        }
+        dispatcher.awaitIdle(CLOSE_TIMEOUT.toMillis());
+    }
+
+    private void commitIfDue() {
+        if (offsetTracker == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (offsetTracker.getCompletedSinceCommit() >= settings.getCommitBatchRecords()
+                || now - lastCommitNanos >= TimeUnit.MILLISECONDS.toNanos(settings.getCommitIntervalMillis())) {
+            lastCommitNanos = now;
+            Map<TopicPartition, OffsetAndMetadata> offsets = offsetTracker.committable(false);
+            if (!offsets.isEmpty()) {
+                kafkaConsumer.commitAsync(offsets, commitCallback);
+            }
+        }
+    }
+
+    /**
+     * Commits the offsets of all tracked partitions. A wakeup for stop or
+     * reconfiguration that was not consumed by a poll interrupts the commit
+     * once, so it is retried once.
+     */
+    private void commitSync() {
+        if (offsetTracker == null) {
+            return;
+        }
+        Map<TopicPartition, OffsetAndMetadata> offsets = offsetTracker.committable(true);
+        if (!offsets.isEmpty()) {
+            try {
+                try {
+                    kafkaConsumer.commitSync(offsets);
+                } catch (WakeupException e) {
+                    kafkaConsumer.commitSync(offsets);
+                }
+            } catch (KafkaException e) {
+                LOGGER.warn("Cannot commit offsets {} of consumer {}", offsets, getName(), e);
+            }
+        }
+        lastCommitNanos = System.nanoTime();
+    }
+
+    @Override
+    public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+        unassign(partitions);
+        retryDelays.forget(partitions);
+        if (offsetTracker != null) {
+            // Hand everything held back to the queue so the revoked offsets can be committed.
+            flushAll();
+            commitSync();
+            offsetTracker.forget(partitions);
+            forgetDeferred(partitions);
+        }
+    }
+
+    @Override
+    public void onPartitionsLost(Collection<TopicPartition> partitions) {
+        unassign(partitions);
+        retryDelays.forget(partitions);
+        if (offsetTracker != null) {
+            // Another member owns them already, committing would fail.
+            offsetTracker.forget(partitions);
+            forgetDeferred(partitions);
+        }
+    }
+
+    @Override
+    public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+        LOGGER.debug("Consumer {} assigned partitions {}", getName(), partitions);
+        Set<TopicPartition> assigned = new HashSet<TopicPartition>(assignment);
+        assigned.addAll(partitions);
+        assignment = Collections.unmodifiableSet(assigned);
+        if (paused) {
+            kafkaConsumer.pause(partitions);
+        }
+    }
+
+    private void unassign(Collection<TopicPartition> partitions) {
+        Set<TopicPartition> assigned = new HashSet<TopicPartition>(assignment);
+        assigned.removeAll(partitions);
+        assignment = Collections.unmodifiableSet(assigned);
+        Set<String> topics = new HashSet<String>();
+        for (TopicPartition partition : assigned) {
+            topics.add(partition.topic());
+        }
+        topicHashes.keySet().retainAll(topics);
+    }
+
+    /**
+     * Adds the lag of the partitions assigned to this consumer, as last
+     * reported by the consumer's fetch metrics, to given map. It can be called
+     * from any thread.
+     *
+     * @param lags
+     *            the map to add the number of records behind per partition to.
+     */
+    void collectRecordsLag(Map<TopicPartition, Long> lags) {
+        Set<TopicPartition> assigned = assignment;
+        if (assigned.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<MetricName, ? extends Metric> entry : kafkaConsumer.metrics().entrySet()) {
+            MetricName name = entry.getKey();
+            if (!RECORDS_LAG_METRIC.equals(name.name()) || !FETCH_METRICS_GROUP.equals(name.group())) {
+                continue;
+            }
+            TopicPartition partition = findPartition(assigned, name.tags().get("topic"), name.tags().get("partition"));
+            Object value = entry.getValue().metricValue();
+            if (partition != null && value instanceof Number && !Double.isNaN(((Number) value).doubleValue())) {
+                lags.put(partition, ((Number) value).longValue());
+            }
+        }
+    }
+
+    /**
+     * Finds the assigned partition given metric tags belong to. The consumer
+     * reports topic names with dots replaced by underscores.
+     */
+    private static TopicPartition findPartition(Set<TopicPartition> assigned, String topicTag, String partitionTag) {
+        if (topicTag == null || partitionTag == null) {
+            return null;
+        }
+        for (TopicPartition partition : assigned) {
+            if (Integer.toString(partition.partition()).equals(partitionTag)
+                    && partition.topic().replace('.', '_').equals(topicTag)) {
+                return partition;
+            }
+        }
+        return null;
+    }
+
+    public long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    public Consumer<byte[], byte[]> getKafkaConsumer(){
+        return this.kafkaConsumer;
+    }
+
+    private static final class DeferredBuild {
+        private final RemoteBuildTrigger trigger;
+        private final String topicName;
+        private final String[] parameters;
+        private final String[] correlationIds;
+        private final PendingRecord pendingRecord;
+        /** Whether the build has been deferred by the global limit. */
+        private final boolean global;
+
+        DeferredBuild(RemoteBuildTrigger trigger, String topicName, String[] parameters, String[] correlationIds,
+                      PendingRecord pendingRecord, boolean global) {
+            this.trigger = trigger;
+            this.topicName = topicName;
+            this.parameters = parameters;
+            this.correlationIds = correlationIds;
+            this.pendingRecord = pendingRecord;
+            this.global = global;
+        }
+
+        /**
+         * Drops this build without releasing its record, which is consumed
+         * again and must not count as a duplicate then.
+         */
+        void discard() {
+            if (pendingRecord != null) {
+                pendingRecord.discard();
+            }
+        }
+    }
+
+    private final class CommitCallback implements OffsetCommitCallback {
+        @Override
+        public void onComplete(Map<TopicPartition, OffsetAndMetadata> offsets, Exception exception) {
+            if (exception != null) {
+                LOGGER.warn("Cannot commit offsets {} of consumer {}", offsets, getName(), exception);
+            }
+        }
+    }
+}
@@ -0,0 +1,583 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Identities of recently handled records, kept for a while so that records
+ * delivered again after a rebalance or a restart do not trigger builds
+ * twice.
+ *
+ * <p>Identities are 64-bit hashes of a {@value #MESSAGE_ID_HEADER} header or
+ * of topic, partition and offset of a record. They are looked up in an
+ * open-addressing table on the heap and appended, with their expiry, to a
+ * memory-mapped file under {@code JENKINS_HOME}, which is read back on
+ * start.</p>
+ *
+ * <p>The file is compacted in the background every
+ * {@value #COMPACT_INTERVAL_MINUTES} minutes once it is half full, and as
+ * soon as it is full. The live entries are written to a new file, sized for
+ * four times as many, which then atomically replaces the old one. Until
+ * then the old file is left untouched, so a compaction cut short by a crash
+ * loses nothing. The consumers only wait while the table is copied and the
+ * entries appended in the meantime are carried over. While the file is full,
+ * new entries are kept on the heap only.</p>
+ *
+ * <p>Entries reach the disk through the page cache, so they survive a
+ * restart of the controller but not necessarily a crash of its host.</p>
+ *
+ * <p>With at-least-once delivery an identity is only reserved, in memory,
+ * while the builds of its record are handed to the queue, and recorded once
+ * they all have been. A record whose builds are discarded before that gives
+ * its reservation back, so it triggers its builds when delivered again.
+ * Reservations are held in {@value #RESERVATION_STRIPES} sets, each with its
+ * own lock, so that consumers reserving and the queue completing identities
+ * rarely wait for each other.</p>
+ */
+final class DedupeStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DedupeStore.class);
+
+    /**
+     * The record header carrying the identity of a message.
+     */
+    static final String MESSAGE_ID_HEADER = "message-id";
+
+    static final String FILE_NAME = "kafka-build-trigger-dedupe.bin";
+
+    /**
+     * Entry of identity and expiry in milliseconds since the epoch.
+     */
+    private static final int ENTRY_BYTES = 16;
+
+    static final int INITIAL_CAPACITY = 1 << 16;
+
+    static final int COMPACT_INTERVAL_MINUTES = 10;
+
+    static final int RESERVATION_STRIPES = 16;
+
+    private static DedupeStore instance;
+
+    private final Path file;
+    /** The mapped file, null once closed. */
+    private MappedByteBuffer buffer;
+    /** Number of entries the mapped file holds. */
+    private int capacity;
+    /** Number of entries written. */
+    private int position;
+
+    /** Identities, 0 for a free slot. */
+    private long[] ids;
+    private long[] expiries;
+    private int size;
+
+    /** Reserved identities, not recorded yet, by their top bits. */
+    private final LongHashSet[] reserved = new LongHashSet[RESERVATION_STRIPES];
+
+    /** The executor compacting the file, null if it is not compacted. */
+    private ScheduledExecutorService executor;
+    private ScheduledFuture<?> compaction;
+    /** Whether a compaction has been requested and not finished yet. */
+    private boolean compacting;
+    /** The number of entries that did not fit into the file. */
+    private long unwritten;
+    /** Held while compacting, so that compactions do not overlap. */
+    private final Object compactLock = new Object();
+
+    private DedupeStore(Path file, MappedByteBuffer buffer, int capacity) {
+        this.file = file;
+        this.buffer = buffer;
+        this.capacity = capacity;
+        this.ids = new long[INITIAL_CAPACITY];
+        this.expiries = new long[INITIAL_CAPACITY];
+        for (int i = 0; i < reserved.length; i++) {
+            reserved[i] = new LongHashSet(64);
+        }
+    }
+
+    /**
+     * Gets the store in {@code JENKINS_HOME}, opening it on first use.
+     *
+     * @return the store, or null if it cannot be opened.
+     */
+    static synchronized DedupeStore getInstance() {
+        if (instance == null) {
+            File file = new File(Jenkins.get().getRootDir(), FILE_NAME);
+            try {
+                instance = open(file.toPath(), System.currentTimeMillis());
+                instance.scheduleCompaction(Timer.get());
+            } catch (IOException e) {
+                LOGGER.warn("Cannot open dedupe store {}, duplicates are not suppressed", file, e);
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Writes the entries of the store to the disk and closes it, if it is
+     * open. The consumers must have stopped.
+     */
+    static synchronized void closeInstance() {
+        if (instance != null) {
+            instance.close();
+            instance = null;
+        }
+    }
+
+    /**
+     * Opens given file, loading the entries that have not expired.
+     *
+     * @param file
+     *            the file, created if missing.
+     * @param now
+     *            the current time in milliseconds.
+     * @return the store.
+     * @throws IOException
+     *             if the file cannot be mapped.
+     */
+    static DedupeStore open(Path file, long now) throws IOException {
+        // The mapping stays valid once the channel is closed.
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            int entries = (int) Math.min(Integer.MAX_VALUE / ENTRY_BYTES, channel.size() / ENTRY_BYTES);
+            int capacity = Math.max(INITIAL_CAPACITY, entries);
+            DedupeStore store = new DedupeStore(file, map(channel, capacity), capacity);
+            store.load(now);
+            return store;
+        }
+    }
+
+    /**
+     * Compacts the file with given executor from now on.
+     *
+     * @param executor
+     *            the executor.
+     */
+    synchronized void scheduleCompaction(ScheduledExecutorService executor) {
+        this.executor = executor;
+        compaction = executor.scheduleWithFixedDelay(() -> {
+            boolean halfFull;
+            synchronized (this) {
+                halfFull = position * 2 > capacity;
+            }
+            if (halfFull) {
+                compact(System.currentTimeMillis());
+            }
+        }, COMPACT_INTERVAL_MINUTES, COMPACT_INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Gets the identity of a record from its message id header.
+     *
+     * @param messageId
+     *            the header value.
+     * @return the identity, never 0.
+     */
+    static long identityOf(byte[] messageId) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : messageId) {
+            hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        return nonZero(mix(hash));
+    }
+
+    /**
+     * Gets the identity of a record from its position.
+     *
+     * @param topic
+     *            the topic.
+     * @param partition
+     *            the partition.
+     * @param offset
+     *            the offset.
+     * @return the identity, never 0.
+     */
+    static long identityOf(String topic, int partition, long offset) {
+        return identityOf(topicHashOf(topic), partition, offset);
+    }
+
+    /**
+     * Gets the hash of a topic that identities of its records are derived
+     * from.
+     *
+     * @param topic
+     *            the topic.
+     * @return the hash.
+     */
+    static long topicHashOf(String topic) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : topic.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Gets the identity of a record from its position.
+     *
+     * @param topicHash
+     *            the hash of the topic, see {@link #topicHashOf(String)}.
+     * @param partition
+     *            the partition.
+     * @param offset
+     *            the offset.
+     * @return the identity, never 0.
+     */
+    static long identityOf(long topicHash, int partition, long offset) {
+        long hash = mix(topicHash ^ partition) + 0x9e3779b97f4a7c15L;
+        return nonZero(mix(hash ^ offset));
+    }
+
+    /**
+     * Records given identity unless it has been recorded before and has not
+     * expired yet.
+     *
+     * @param id
+     *            the identity.
+     * @param now
+     *            the current time in milliseconds.
+     * @param ttlMillis
+     *            how long the identity is kept.
+     * @return true if the identity is new, false for a duplicate.
+     */
+    synchronized boolean markSeen(long id, long now, long ttlMillis) {
+        int slot = find(id);
+        if (ids[slot] == id && expiries[slot] > now) {
+            return false;
+        }
+        long expiry = now + ttlMillis;
+        if (ids[slot] != id) {
+            if ((size + 1) * 2 > ids.length) {
+                rehash(now);
+                slot = find(id);
+            }
+            ids[slot] = id;
+            size++;
+        }
+        expiries[slot] = expiry;
+        append(id, expiry, now);
+        return true;
+    }
+
+    /**
+     * Reserves given identity while the builds of its record are handed on,
+     * unless it has been recorded and has not expired yet or is reserved
+     * already.
+     *
+     * @param id
+     *            the identity.
+     * @param now
+     *            the current time in milliseconds.
+     * @return true if the identity is new, false for a duplicate.
+     */
+    boolean reserve(long id, long now) {
+        LongHashSet stripe = reserved[stripeOf(id)];
+        synchronized (stripe) {
+            if (!stripe.add(id)) {
+                return false;
+            }
+        }
+        // Reserved first, so that a concurrent completion is either seen here
+        // or still holds the reservation.
+        if (isRecorded(id, now)) {
+            synchronized (stripe) {
+                stripe.remove(id);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Records a reserved identity once the builds of its record have been
+     * handed to the queue.
+     *
+     * @param id
+     *            the identity.
+     * @param now
+     *            the current time in milliseconds.
+     * @param ttlMillis
+     *            how long the identity is kept.
+     */
+    void complete(long id, long now, long ttlMillis) {
+        markSeen(id, now, ttlMillis);
+        cancel(id);
+    }
+
+    /**
+     * Gives back a reserved identity whose record is consumed again.
+     *
+     * @param id
+     *            the identity.
+     */
+    void cancel(long id) {
+        LongHashSet stripe = reserved[stripeOf(id)];
+        synchronized (stripe) {
+            stripe.remove(id);
+        }
+    }
+
+    private synchronized boolean isRecorded(long id, long now) {
+        int slot = find(id);
+        return ids[slot] == id && expiries[slot] > now;
+    }
+
+    private static int stripeOf(long id) {
+        return (int) (id >>> 60) & (RESERVATION_STRIPES - 1);
+    }
+
+    /**
+     * Gets the number of identities on the heap, including expired ones not
+     * yet compacted away.
+     *
+     * @return the number of identities.
+     */
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Writes the entries to the disk.
+     */
+    synchronized void force() {
+        if (buffer != null) {
+            buffer.force();
+        }
+    }
+
+    /**
+     * Stops compacting and writes the entries to the disk. Identities are
+     * looked up on the heap only from then on.
+     */
+    synchronized void close() {
+        if (compaction != null) {
+            compaction.cancel(false);
+            compaction = null;
+        }
+        executor = null;
+        force();
+        buffer = null;
+    }
+
+    /**
+     * Gets the number of entries the file holds.
+     *
+     * @return the number of entries.
+     */
+    synchronized int getCapacity() {
+        return capacity;
+    }
+
+    private void load(long now) {
+        while (position < capacity) {
+            long id = buffer.getLong(position * ENTRY_BYTES);
+            if (id == 0) {
+                break;
+            }
+            long expiry = buffer.getLong(position * ENTRY_BYTES + 8);
+            position++;
+            if (expiry > now) {
+                if ((size + 1) * 2 > ids.length) {
+                    rehash(now);
+                }
+                int slot = find(id);
+                if (ids[slot] != id) {
+                    ids[slot] = id;
+                    size++;
+                }
+                expiries[slot] = Math.max(expiries[slot], expiry);
+            }
+        }
+    }
+
+    private void append(long id, long expiry, long now) {
+        if (buffer == null) {
+            return;
+        }
+        if (position == capacity) {
+            // Kept on the heap only until the file has been compacted.
+            unwritten++;
+            requestCompaction();
+            return;
+        }
+        buffer.putLong(position * ENTRY_BYTES, id);
+        buffer.putLong(position * ENTRY_BYTES + 8, expiry);
+        position++;
+    }
+
+    private void requestCompaction() {
+        if (!compacting && executor != null) {
+            compacting = true;
+            try {
+                executor.execute(() -> compact(System.currentTimeMillis()));
+            } catch (RejectedExecutionException e) {
+                compacting = false;
+            }
+        }
+    }
+
+    /**
+     * Writes the live entries to a new file that then replaces the current
+     * one.
+     *
+     * @param now
+     *            the current time in milliseconds.
+     */
+    void compact(long now) {
+        boolean again = false;
+        try {
+            synchronized (compactLock) {
+                again = compactFile(now);
+            }
+        } finally {
+            synchronized (this) {
+                compacting = false;
+                if (again) {
+                    requestCompaction();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if entries did not fit into the file while the table was
+     *         copied, so the new file lacks them.
+     */
+    private boolean compactFile(long now) {
+        long[] liveIds;
+        long[] liveExpiries;
+        int live = 0;
+        int from;
+        long unwrittenBefore;
+        synchronized (this) {
+            if (buffer == null) {
+                return false;
+            }
+            unwrittenBefore = unwritten;
+            liveIds = new long[size];
+            liveExpiries = new long[size];
+            for (int i = 0; i < ids.length; i++) {
+                if (ids[i] != 0 && expiries[i] > now) {
+                    liveIds[live] = ids[i];
+                    liveExpiries[live] = expiries[i];
+                    live++;
+                }
+            }
+            from = position;
+        }
+        Path compacted = file.resolveSibling(file.getFileName() + ".compact");
+        try {
+            int newCapacity = (int) Math.min(Integer.MAX_VALUE / ENTRY_BYTES,
+                    Math.max(INITIAL_CAPACITY, 4L * live));
+            MappedByteBuffer newBuffer;
+            try (FileChannel channel = FileChannel.open(compacted, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                newBuffer = map(channel, newCapacity);
+            }
+            int newPosition = 0;
+            for (int i = 0; i < live && newPosition < newCapacity; i++) {
+                newBuffer.putLong(newPosition * ENTRY_BYTES, liveIds[i]);
+                newBuffer.putLong(newPosition * ENTRY_BYTES + 8, liveExpiries[i]);
+                newPosition++;
+            }
+            synchronized (this) {
+                if (buffer == null) {
+                    Files.deleteIfExists(compacted);
+                    return false;
+                }
+                // Entries appended since the table was copied.
+                for (int i = from; i < position && newPosition < newCapacity; i++) {
+                    newBuffer.putLong(newPosition * ENTRY_BYTES, buffer.getLong(i * ENTRY_BYTES));
+                    newBuffer.putLong(newPosition * ENTRY_BYTES + 8, buffer.getLong(i * ENTRY_BYTES + 8));
+                    newPosition++;
+                }
+                newBuffer.force();
+                Files.move(compacted, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                buffer = newBuffer;
+                capacity = newCapacity;
+                position = newPosition;
+                boolean missing = unwritten != unwrittenBefore;
+                unwritten = 0;
+                LOGGER.debug("Compacted dedupe store to {} of {} entries", newPosition, newCapacity);
+                return missing;
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Cannot compact dedupe store {}, keeping the current file", file, e);
+            try {
+                Files.deleteIfExists(compacted);
+            } catch (IOException ignored) {
+                // Truncated by the next compaction.
+            }
+            return false;
+        }
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, int entries) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) entries * ENTRY_BYTES);
+    }
+
+    /**
+     * Drops expired identities, doubling the table if it is still more than
+     * a quarter full.
+     */
+    private void rehash(long now) {
+        long[] oldIds = ids;
+        long[] oldExpiries = expiries;
+        int live = 0;
+        for (int i = 0; i < oldIds.length; i++) {
+            if (oldIds[i] != 0 && oldExpiries[i] > now) {
+                live++;
+            }
+        }
+        int length = live * 4 > oldIds.length ? oldIds.length * 2 : oldIds.length;
+        ids = new long[length];
+        expiries = new long[length];
+        size = 0;
+        for (int i = 0; i < oldIds.length; i++) {
+            if (oldIds[i] != 0 && oldExpiries[i] > now) {
+                int slot = find(oldIds[i]);
+                ids[slot] = oldIds[i];
+                expiries[slot] = oldExpiries[i];
+                size++;
+            }
+        }
+    }
+
+    /**
+     * Gets the slot of given identity, or the free slot it would take.
+     */
+    private int find(long id) {
+        int mask = ids.length - 1;
+        int slot = (int) id & mask;
+        while (ids[slot] != 0 && ids[slot] != id) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static long mix(long h) {
+        h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+        h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+
+    private static long nonZero(long id) {
+        return id != 0 ? id : 1;
+    }
+}
@@ -0,0 +1,212 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import org.apache.kafka.clients.CommonClientConfigs;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Producer publishing failed records to dead-letter and retry topics, shared
+ * by all consumers of one cluster.
+ *
+ * <p>Consumers acquire the publisher of their cluster and release it when
+ * they stop or change cluster. The last release closes the publisher, so
+ * publishers of clusters no longer configured do not linger.</p>
+ *
+ * <p>The producer is idempotent, compresses its batches and has a bounded
+ * buffer. Records are handed to it by a single sender thread through a
+ * bounded queue, so a consumer never waits for metadata or buffer space. When
+ * the queue is full, records are dropped with a warning. Records dropped, or
+ * not accepted by the cluster, are counted in {@link ConsumerMetrics}.</p>
+ */
+final class FailurePublisher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FailurePublisher.class);
+
+    /**
+     * The maximum number of records waiting for the sender thread.
+     */
+    static final int MAX_PENDING = 10000;
+
+    private static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(10);
+
+    /**
+     * Prefixes of consumer properties the producer needs to reach the same
+     * cluster.
+     */
+    private static final String[] CONNECTION_PROPERTY_PREFIXES = { "security.", "ssl.", "sasl.", "client.dns." };
+
+    /** Publisher per brokers and consumer properties, guarded by the class. */
+    private static final Map<String, FailurePublisher> PUBLISHERS = new HashMap<String, FailurePublisher>();
+
+    /** The key in {@link #PUBLISHERS}, null if not shared. */
+    private final String key;
+    /** The number of consumers that acquired this publisher, guarded by the class. */
+    private int users;
+    private final Producer<byte[], byte[]> producer;
+    private final ConsumerMetrics metrics;
+    private final ThreadPoolExecutor sender;
+
+    /**
+     * Creates instance sending through given producer.
+     *
+     * @param producer
+     *            the producer, a mock one in tests.
+     * @param metrics
+     *            the metrics to count dropped records in.
+     */
+    FailurePublisher(Producer<byte[], byte[]> producer, ConsumerMetrics metrics) {
+        this(null, producer, metrics);
+    }
+
+    private FailurePublisher(String key, Producer<byte[], byte[]> producer, ConsumerMetrics metrics) {
+        this.key = key;
+        this.producer = producer;
+        this.metrics = metrics;
+        this.sender = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_PENDING),
+                new NamingThreadFactory(new DaemonThreadFactory(), "Kafka build trigger failure publisher"));
+    }
+
+    /**
+     * Acquires the publisher of the cluster at given brokers, creating it on
+     * first use. It must be released by {@link #release()}.
+     *
+     * @param brokers
+     *            the bootstrap brokers.
+     * @param consumerProperties
+     *            the further consumer properties, whose connection settings
+     *            the producer shares.
+     * @param metrics
+     *            the metrics to count dropped records in.
+     * @return the publisher.
+     */
+    static synchronized FailurePublisher acquire(String brokers, String consumerProperties,
+                                                 ConsumerMetrics metrics) {
+        String key = brokers + '\n' + consumerProperties;
+        FailurePublisher publisher = PUBLISHERS.get(key);
+        if (publisher == null) {
+            Properties properties = producerProperties(brokers, consumerProperties);
+            publisher = new FailurePublisher(key, new KafkaProducer<byte[], byte[]>(properties,
+                    new ByteArraySerializer(), new ByteArraySerializer()), metrics);
+            PUBLISHERS.put(key, publisher);
+        }
+        publisher.users++;
+        return publisher;
+    }
+
+    /**
+     * Releases this publisher, closing it once no consumer uses it any more.
+     */
+    void release() {
+        synchronized (FailurePublisher.class) {
+            if (--users > 0 || key == null || !PUBLISHERS.remove(key, this)) {
+                return;
+            }
+        }
+        // Waits for the pending records outside of the lock.
+        close();
+    }
+
+    /**
+     * Gets the number of publishers in use.
+     *
+     * @return the number of publishers.
+     */
+    static synchronized int getPublisherCount() {
+        return PUBLISHERS.size();
+    }
+
+    /**
+     * Sends what is pending and closes all publishers.
+     */
+    static synchronized void closeAll() {
+        for (FailurePublisher publisher : PUBLISHERS.values()) {
+            publisher.close();
+        }
+        PUBLISHERS.clear();
+    }
+
+    static Properties producerProperties(String brokers, String consumerProperties) {
+        Properties properties = new Properties();
+        Properties parsed = GlobalKafkaBuildTriggerConfig.parseConsumerProperties(consumerProperties);
+        for (String name : parsed.stringPropertyNames()) {
+            for (String prefix : CONNECTION_PROPERTY_PREFIXES) {
+                if (name.startsWith(prefix)) {
+                    properties.put(name, parsed.getProperty(name));
+                }
+            }
+        }
+        properties.put(CommonClientConfigs.BOOTSTRAP_SERVERS_CONFIG, brokers);
+        properties.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, "true");
+        properties.put(ProducerConfig.ACKS_CONFIG, "all");
+        properties.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, "lz4");
+        properties.put(ProducerConfig.LINGER_MS_CONFIG, "50");
+        properties.put(ProducerConfig.BATCH_SIZE_CONFIG, Integer.toString(64 * 1024));
+        properties.put(ProducerConfig.BUFFER_MEMORY_CONFIG, Long.toString(4L * 1024 * 1024));
+        // Only the sender thread waits for a full buffer or missing metadata.
+        properties.put(ProducerConfig.MAX_BLOCK_MS_CONFIG, "10000");
+        return properties;
+    }
+
+    /**
+     * Publishes given record without waiting.
+     *
+     * @param record
+     *            the record.
+     */
+    void publish(ProducerRecord<byte[], byte[]> record) {
+        try {
+            sender.execute(() -> send(record));
+        } catch (RejectedExecutionException e) {
+            metrics.recordFailureDropped();
+            LOGGER.warn("Dropping record for topic {}, {} records are waiting to be published", record.topic(),
+                    MAX_PENDING);
+        }
+    }
+
+    private void send(ProducerRecord<byte[], byte[]> record) {
+        try {
+            producer.send(record, (metadata, exception) -> {
+                if (exception != null) {
+                    metrics.recordFailureDropped();
+                    LOGGER.warn("Cannot publish record to topic {}", record.topic(), exception);
+                }
+            });
+        } catch (KafkaException | IllegalStateException e) {
+            metrics.recordFailureDropped();
+            LOGGER.warn("Cannot publish record to topic {}", record.topic(), e);
+        }
+    }
+
+    /**
+     * Sends what is pending and closes the producer.
+     */
+    void close() {
+        sender.shutdown();
+        try {
+            if (!sender.awaitTermination(CLOSE_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)) {
+                LOGGER.warn("{} failed records not published", sender.getQueue().size());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        producer.close(CLOSE_TIMEOUT);
+    }
+}
@@ -0,0 +1,224 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Routes records and builds that failed to the dead-letter topic, or to the
+ * retry topic to be consumed again once a delay has passed.
+ *
+ * <p>Records that cannot be decoded or handled are dead-lettered as they were
+ * read, with headers naming their origin and the failure. Builds the queue
+ * did not take are encoded again with the codec of the consumer, routed to
+ * their job by the {@value ConsumerThread#PROJECT_HEADER} header. They are
+ * retried once through the retry topic, then dead-lettered. Without a topic
+ * for a failure, it is only logged, as before.</p>
+ *
+ * <p>The retry topic is shared by all subscriptions. Builds are published to
+ * it with a {@value #SUBSCRIPTION_HEADER} header naming the subscription that
+ * retries them, so the consumers of other subscriptions skip them and a job
+ * bound to several subscriptions is only retried once.</p>
+ *
+ * <p>Instances are immutable and may be used from any thread.</p>
+ */
+final class FailureRouter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FailureRouter.class);
+
+    /**
+     * The record header holding the time, in milliseconds since the epoch, a
+     * record of the retry topic is due.
+     */
+    static final String RETRY_AT_HEADER = "retry-at";
+
+    static final String REASON_HEADER = "failure-reason";
+    static final String ORIGINAL_TOPIC_HEADER = "original-topic";
+    static final String ORIGINAL_PARTITION_HEADER = "original-partition";
+    static final String ORIGINAL_OFFSET_HEADER = "original-offset";
+
+    /**
+     * The record header holding the id build events are correlated with,
+     * kept by builds going through the retry topic. A build coalesced from
+     * several messages has one per message.
+     */
+    static final String CORRELATION_ID_HEADER = "correlation-id";
+
+    /**
+     * The record header naming the subscription a failed build was read by.
+     */
+    static final String SUBSCRIPTION_HEADER = "subscription";
+
+    private final FailurePublisher publisher;
+    private final String subscriptionName;
+    private final String deadLetterTopic;
+    private final String retryTopic;
+    private final long retryDelayMillis;
+    private final BuildMessageCodec codec;
+    private final ConsumerMetrics metrics;
+
+    FailureRouter(FailurePublisher publisher, String subscriptionName, String deadLetterTopic, String retryTopic,
+                  long retryDelayMillis, BuildMessageCodec codec, ConsumerMetrics metrics) {
+        this.publisher = publisher;
+        this.subscriptionName = subscriptionName;
+        this.deadLetterTopic = deadLetterTopic;
+        this.retryTopic = retryTopic;
+        this.retryDelayMillis = retryDelayMillis;
+        this.codec = codec;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Creates the router of given settings, acquiring the publisher of the
+     * cluster until {@link #release()}.
+     *
+     * @return the router, or null if neither a dead-letter nor a retry topic
+     *         is set.
+     */
+    static FailureRouter create(KafkaSubscription subscription, ConsumerSettings settings, BuildMessageCodec codec,
+                                ConsumerMetrics metrics) {
+        if (settings.getDeadLetterTopic() == null && settings.getRetryTopic() == null) {
+            return null;
+        }
+        FailurePublisher publisher = FailurePublisher.acquire(subscription.getBrokers(),
+                settings.getConsumerProperties(), metrics);
+        return new FailureRouter(publisher, subscription.getName(), settings.getDeadLetterTopic(),
+                settings.getRetryTopic(), settings.getRetryDelaySeconds() * 1000L, codec, metrics);
+    }
+
+    /**
+     * Releases the publisher of this router, which is not used any more.
+     */
+    void release() {
+        publisher.release();
+    }
+
+    /**
+     * Publishes given record to the dead-letter topic as it was read.
+     *
+     * @param record
+     *            the record.
+     * @param reason
+     *            the failure.
+     */
+    void deadLetter(ConsumerRecord<byte[], byte[]> record, String reason) {
+        if (deadLetterTopic == null) {
+            return;
+        }
+        Headers headers = new RecordHeaders(record.headers().toArray());
+        headers.add(ORIGINAL_TOPIC_HEADER, bytes(record.topic()));
+        headers.add(ORIGINAL_PARTITION_HEADER, bytes(Integer.toString(record.partition())));
+        headers.add(ORIGINAL_OFFSET_HEADER, bytes(Long.toString(record.offset())));
+        headers.add(REASON_HEADER, bytes(reason));
+        publisher.publish(new ProducerRecord<byte[], byte[]>(deadLetterTopic, null, record.key(), record.value(),
+                headers));
+        metrics.recordDeadLettered();
+    }
+
+    /**
+     * Publishes the build of given trigger the queue did not take to the
+     * retry topic, unless it comes from there, or else to the dead-letter
+     * topic.
+     *
+     * @param trigger
+     *            the trigger.
+     * @param topicName
+     *            the topic the build was read from.
+     * @param parameters
+     *            the alternating parameter names and values, or null.
+     * @param correlationIds
+     *            the correlation ids of the build, each published in a
+     *            header of its own, or null.
+     * @param retryable
+     *            false if the build cannot succeed on a retry.
+     * @param reason
+     *            the failure.
+     */
+    void buildFailed(RemoteBuildTrigger trigger, String topicName, String[] parameters, String[] correlationIds,
+                     boolean retryable, String reason) {
+        boolean retry = retryable && retryTopic != null && !retryTopic.equals(topicName);
+        String topic = retry ? retryTopic : deadLetterTopic;
+        if (topic == null) {
+            return;
+        }
+        String project = trigger.getProjectFullName();
+        byte[] value;
+        try {
+            value = codec.encode(new BuildMessage(project, trigger.getRemoteBuildToken(), parameters));
+        } catch (RuntimeException e) {
+            LOGGER.warn("Cannot encode failed build of project {}", project, e);
+            return;
+        }
+        Headers headers = new RecordHeaders();
+        headers.add(ConsumerThread.PROJECT_HEADER, bytes(project));
+        headers.add(ORIGINAL_TOPIC_HEADER, bytes(topicName));
+        headers.add(SUBSCRIPTION_HEADER, bytes(subscriptionName));
+        headers.add(REASON_HEADER, bytes(reason));
+        if (correlationIds != null) {
+            for (String correlationId : correlationIds) {
+                headers.add(CORRELATION_ID_HEADER, bytes(correlationId));
+            }
+        }
+        if (retry) {
+            headers.add(RETRY_AT_HEADER, bytes(Long.toString(System.currentTimeMillis() + retryDelayMillis)));
+        }
+        publisher.publish(new ProducerRecord<byte[], byte[]>(topic, null, bytes(project), value, headers));
+        if (retry) {
+            metrics.recordRetried();
+        } else {
+            metrics.recordDeadLettered();
+        }
+    }
+
+    String getRetryTopic() {
+        return retryTopic;
+    }
+
+    /**
+     * Gets the time given record of the retry topic is due.
+     *
+     * @param record
+     *            the record.
+     * @return the time in milliseconds since the epoch, 0 if it is due now.
+     */
+    static long getRetryAt(ConsumerRecord<byte[], byte[]> record) {
+        Header header = record.headers().lastHeader(RETRY_AT_HEADER);
+        if (header == null || header.value() == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(new String(header.value(), StandardCharsets.UTF_8));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Gets whether given record of the retry topic is retried by the
+     * subscription of given name.
+     *
+     * @param record
+     *            the record.
+     * @param subscriptionName
+     *            the name of the subscription.
+     * @return true if the record names the subscription, or names none as it
+     *         was published before records were scoped.
+     */
+    static boolean isRetriedBy(ConsumerRecord<byte[], byte[]> record, String subscriptionName) {
+        Header header = record.headers().lastHeader(SUBSCRIPTION_HEADER);
+        if (header == null || header.value() == null) {
+            return true;
+        }
+        return new String(header.value(), StandardCharsets.UTF_8).equals(subscriptionName);
+    }
+
+    private static byte[] bytes(String value) {
+        return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+    }
+}
@@ -1,14 +1,26 @@
 package io.jenkins.plugins.kafkabuildtrigger;
 
 import hudson.Extension;
+import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
 import jenkins.model.GlobalConfiguration;
 import net.sf.json.JSONObject;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
 @Extension
 public class GlobalKafkaBuildTriggerConfig extends GlobalConfiguration {
 
@@ -17,8 +29,42 @@ public class GlobalKafkaBuildTriggerConfig extends GlobalConfiguration {
      * The string in global configuration that indicates content is empty.
      */
     public static final String CONTENT_NONE = "-";
+    /**
+     * The default number of consumers run in the consumer group.
+     */
+    public static final int DEFAULT_CONSUMER_CONCURRENCY = 1;
+    /**
+     * The default interval between offset commits with at-least-once delivery.
+     */
+    public static final long DEFAULT_COMMIT_INTERVAL_MILLIS = 5000;
+    /**
+     * The default number of completed records that triggers an offset commit.
+     */
+    public static final int DEFAULT_COMMIT_BATCH_RECORDS = 500;
+    /**
+     * The default number of builds a consumer may have in dispatch before it
+     * pauses.
+     */
+    public static final int DEFAULT_DISPATCH_CAPACITY = 1000;
+
+    /**
+     * The default time builds wait in the retry topic.
+     */
+    public static final int DEFAULT_RETRY_DELAY_SECONDS = 60;
+
+    /**
+     * The default number of builds a rate limit allows at once.
+     */
+    public static final int DEFAULT_RATE_LIMIT_BURST = 10;
+
+    /**
+     * Consumer properties set by the plugin itself, which cannot be overridden.
+     */
+    static final List<String> MANAGED_CONSUMER_PROPERTIES = Collections.unmodifiableList(Arrays.asList(
+            ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, ConsumerConfig.GROUP_ID_CONFIG,
+            ConsumerConfig.GROUP_INSTANCE_ID_CONFIG, ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG,
+            ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG));
 
-    @SuppressWarnings("unused")
     private static final Logger LOGGER = LoggerFactory.getLogger(GlobalKafkaBuildTriggerConfig.class);
 
     private boolean enableConsumer;
@@ -27,6 +73,51 @@ public class GlobalKafkaBuildTriggerConfig extends GlobalConfiguration {
 
     private String groupId;
 
+    private List<KafkaSubscription> subscriptions = new ArrayList<KafkaSubscription>();
+
+    private int consumerConcurrency = DEFAULT_CONSUMER_CONCURRENCY;
+
+    private long coalesceWindowMillis;
+    private CoalesceMode coalesceMode = CoalesceMode.EQUAL_PARAMETERS;
+
+    private boolean atLeastOnce;
+    private long commitIntervalMillis = DEFAULT_COMMIT_INTERVAL_MILLIS;
+    private int commitBatchRecords = DEFAULT_COMMIT_BATCH_RECORDS;
+
+    private int queueHighWatermark;
+    private int queueLowWatermark;
+
+    private boolean cooperativeRebalancing;
+    private boolean staticMembership;
+
+    private int dispatchCapacity = DEFAULT_DISPATCH_CAPACITY;
+
+    private String codec = JsonBuildMessageCodec.ID;
+
+    private int dedupeTtlMinutes;
+
+    private String deadLetterTopic;
+
+    private String retryTopic;
+
+    private int retryDelaySeconds = DEFAULT_RETRY_DELAY_SECONDS;
+
+    private String eventTopic;
+
+    private int rateLimitPerMinute;
+
+    private int rateLimitBurst = DEFAULT_RATE_LIMIT_BURST;
+
+    private RateLimitPolicy rateLimitPolicy;
+
+    private boolean routeByKey;
+
+    private boolean regexProjects;
+
+    private int maxPollRecords;
+    private int fetchMinBytes;
+    private int fetchMaxWaitMillis;
+    private String consumerProperties;
 
     @DataBoundConstructor
     public GlobalKafkaBuildTriggerConfig(boolean enableConsumer, String brokers,
@@ -51,6 +142,8 @@ public class GlobalKafkaBuildTriggerConfig extends GlobalConfiguration {
 
     @Override
     public boolean configure(StaplerRequest req, JSONObject json) throws FormException {
+        // An empty repeatable list is not submitted at all.
+        subscriptions = new ArrayList<KafkaSubscription>();
         req.bindJSON(this, json);
         save();
         return true;
@@ -98,6 +191,451 @@ public class GlobalKafkaBuildTriggerConfig extends GlobalConfiguration {
         this.groupId = groupId;
     }
 
+    /**
+     * Gets the named subscriptions in addition to the global topic.
+     *
+     * @return the subscriptions.
+     */
+    public List<KafkaSubscription> getSubscriptions() {
+        return subscriptions != null ? Collections.unmodifiableList(subscriptions)
+                : Collections.<KafkaSubscription>emptyList();
+    }
+
+    public void setSubscriptions(List<KafkaSubscription> subscriptions) {
+        this.subscriptions = subscriptions != null ? new ArrayList<KafkaSubscription>(subscriptions)
+                : new ArrayList<KafkaSubscription>();
+    }
+
+    /**
+     * Gets the subscriptions to consume: the global topic as the
+     * {@link KafkaSubscription#DEFAULT_NAME default} subscription followed by
+     * the named ones, with the global brokers and group id filled in where a
+     * subscription has none. Incomplete subscriptions are left out.
+     *
+     * @return the subscriptions to consume.
+     */
+    public List<KafkaSubscription> getEffectiveSubscriptions() {
+        List<KafkaSubscription> result = new ArrayList<KafkaSubscription>();
+        KafkaSubscription global = new KafkaSubscription(KafkaSubscription.DEFAULT_NAME, brokers, topic, null, groupId);
+        if (global.isValid()) {
+            result.add(global);
+        }
+        for (KafkaSubscription subscription : getSubscriptions()) {
+            KafkaSubscription resolved = subscription.resolve(brokers, null);
+            if (resolved.isValid() && !KafkaSubscription.DEFAULT_NAME.equals(resolved.getName())) {
+                result.add(resolved);
+            } else {
+                LOGGER.warn("Ignoring incomplete subscription {}", subscription);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets the number of consumers run in the consumer group. Each consumer owns
+     * its own share of the topic partitions.
+     *
+     * @return the number of consumers, at least 1.
+     */
+    public int getConsumerConcurrency() {
+        return consumerConcurrency > 0 ? consumerConcurrency : DEFAULT_CONSUMER_CONCURRENCY;
+    }
+
+    public void setConsumerConcurrency(int consumerConcurrency) {
+        this.consumerConcurrency = consumerConcurrency;
+    }
+
+    /**
+     * Gets the window in which trigger messages for the same job are coalesced
+     * into one build.
+     *
+     * @return the window in milliseconds, 0 if coalescing is disabled.
+     */
+    public long getCoalesceWindowMillis() {
+        return Math.max(0, coalesceWindowMillis);
+    }
+
+    public void setCoalesceWindowMillis(long coalesceWindowMillis) {
+        this.coalesceWindowMillis = coalesceWindowMillis;
+    }
+
+    public CoalesceMode getCoalesceMode() {
+        return coalesceMode != null ? coalesceMode : CoalesceMode.EQUAL_PARAMETERS;
+    }
+
+    public void setCoalesceMode(CoalesceMode coalesceMode) {
+        this.coalesceMode = coalesceMode;
+    }
+
+    /**
+     * Gets whether offsets are committed only after the triggered builds have
+     * been accepted by the queue, instead of being auto-committed.
+     *
+     * @return true for at-least-once delivery.
+     */
+    public boolean isAtLeastOnce() {
+        return atLeastOnce;
+    }
+
+    public void setAtLeastOnce(boolean atLeastOnce) {
+        this.atLeastOnce = atLeastOnce;
+    }
+
+    public long getCommitIntervalMillis() {
+        return commitIntervalMillis > 0 ? commitIntervalMillis : DEFAULT_COMMIT_INTERVAL_MILLIS;
+    }
+
+    public void setCommitIntervalMillis(long commitIntervalMillis) {
+        this.commitIntervalMillis = commitIntervalMillis;
+    }
+
+    public int getCommitBatchRecords() {
+        return commitBatchRecords > 0 ? commitBatchRecords : DEFAULT_COMMIT_BATCH_RECORDS;
+    }
+
+    public void setCommitBatchRecords(int commitBatchRecords) {
+        this.commitBatchRecords = commitBatchRecords;
+    }
+
+    /**
+     * Gets the Jenkins queue length at which the consumers pause their
+     * partitions, leaving further messages in Kafka.
+     *
+     * @return the high-water mark, 0 if backpressure is disabled.
+     */
+    public int getQueueHighWatermark() {
+        return Math.max(0, queueHighWatermark);
+    }
+
+    public void setQueueHighWatermark(int queueHighWatermark) {
+        this.queueHighWatermark = queueHighWatermark;
+    }
+
+    /**
+     * Gets the Jenkins queue length below which paused consumers resume.
+     *
+     * @return the low-water mark, half of the high-water mark unless set lower.
+     */
+    public int getQueueLowWatermark() {
+        int high = getQueueHighWatermark();
+        if (queueLowWatermark > 0 && queueLowWatermark < high) {
+            return queueLowWatermark;
+        }
+        return high / 2;
+    }
+
+    public void setQueueLowWatermark(int queueLowWatermark) {
+        this.queueLowWatermark = queueLowWatermark;
+    }
+
+    /**
+     * Gets whether consumers use the cooperative sticky assignor instead of
+     * the eager default one.
+     *
+     * @return true for cooperative rebalancing.
+     */
+    public boolean isCooperativeRebalancing() {
+        return cooperativeRebalancing;
+    }
+
+    public void setCooperativeRebalancing(boolean cooperativeRebalancing) {
+        this.cooperativeRebalancing = cooperativeRebalancing;
+    }
+
+    /**
+     * Gets whether consumers join their group with a static instance id.
+     *
+     * @return true for static membership.
+     */
+    public boolean isStaticMembership() {
+        return staticMembership;
+    }
+
+    public void setStaticMembership(boolean staticMembership) {
+        this.staticMembership = staticMembership;
+    }
+
+    /**
+     * Gets the number of builds a consumer may have handed to the dispatcher
+     * and not yet scheduled before it pauses its partitions.
+     *
+     * @return the capacity, at least 1.
+     */
+    public int getDispatchCapacity() {
+        return dispatchCapacity > 0 ? dispatchCapacity : DEFAULT_DISPATCH_CAPACITY;
+    }
+
+    public void setDispatchCapacity(int dispatchCapacity) {
+        this.dispatchCapacity = dispatchCapacity;
+    }
+
+    /**
+     * Gets the identifier of the {@link BuildMessageCodec} record values are
+     * decoded with.
+     *
+     * @return the identifier.
+     */
+    public String getCodec() {
+        return StringUtils.isNotEmpty(codec) ? codec : JsonBuildMessageCodec.ID;
+    }
+
+    public void setCodec(String codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * Gets how long the identities of handled records are kept, so records
+     * delivered again do not trigger builds twice.
+     *
+     * @return the time in minutes, 0 if duplicates are not suppressed.
+     */
+    public int getDedupeTtlMinutes() {
+        return Math.max(0, dedupeTtlMinutes);
+    }
+
+    public void setDedupeTtlMinutes(int dedupeTtlMinutes) {
+        this.dedupeTtlMinutes = dedupeTtlMinutes;
+    }
+
+    /**
+     * Gets the topic records that cannot be handled, and builds that cannot
+     * be scheduled, are published to.
+     *
+     * @return the topic, or null if failures are only logged.
+     */
+    public String getDeadLetterTopic() {
+        return deadLetterTopic;
+    }
+
+    public void setDeadLetterTopic(String deadLetterTopic) {
+        this.deadLetterTopic = StringUtils.trimToNull(deadLetterTopic);
+    }
+
+    /**
+     * Gets the topic builds the queue did not take are published to, to be
+     * consumed again once the retry delay has passed.
+     *
+     * @return the topic, or null if such builds are dead-lettered.
+     */
+    public String getRetryTopic() {
+        return retryTopic;
+    }
+
+    public void setRetryTopic(String retryTopic) {
+        this.retryTopic = StringUtils.trimToNull(retryTopic);
+    }
+
+    /**
+     * Gets how long builds wait in the retry topic.
+     *
+     * @return the delay in seconds.
+     */
+    public int getRetryDelaySeconds() {
+        return retryDelaySeconds > 0 ? retryDelaySeconds : DEFAULT_RETRY_DELAY_SECONDS;
+    }
+
+    public void setRetryDelaySeconds(int retryDelaySeconds) {
+        this.retryDelaySeconds = retryDelaySeconds;
+    }
+
+    /**
+     * Gets the topic the queued, started and completed events of remotely
+     * triggered builds are published to.
+     *
+     * @return the topic, or null if no events are published.
+     */
+    public String getEventTopic() {
+        return eventTopic;
+    }
+
+    public void setEventTopic(String eventTopic) {
+        this.eventTopic = StringUtils.trimToNull(eventTopic);
+    }
+
+    /**
+     * Gets the brokers of the cluster the event topic is on: the global
+     * brokers, or those of the first subscription with brokers if no global
+     * brokers are set.
+     *
+     * @return the brokers, or null if none are set.
+     */
+    public String getEventBrokers() {
+        if (brokers != null) {
+            return brokers;
+        }
+        for (KafkaSubscription subscription : getSubscriptions()) {
+            if (subscription.getBrokers() != null) {
+                return subscription.getBrokers();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets how many builds all jobs together may be triggered with per
+     * minute. Jobs may limit their own builds further.
+     *
+     * @return the number of builds, 0 for no limit.
+     */
+    public int getRateLimitPerMinute() {
+        return Math.max(0, rateLimitPerMinute);
+    }
+
+    public void setRateLimitPerMinute(int rateLimitPerMinute) {
+        this.rateLimitPerMinute = rateLimitPerMinute;
+    }
+
+    /**
+     * Gets how many builds the global and the job rate limits allow at once.
+     *
+     * @return the number of builds, at least 1.
+     */
+    public int getRateLimitBurst() {
+        return rateLimitBurst > 0 ? rateLimitBurst : DEFAULT_RATE_LIMIT_BURST;
+    }
+
+    public void setRateLimitBurst(int rateLimitBurst) {
+        this.rateLimitBurst = rateLimitBurst;
+    }
+
+    public RateLimitPolicy getRateLimitPolicy() {
+        return rateLimitPolicy != null ? rateLimitPolicy : RateLimitPolicy.DEFER;
+    }
+
+    public void setRateLimitPolicy(RateLimitPolicy rateLimitPolicy) {
+        this.rateLimitPolicy = rateLimitPolicy;
+    }
+
+    public ListBoxModel doFillCodecItems() {
+        ListBoxModel items = new ListBoxModel();
+        for (BuildMessageCodec c : BuildMessageCodec.all()) {
+            items.add(c.getDisplayName(), c.getId());
+        }
+        return items;
+    }
+
+    /**
+     * Gets whether records without project header are routed by their key. The
+     * key then has to be the project name, and records for projects without
+     * trigger are skipped without parsing their value.
+     *
+     * @return true to route by key.
+     */
+    public boolean isRouteByKey() {
+        return routeByKey;
+    }
+
+    public void setRouteByKey(boolean routeByKey) {
+        this.routeByKey = routeByKey;
+    }
+
+    /**
+     * Gets whether messages may address jobs by a regular expression over
+     * their full names. Globs are always allowed.
+     *
+     * @return true to allow regular expressions.
+     */
+    public boolean isRegexProjects() {
+        return regexProjects;
+    }
+
+    public void setRegexProjects(boolean regexProjects) {
+        this.regexProjects = regexProjects;
+    }
+
+    /**
+     * Gets the maximum number of records returned by one poll.
+     *
+     * @return the number of records, 0 for the Kafka default.
+     */
+    public int getMaxPollRecords() {
+        return Math.max(0, maxPollRecords);
+    }
+
+    public void setMaxPollRecords(int maxPollRecords) {
+        this.maxPollRecords = maxPollRecords;
+    }
+
+    /**
+     * Gets the amount of data the broker waits for before answering a fetch.
+     *
+     * @return the number of bytes, 0 for the Kafka default.
+     */
+    public int getFetchMinBytes() {
+        return Math.max(0, fetchMinBytes);
+    }
+
+    public void setFetchMinBytes(int fetchMinBytes) {
+        this.fetchMinBytes = fetchMinBytes;
+    }
+
+    /**
+     * Gets the time the broker waits for {@link #getFetchMinBytes()} before
+     * answering a fetch.
+     *
+     * @return the time in milliseconds, 0 for the Kafka default.
+     */
+    public int getFetchMaxWaitMillis() {
+        return Math.max(0, fetchMaxWaitMillis);
+    }
+
+    public void setFetchMaxWaitMillis(int fetchMaxWaitMillis) {
+        this.fetchMaxWaitMillis = fetchMaxWaitMillis;
+    }
+
+    /**
+     * Gets further consumer configuration in properties format, e.g. security
+     * settings. Properties set by the plugin itself are ignored.
+     *
+     * @return the properties, or null.
+     */
+    public String getConsumerProperties() {
+        return consumerProperties;
+    }
+
+    public void setConsumerProperties(String consumerProperties) {
+        this.consumerProperties = StringUtils.trimToNull(consumerProperties);
+    }
+
+    /**
+     * Parses consumer properties.
+     *
+     * @param text
+     *            the properties format, may be null.
+     * @return the properties.
+     * @throws IllegalArgumentException
+     *             throw if the text contains a malformed escape.
+     */
+    static Properties parseConsumerProperties(String text) {
+        Properties properties = new Properties();
+        if (text != null) {
+            try {
+                properties.load(new StringReader(text));
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+        return properties;
+    }
+
+    public FormValidation doCheckConsumerProperties(@QueryParameter String value) {
+        Properties properties;
+        try {
+            properties = parseConsumerProperties(value);
+        } catch (IllegalArgumentException e) {
+            return FormValidation.error(e.getMessage());
+        }
+        for (String name : properties.stringPropertyNames()) {
+            if (MANAGED_CONSUMER_PROPERTIES.contains(name)) {
+                return FormValidation.warning("'" + name + "' is set by the plugin and will be ignored");
+            }
+            if (!ConsumerConfig.configNames().contains(name)) {
+                return FormValidation.warning("'" + name + "' is not a known consumer property");
+            }
+        }
+        return FormValidation.ok();
+    }
+
 
     /**
      * Gets this extension's instance.
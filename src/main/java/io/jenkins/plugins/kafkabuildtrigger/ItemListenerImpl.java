@@ -20,6 +20,8 @@ public class ItemListenerImpl extends ItemListener {
     @Override
     public final void onLoaded() {
         LOGGER.info("Start bootup process.");
+        // Triggers have been started with their jobs by now.
+        TriggerManager.getInstance().setReady();
         kafkaManager.update();
         super.onLoaded();
     }
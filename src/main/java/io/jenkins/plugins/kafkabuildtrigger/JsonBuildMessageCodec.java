@@ -0,0 +1,65 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import hudson.Extension;
+import org.apache.kafka.common.errors.SerializationException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * JSON messages of the form
+ * <code>{"project": "...", "token": "...", "parameter": [{"name": "...", "value": "..."}]}</code>.
+ */
+@Extension(ordinal = 100)
+public class JsonBuildMessageCodec extends BuildMessageCodec {
+
+    /**
+     * The identifier, also the default codec.
+     */
+    public static final String ID = "json";
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private final BuildMessageDeserializer deserializer = new BuildMessageDeserializer();
+
+    @Override
+    public String getId() {
+        return ID;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "JSON";
+    }
+
+    @Override
+    public BuildMessage decode(String topic, byte[] data) {
+        return deserializer.deserialize(topic, data);
+    }
+
+    @Override
+    public byte[] encode(BuildMessage message) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+        try (JsonGenerator json = FACTORY.createGenerator(out)) {
+            json.writeStartObject();
+            json.writeStringField("project", message.getProject());
+            json.writeStringField("token", message.getToken());
+            if (message.hasParameters()) {
+                json.writeArrayFieldStart("parameter");
+                for (int i = 0; i < message.getParameterCount(); i++) {
+                    json.writeStartObject();
+                    json.writeStringField("name", message.getParameterName(i));
+                    json.writeStringField("value", message.getParameterValue(i));
+                    json.writeEndObject();
+                }
+                json.writeEndArray();
+            }
+            json.writeEndObject();
+        } catch (IOException e) {
+            throw new SerializationException("Cannot encode build message", e);
+        }
+        return out.toByteArray();
+    }
+}
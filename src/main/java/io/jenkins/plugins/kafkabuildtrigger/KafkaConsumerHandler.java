@@ -1,181 +1,254 @@
 package io.jenkins.plugins.kafkabuildtrigger;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import io.confluent.kafka.serializers.KafkaJsonDeserializer;
-import net.sf.json.JSONArray;
-import org.apache.kafka.clients.consumer.ConsumerConfig;
-import org.apache.kafka.clients.consumer.ConsumerRecord;
-import org.apache.kafka.clients.consumer.ConsumerRecords;
-import org.apache.kafka.clients.consumer.KafkaConsumer;
-import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.TopicPartition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.util.*;
 
-class BuildMessage {
-    private String project;
-    private String token;
-    private JSONArray parameter;
-
-    public String getToken() {
-        return token;
+/**
+ * Consumers of one {@link KafkaSubscription}.
+ */
+public class KafkaConsumerHandler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(KafkaConsumerHandler.class);
+    private volatile KafkaSubscription subscription;
+    private final String groupId;
+    private volatile ConsumerSettings settings;
+    private final ConsumerFactory consumerFactory;
+    private final List<ConsumerThread> consumerThreads = new ArrayList<ConsumerThread>();
+
+    public KafkaSubscription getSubscription() {
+        return subscription;
     }
 
-    public void setToken(String token) {
-        this.token = token;
+    public String getBrokers(){
+        return subscription.getBrokers();
     }
 
-    public String getProject() {
-        return project;
+    public String getTopicName() {
+        return subscription.getTopic();
     }
 
-    public void setProject(String project) {
-        this.project = project;
+    ConsumerSettings getSettings() {
+        return settings;
     }
 
-    public JSONArray getParameter() {
-        return parameter;
+    KafkaConsumerHandler(KafkaSubscription subscription, ConsumerSettings settings) {
+        this(subscription, settings, ConsumerFactory.DEFAULT);
     }
 
-    public void setParameter(JSONArray parameter) {
-        this.parameter = parameter;
+    KafkaConsumerHandler(KafkaSubscription subscription, ConsumerSettings settings, ConsumerFactory consumerFactory) {
+        this.subscription = subscription;
+        this.settings = settings;
+        this.consumerFactory = consumerFactory;
+        String groupId = subscription.getGroupId();
+        if (groupId == null || groupId.isEmpty()) {
+            String base = subscription.getTopic() != null ? subscription.getTopic() : subscription.getName();
+            // Committed offsets are only useful to a group that survives restarts.
+            groupId = settings.isAtLeastOnce()
+                    ? base+"_jenkins_consumer"
+                    : base+"_jenkins_consumer_"+System.currentTimeMillis();
+        }
+        this.groupId = groupId;
     }
-}
 
-public class KafkaConsumerHandler {
-    private static final Logger LOGGER = LoggerFactory.getLogger(KafkaConsumerHandler.class);
-    private String brokers;
-    private String topicName;
-    private String groupId;
-    private ConsumerThread consumerThread;
+    public String getGroupId() {
+        return groupId;
+    }
 
-    public String getBrokers(){
-        return brokers;
+    public synchronized boolean isConsumerThreadEnabled(){
+        for (ConsumerThread consumerThread : consumerThreads) {
+            if (consumerThread.isAlive()) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    public String getTopicName() {
-        return topicName;
+    /**
+     * Gets the number of consumers started.
+     *
+     * @return the number of consumers.
+     */
+    public synchronized int getConsumerCount() {
+        return consumerThreads.size();
     }
 
-    public KafkaConsumerHandler(String brokers, String topicName, String groupId) {
-        this.brokers = brokers;
-        this.topicName = topicName;
-        this.groupId = groupId;
-        if (groupId == null || groupId.isEmpty()) {
-            this.groupId = topicName+"_jenkins_consumer_"+System.currentTimeMillis();
+    /**
+     * Gets the number of consumers that have stopped by themselves, after an
+     * error polling again cannot fix.
+     *
+     * @return the number of stopped consumers.
+     */
+    public synchronized int getDeadConsumerCount() {
+        int count = 0;
+        for (ConsumerThread consumerThread : consumerThreads) {
+            if (!consumerThread.isAlive()) {
+                count++;
+            }
         }
+        return count;
+    }
+
+    /**
+     * Gets whether all consumers are running.
+     *
+     * @return false if a consumer has stopped by itself, so the connection
+     *         has to be recreated.
+     */
+    public synchronized boolean isHealthy() {
+        return !consumerThreads.isEmpty() && getDeadConsumerCount() == 0;
     }
 
-    public boolean isConsumerThreadEnabled(){
-        if (consumerThread != null && consumerThread.isAlive()) {
-            return true;
+    /**
+     * Gets the error that stopped a consumer.
+     *
+     * @return the first error, or null if no consumer stopped by itself.
+     */
+    public synchronized Throwable getFailure() {
+        for (ConsumerThread consumerThread : consumerThreads) {
+            Throwable failure = consumerThread.getFailure();
+            if (failure != null) {
+                return failure;
+            }
         }
-        return false;
+        return null;
     }
 
-    public void enableConsumerThread() {
+    /**
+     * Starts the consumers. All of them join the same consumer group, so the
+     * topic partitions are spread over them.
+     */
+    public synchronized void enableConsumerThread() {
         if (!isConsumerThreadEnabled()) {
-            LOGGER.info("Enabling consumer, broker: {}, groupId: {}", brokers, groupId);
-            consumerThread = new ConsumerThread(brokers, topicName, groupId);
-            consumerThread.start();
+            LOGGER.info("Enabling {} consumer(s) of subscription {}, broker: {}, groupId: {}", settings.getConcurrency(),
+                    subscription.getName(), subscription.getBrokers(), groupId);
+            consumerThreads.clear();
+            try {
+                for (int i = 0; i < settings.getConcurrency(); i++) {
+                    String groupInstanceId = settings.isStaticMembership()
+                            ? groupId + "-" + getHostName() + "-" + i
+                            : null;
+                    ConsumerThread consumerThread = new ConsumerThread(subscription, groupId, groupInstanceId, settings,
+                            consumerFactory);
+                    consumerThread.setName("Kafka build trigger consumer " + groupId + " #" + i);
+                    consumerThread.setDaemon(true);
+                    consumerThreads.add(consumerThread);
+                }
+            } catch (RuntimeException e) {
+                closeConsumers();
+                throw e;
+            }
+            for (ConsumerThread consumerThread : consumerThreads) {
+                consumerThread.start();
+            }
         }
 
     }
 
-    public void disableConsumerThread() {
+    /**
+     * Stops the consumers and waits for all of them to leave the group.
+     */
+    public synchronized void disableConsumerThread() {
         if (isConsumerThreadEnabled()) {
-            consumerThread.getKafkaConsumer().close();
             LOGGER.info("Stopping consumer .....");
-            try {
-                consumerThread.join();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+            for (ConsumerThread consumerThread : consumerThreads) {
+                consumerThread.shutdown();
+            }
+            for (ConsumerThread consumerThread : consumerThreads) {
+                try {
+                    consumerThread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    LOGGER.warn("Interrupted when waiting for consumer {} to stop.", consumerThread.getName());
+                }
             }
         }
-        consumerThread = null;
+        consumerThreads.clear();
     }
 
-    public void updateConf(String brokers, String topicName, String groupId) {
-        this.brokers = brokers;
-        this.topicName = topicName;
-        if (groupId != null && ! groupId.isEmpty()) {
-            this.groupId = groupId;
-        }
+    /**
+     * Gets whether the running consumers can take given subscription and
+     * settings without being recreated. That is the case when brokers and
+     * group stay the same and the settings do not change the consumer
+     * configuration; a new topic or pattern is subscribed in place.
+     *
+     * @param newSubscription
+     *            the new subscription of the same name.
+     * @param newSettings
+     *            the new settings.
+     * @return true if {@link #reconfigure(KafkaSubscription, ConsumerSettings)}
+     *         can be used.
+     */
+    synchronized boolean canReconfigure(KafkaSubscription newSubscription, ConsumerSettings newSettings) {
+        return Objects.equals(subscription.getBrokers(), newSubscription.getBrokers())
+                && Objects.equals(subscription.getGroupId(), newSubscription.getGroupId())
+                && !settings.requiresRestart(newSettings);
     }
 
-
-    private static class ConsumerThread extends Thread{
-
-        private String broker;
-        private String topicName;
-        private String groupId;
-        private KafkaConsumer<String,LinkedHashMap> kafkaConsumer;
-
-        public ConsumerThread(String broker, String topicName, String groupId){
-            this.broker = broker;
-            this.topicName = topicName;
-            this.groupId = groupId;
+    /**
+     * Hands new subscription and settings to the running consumers, which apply
+     * them between two polls.
+     *
+     * @param newSubscription
+     *            the new subscription.
+     * @param newSettings
+     *            the new settings.
+     */
+    synchronized void reconfigure(KafkaSubscription newSubscription, ConsumerSettings newSettings) {
+        LOGGER.info("Reconfiguring consumers of subscription {}: {} {}", newSubscription.getName(),
+                newSubscription, newSettings);
+        this.subscription = newSubscription;
+        this.settings = newSettings;
+        for (ConsumerThread consumerThread : consumerThreads) {
+            consumerThread.reconfigure(newSubscription, newSettings);
         }
+    }
 
-        public void run() throws WakeupException {
-
-            Properties configProperties = new Properties();
-            configProperties.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, broker);
-            configProperties.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, KafkaJsonDeserializer.class);
-            configProperties.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, KafkaJsonDeserializer.class);
-            configProperties.put(ConsumerConfig.GROUP_ID_CONFIG, groupId);
-            configProperties.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "latest");
-
-            //Figure out where to start processing messages from
-            kafkaConsumer = new KafkaConsumer<String, LinkedHashMap>(configProperties);
-            kafkaConsumer.subscribe(Arrays.asList(topicName));
-
-            ObjectMapper mapper = new ObjectMapper();
-            //Start processing messages
-            try {
-                while (true) {
-                    ConsumerRecords<String, LinkedHashMap> records = kafkaConsumer.poll(100);
-                    for (ConsumerRecord<String, LinkedHashMap> record : records) {
-                        BuildMessage buildMsg = mapper.convertValue(record.value(), BuildMessage.class);
-                        handleBuildMessage(buildMsg);
-                    }
-                }
-            } finally{
-                kafkaConsumer.close();
-                LOGGER.info("After closing KafkaConsumer");
-            }
+    private static String getHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            LOGGER.warn("Cannot resolve host name for static group membership", e);
+            return "jenkins";
         }
+    }
 
-        /**
-         * Finds matched projects using given project name and token then schedule
-         * build.
-         */
-        public void handleBuildMessage(BuildMessage buildMsg) {
-
-            for (RemoteBuildTrigger t : TriggerManager.getInstance().getTriggers()) {
-
-                if (t.getRemoteBuildToken() == null) {
-                    LOGGER.warn("Ignoring kafka trigger for project {}: no token set", t.getProjectName());
-                    continue;
-                }
-
-                if (t.getProjectName().equals(buildMsg.getProject())
-                        && t.getRemoteBuildToken().equals(buildMsg.getToken())) {
-
-                    t.scheduleBuild(this.topicName, buildMsg.getParameter());
-                }
-            }
-
+    private void closeConsumers() {
+        for (ConsumerThread consumerThread : consumerThreads) {
+            consumerThread.discard();
         }
+        consumerThreads.clear();
+    }
 
-        public KafkaConsumer<String, LinkedHashMap> getKafkaConsumer(){
-            return this.kafkaConsumer;
+    /**
+     * Gets the number of messages absorbed by coalescing since the consumers
+     * have been started.
+     *
+     * @return the number of messages.
+     */
+    public synchronized long getCoalescedCount() {
+        long count = 0;
+        for (ConsumerThread consumerThread : consumerThreads) {
+            count += consumerThread.getCoalescedCount();
         }
-
+        return count;
     }
 
-
+    /**
+     * Gets the number of records the consumers are behind, per assigned
+     * partition.
+     *
+     * @return the lag per partition.
+     */
+    public synchronized Map<TopicPartition, Long> getRecordsLag() {
+        Map<TopicPartition, Long> lags = new HashMap<TopicPartition, Long>();
+        for (ConsumerThread consumerThread : consumerThreads) {
+            consumerThread.collectRecordsLag(lags);
+        }
+        return lags;
+    }
 
 }
-
@@ -3,8 +3,12 @@ package io.jenkins.plugins.kafkabuildtrigger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 public final class KafkaManager {
 
@@ -17,12 +21,13 @@ public final class KafkaManager {
         private static final KafkaManager INSTANCE = new KafkaManager();
     }
 
-    private static final long TIMEOUT_CLOSE = 300000;
     private static final Logger LOGGER = LoggerFactory.getLogger(KafkaManager.class);
 
-    private KafkaConsumerHandler kafkaConnection;
+    /**
+     * Running connection per subscription name.
+     */
+    private final Map<String, KafkaConsumerHandler> kafkaConnections = new LinkedHashMap<String, KafkaConsumerHandler>();
     private volatile boolean statusOpen = false;
-    private CountDownLatch closeLatch = null;
 
     /**
      * Gets instance.
@@ -34,88 +39,100 @@ public final class KafkaManager {
     }
 
     /**
-     * Updates underlying kafka connection.
+     * Updates underlying kafka connections.
+     *
+     * <p>Connections of removed subscriptions are closed. A changed topic or
+     * pattern, and settings that leave the consumer configuration alone, are
+     * applied to the running consumers. For any other change the old
+     * consumers commit and leave their group before the new ones are
+     * opened.</p>
+     *
+     * <p>Connections with a consumer that stopped by itself are recreated,
+     * even when their subscription and settings have not changed.</p>
+     *
+     * <p>No connection is opened before the jobs have been loaded and their
+     * triggers indexed, so no message is consumed without its trigger.</p>
      */
-    public void update() {
+    public synchronized void update() {
+        if (!TriggerManager.getInstance().isReady()) {
+            LOGGER.info("Jobs are not loaded yet, connections are opened once they are.");
+            return;
+        }
         LOGGER.info("Start to update connections...");
 
         GlobalKafkaBuildTriggerConfig conf = GlobalKafkaBuildTriggerConfig.get();
         LOGGER.info("brokers: {} enableConsumer: {} topicName: {}", conf.getBrokers(),
                 conf.isEnableConsumer(), conf.getTopic());
-        String brokers = conf.getBrokers();
-        String topicName = conf.getTopic();
-        String groupId = conf.getGroupId();
-        boolean enableConsumer = conf.isEnableConsumer();
-
-        try {
-            if (!enableConsumer || brokers == null) {
-                if (kafkaConnection != null) {
-                    shutdownWithWait();
-                    kafkaConnection = null;
-                }
+        ConsumerSettings settings = ConsumerSettings.from(conf);
+        BuildEventPublisher.update(conf);
+        Map<String, KafkaSubscription> subscriptions = new LinkedHashMap<String, KafkaSubscription>();
+        if (conf.isEnableConsumer()) {
+            for (KafkaSubscription subscription : conf.getEffectiveSubscriptions()) {
+                subscriptions.put(subscription.getName(), subscription);
             }
+        }
 
-            if (kafkaConnection != null &&
-                    !brokers.equals(kafkaConnection.getBrokers()) &&
-                    !topicName.equals(kafkaConnection.getTopicName())) {
-                if (kafkaConnection != null) {
-                    shutdownWithWait();
-                    kafkaConnection = null;
+        Iterator<KafkaConsumerHandler> it = kafkaConnections.values().iterator();
+        while (it.hasNext()) {
+            KafkaConsumerHandler kafkaConnection = it.next();
+            KafkaSubscription subscription = subscriptions.get(kafkaConnection.getSubscription().getName());
+            boolean healthy = kafkaConnection.isHealthy();
+            if (subscription != null && healthy
+                    && subscription.equals(kafkaConnection.getSubscription())
+                    && settings.equals(kafkaConnection.getSettings())) {
+                continue;
+            }
+            if (subscription != null && healthy && kafkaConnection.canReconfigure(subscription, settings)) {
+                kafkaConnection.reconfigure(subscription, settings);
+            } else {
+                if (!healthy) {
+                    LOGGER.warn("Recreating connection of subscription {}, a consumer has stopped",
+                            kafkaConnection.getSubscription().getName(), kafkaConnection.getFailure());
                 }
+                LOGGER.info("Closing connection of subscription {}", kafkaConnection.getSubscription().getName());
+                close(kafkaConnection);
+                it.remove();
             }
+        }
 
-            if (enableConsumer) {
-                if (kafkaConnection == null) {
-                    kafkaConnection = new KafkaConsumerHandler(brokers, topicName, groupId);
-                    try {
-                        kafkaConnection.enableConsumerThread();
-                        statusOpen = true;
-                    } catch (Exception e) {
-                        LOGGER.warn("Cannot open connection!", e);
-                        kafkaConnection = null;
-                    }
-                } else {
-                    kafkaConnection.updateConf(brokers, topicName, groupId);
-                    // TODO: reconnect
+        for (KafkaSubscription subscription : subscriptions.values()) {
+            if (!kafkaConnections.containsKey(subscription.getName())) {
+                KafkaConsumerHandler kafkaConnection = new KafkaConsumerHandler(subscription, settings);
+                try {
+                    kafkaConnection.enableConsumerThread();
+                    kafkaConnections.put(subscription.getName(), kafkaConnection);
+                } catch (Exception e) {
+                    LOGGER.warn("Cannot open connection of subscription {}!", subscription.getName(), e);
                 }
             }
-        } catch (InterruptedException e) {
-            LOGGER.warn("Interrupted when waiting to close connection.");
         }
+        statusOpen = !kafkaConnections.isEmpty();
     }
 
     /**
-     * Shutdown connection.
+     * Shutdown connections.
      */
-    public void shutdown() {
-        if (kafkaConnection != null && kafkaConnection.isConsumerThreadEnabled()) {
-            try {
-                statusOpen = false;
-                kafkaConnection.disableConsumerThread();
-            } catch(Exception ex) {
-                onCloseCompleted(kafkaConnection);
-            }
+    public synchronized void shutdown() {
+        statusOpen = false;
+        for (KafkaConsumerHandler kafkaConnection : kafkaConnections.values()) {
+            close(kafkaConnection);
         }
+        kafkaConnections.clear();
+        FailurePublisher.closeAll();
+        BuildEventPublisher.shutdown();
+        DedupeStore.closeInstance();
     }
 
     /**
-     * Shutdown connection then wait to close connection.
+     * Shutdown connections then wait for the consumers to leave their groups.
      *
      * @throws InterruptedException
      *             throw if wait process is interrupted.
      */
-    public synchronized void shutdownWithWait() throws InterruptedException {
-        if (kafkaConnection != null && kafkaConnection.isConsumerThreadEnabled()) {
-            try {
-                closeLatch = new CountDownLatch(1);
-                shutdown();
-                if (!closeLatch.await(TIMEOUT_CLOSE, TimeUnit.MILLISECONDS)) {
-                    onCloseCompleted(kafkaConnection);
-                    throw new InterruptedException("Wait timeout");
-                }
-            } finally {
-                closeLatch = null;
-            }
+    public void shutdownWithWait() throws InterruptedException {
+        shutdown();
+        if (Thread.interrupted()) {
+            throw new InterruptedException("Interrupted when waiting to close connections");
         }
     }
 
@@ -128,23 +145,21 @@ public final class KafkaManager {
         return statusOpen;
     }
 
-
     /**
-     * @param kafkaConnection
-     *            the connection.
+     * Gets the running connections.
+     *
+     * @return the connections.
      */
-    public void onCloseCompleted(KafkaConsumerHandler kafkaConnection) {
-        if (this.kafkaConnection != null && this.kafkaConnection.equals(kafkaConnection)) {
-            this.kafkaConnection = null;
-            LOGGER.info("Closed RabbitMQ connection: {}",kafkaConnection.getBrokers());
+    public synchronized List<KafkaConsumerHandler> getConnections() {
+        return Collections.unmodifiableList(new ArrayList<KafkaConsumerHandler>(kafkaConnections.values()));
+    }
+
+    private static void close(KafkaConsumerHandler kafkaConnection) {
+        try {
             kafkaConnection.disableConsumerThread();
-            kafkaConnection = null;
-            //kafkaConnection.removeRMQConnectionListener(this);
-            //ServerOperator.fireOnCloseCompleted(kafkaConnection);
-            statusOpen = false;
-            if (closeLatch != null) {
-                closeLatch.countDown();
-            }
+            LOGGER.info("Closed Kafka connection: {}", kafkaConnection.getBrokers());
+        } catch (RuntimeException e) {
+            LOGGER.warn("Cannot close Kafka connection: {}", kafkaConnection.getBrokers(), e);
         }
     }
 
@@ -153,4 +168,4 @@ public final class KafkaManager {
      */
     private KafkaManager() {
     }
-}
\ No newline at end of file
+}
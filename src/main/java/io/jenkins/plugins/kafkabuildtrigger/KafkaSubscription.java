@@ -0,0 +1,164 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+import org.apache.commons.lang3.StringUtils;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+import java.util.Objects;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Named Kafka connection the plugin consumes trigger messages from.
+ *
+ * <p>Each subscription is consumed by its own {@link KafkaConsumerHandler}
+ * and only dispatches to the jobs whose {@link RemoteBuildTrigger} names it.
+ * The brokers, topic and group id of the global configuration form the
+ * subscription named {@link #DEFAULT_NAME}, which serves triggers that name
+ * no subscription.</p>
+ */
+public class KafkaSubscription extends AbstractDescribableImpl<KafkaSubscription> {
+
+    /**
+     * The name of the subscription defined by the global brokers and topic.
+     */
+    public static final String DEFAULT_NAME = "default";
+
+    private final String name;
+    private final String brokers;
+    private final String topic;
+    private final String topicPattern;
+    private final String groupId;
+
+    /**
+     * Creates instance with specified parameters.
+     *
+     * @param name
+     *            the name triggers refer to the subscription by.
+     * @param brokers
+     *            the bootstrap brokers, or empty to use the global brokers.
+     * @param topic
+     *            the topic name.
+     * @param topicPattern
+     *            the regular expression of topic names, used instead of the
+     *            topic when set.
+     * @param groupId
+     *            the consumer group id, or empty to derive one.
+     */
+    @DataBoundConstructor
+    public KafkaSubscription(String name, String brokers, String topic, String topicPattern, String groupId) {
+        this.name = StringUtils.strip(name);
+        this.brokers = StringUtils.strip(StringUtils.stripToNull(brokers), "/");
+        this.topic = StringUtils.stripToNull(topic);
+        this.topicPattern = StringUtils.stripToNull(topicPattern);
+        this.groupId = StringUtils.stripToNull(groupId);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getBrokers() {
+        return brokers;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public String getTopicPattern() {
+        return topicPattern;
+    }
+
+    public String getGroupId() {
+        return groupId;
+    }
+
+    /**
+     * Gets whether the subscription can be consumed.
+     *
+     * @return true if brokers and a topic or topic pattern are set.
+     */
+    public boolean isValid() {
+        return StringUtils.isNotEmpty(name) && brokers != null && (topic != null || topicPattern != null);
+    }
+
+    /**
+     * Creates copy of this subscription falling back to given brokers and
+     * group id where this one has none.
+     *
+     * @param defaultBrokers
+     *            the global brokers.
+     * @param defaultGroupId
+     *            the global group id.
+     * @return the resolved subscription.
+     */
+    KafkaSubscription resolve(String defaultBrokers, String defaultGroupId) {
+        return new KafkaSubscription(name, brokers != null ? brokers : defaultBrokers, topic, topicPattern,
+                groupId != null ? groupId : defaultGroupId);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof KafkaSubscription)) {
+            return false;
+        }
+        KafkaSubscription that = (KafkaSubscription) o;
+        return Objects.equals(name, that.name)
+                && Objects.equals(brokers, that.brokers)
+                && Objects.equals(topic, that.topic)
+                && Objects.equals(topicPattern, that.topicPattern)
+                && Objects.equals(groupId, that.groupId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(name, brokers, topic, topicPattern, groupId);
+    }
+
+    @Override
+    public String toString() {
+        return "KafkaSubscription{name=" + name + ", brokers=" + brokers + ", topic=" + topic
+                + ", topicPattern=" + topicPattern + ", groupId=" + groupId + "}";
+    }
+
+    /**
+     * The descriptor for this subscription.
+     */
+    @Extension
+    public static class DescriptorImpl extends Descriptor<KafkaSubscription> {
+
+        @Override
+        public String getDisplayName() {
+            return "Kafka subscription";
+        }
+
+        public FormValidation doCheckName(@QueryParameter String value) {
+            if (StringUtils.isBlank(value)) {
+                return FormValidation.error("Name is required");
+            }
+            if (DEFAULT_NAME.equals(value.trim())) {
+                return FormValidation.error("'" + DEFAULT_NAME + "' is reserved for the global topic");
+            }
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckTopicPattern(@QueryParameter String value) {
+            if (StringUtils.isNotBlank(value)) {
+                try {
+                    Pattern.compile(value.trim());
+                } catch (PatternSyntaxException e) {
+                    return FormValidation.error(e.getDescription());
+                }
+            }
+            return FormValidation.ok();
+        }
+    }
+}
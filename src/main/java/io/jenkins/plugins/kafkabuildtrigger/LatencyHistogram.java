@@ -0,0 +1,106 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations in nanoseconds with one bucket per power of two.
+ *
+ * <p>Recording is lock-free and does not allocate, so it can be used on the
+ * consumer hot path. Percentiles are approximated by the upper bound of the
+ * bucket they fall into, which is within a factor of two of the real
+ * value.</p>
+ */
+final class LatencyHistogram {
+
+    private static final int BUCKETS = 65;
+
+    /**
+     * Bucket {@code i} counts durations in {@code [2^(i-1), 2^i)}, bucket 0
+     * counts zero durations.
+     */
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Records duration.
+     *
+     * @param nanos
+     *            the duration in nanoseconds, negative values are recorded as
+     *            zero.
+     */
+    void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos));
+        count.increment();
+        sum.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    /**
+     * Gets the number of recorded durations.
+     *
+     * @return the number of durations.
+     */
+    long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Gets the mean duration.
+     *
+     * @return the mean in nanoseconds, or 0 if nothing has been recorded.
+     */
+    long getMean() {
+        long n = count.sum();
+        return n > 0 ? sum.sum() / n : 0;
+    }
+
+    /**
+     * Gets the longest duration.
+     *
+     * @return the duration in nanoseconds.
+     */
+    long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Gets the approximate duration below which given share of the recorded
+     * durations fall.
+     *
+     * @param quantile
+     *            the quantile between 0 and 1.
+     * @return the upper bound of the bucket in nanoseconds, or 0 if nothing
+     *         has been recorded.
+     */
+    long getPercentile(double quantile) {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank && counts[i] > 0) {
+                return Math.min(upperBound(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    private static long upperBound(int bucket) {
+        return bucket == 0 ? 0 : bucket >= 63 ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+}
@@ -0,0 +1,107 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+/**
+ * Set of non-zero longs in an open-addressing table with linear probing, so
+ * that adding and removing do not box or allocate.
+ *
+ * <p>Instances are not thread-safe.</p>
+ */
+final class LongHashSet {
+
+    private long[] values;
+    private int size;
+
+    /**
+     * Creates instance.
+     *
+     * @param capacity
+     *            the initial capacity, a power of two.
+     */
+    LongHashSet(int capacity) {
+        values = new long[capacity];
+    }
+
+    /**
+     * Adds given value.
+     *
+     * @param value
+     *            the value, not 0.
+     * @return true if the value was not in the set.
+     */
+    boolean add(long value) {
+        int slot = find(value);
+        if (values[slot] == value) {
+            return false;
+        }
+        if ((size + 1) * 2 > values.length) {
+            grow();
+            slot = find(value);
+        }
+        values[slot] = value;
+        size++;
+        return true;
+    }
+
+    /**
+     * Removes given value.
+     *
+     * @param value
+     *            the value, not 0.
+     * @return true if the value was in the set.
+     */
+    boolean remove(long value) {
+        int slot = find(value);
+        if (values[slot] != value) {
+            return false;
+        }
+        // Shifts back the values probed past the slot to keep them reachable.
+        int mask = values.length - 1;
+        int free = slot;
+        int next = (slot + 1) & mask;
+        while (values[next] != 0) {
+            int home = index(values[next]);
+            if (((next - home) & mask) >= ((next - free) & mask)) {
+                values[free] = values[next];
+                free = next;
+            }
+            next = (next + 1) & mask;
+        }
+        values[free] = 0;
+        size--;
+        return true;
+    }
+
+    boolean contains(long value) {
+        return values[find(value)] == value;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void grow() {
+        long[] old = values;
+        values = new long[old.length * 2];
+        for (long value : old) {
+            if (value != 0) {
+                values[find(value)] = value;
+            }
+        }
+    }
+
+    /**
+     * Gets the slot of given value, or the free slot it would take.
+     */
+    private int find(long value) {
+        int mask = values.length - 1;
+        int slot = index(value);
+        while (values[slot] != 0 && values[slot] != value) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private int index(long value) {
+        return (int) (value ^ (value >>> 32)) & (values.length - 1);
+    }
+}
@@ -0,0 +1,129 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Lazy view of the fields of one message, read by {@link PayloadFilter}s.
+ *
+ * <p>A field is looked up among the top-level values of the JSON value of the
+ * record on first access. The value is streamed through once for all
+ * lookups: a lookup stops at the field it is looking for and the next one
+ * resumes from there, keeping the top-level values passed on the way and
+ * skipping nested objects and arrays without reading them. Fields that are
+ * not found there, or values of other formats, are looked up among the
+ * parameters of the message. Looked up fields are kept for the other filters
+ * of the same message. Instances belong to one consumer thread.</p>
+ */
+final class MessageFields {
+
+    private static final JsonFactory FACTORY = new ObjectMapper().getFactory();
+
+    private final byte[] json;
+    private final BuildMessage message;
+    private Map<String, String> values;
+    /** Top-level scalar values read so far, null ones included. */
+    private Map<String, String> topLevel;
+    /** The parser positioned after the last value read, null before. */
+    private JsonParser parser;
+    private boolean scanned;
+
+    /**
+     * Creates instance with specified parameters.
+     *
+     * @param json
+     *            the JSON value of the record, or null for other formats.
+     * @param message
+     *            the message decoded from the record.
+     */
+    MessageFields(byte[] json, BuildMessage message) {
+        this.json = json;
+        this.message = message;
+    }
+
+    /**
+     * Gets the value of given field as text.
+     *
+     * @param name
+     *            the field name.
+     * @return the value, or null if the field is missing or null.
+     */
+    String get(String name) {
+        if (values == null) {
+            values = new HashMap<String, String>(4);
+        } else if (values.containsKey(name)) {
+            return values.get(name);
+        }
+        String value = json != null ? readTopLevel(name) : null;
+        if (value == null) {
+            value = readParameter(name);
+        }
+        values.put(name, value);
+        return value;
+    }
+
+    private String readTopLevel(String name) {
+        if (topLevel != null && topLevel.containsKey(name)) {
+            return topLevel.get(name);
+        }
+        if (scanned) {
+            return null;
+        }
+        try {
+            if (parser == null) {
+                topLevel = new HashMap<String, String>(8);
+                parser = FACTORY.createParser(json);
+                if (parser.nextToken() != JsonToken.START_OBJECT) {
+                    endScan();
+                    return null;
+                }
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if (token.isScalarValue()) {
+                    if (!topLevel.containsKey(field)) {
+                        String value = token == JsonToken.VALUE_NULL ? null : parser.getText();
+                        topLevel.put(field, value);
+                        if (name.equals(field)) {
+                            return value;
+                        }
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } catch (IOException e) {
+            // The value has been decoded before, a later part may still be broken.
+        }
+        endScan();
+        return null;
+    }
+
+    private void endScan() {
+        scanned = true;
+        if (parser != null) {
+            try {
+                parser.close();
+            } catch (IOException e) {
+                // Nothing to release for a value in memory.
+            }
+        }
+    }
+
+    private String readParameter(String name) {
+        String[] parameters = message.getParameters();
+        for (int i = 0; i + 1 < parameters.length; i += 2) {
+            if (name.equals(parameters[i])) {
+                return parameters[i + 1];
+            }
+        }
+        return null;
+    }
+}
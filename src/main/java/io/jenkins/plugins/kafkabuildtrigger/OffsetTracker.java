@@ -0,0 +1,185 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tracks consumed records per partition and works out the offsets that are
+ * safe to commit.
+ *
+ * <p>Records are tracked in the order they are polled and may be completed in
+ * any order. The committable offset of a partition is the offset of its oldest
+ * incomplete record, or the offset after the last tracked record when all of
+ * them are complete, so a commit never skips a record whose builds have not
+ * been queued yet.</p>
+ *
+ * <p>A pending record completes in the partition it was tracked in. Once a
+ * partition is forgotten, late completions of its records are ignored, so
+ * they cannot complete the same offsets after the partition is assigned and
+ * tracked again.</p>
+ */
+class OffsetTracker {
+
+    private final ConcurrentMap<TopicPartition, Partition> partitions = new ConcurrentHashMap<TopicPartition, Partition>();
+    private final AtomicInteger completedSinceCommit = new AtomicInteger();
+
+    /**
+     * Starts tracking a polled record.
+     *
+     * @param partition
+     *            the partition of the record.
+     * @param offset
+     *            the offset of the record.
+     * @return the pending record holding the initial reference.
+     */
+    public PendingRecord track(TopicPartition partition, long offset) {
+        Partition p = partitions.get(partition);
+        if (p == null) {
+            p = partitions.computeIfAbsent(partition, tp -> new Partition());
+        }
+        p.track(offset);
+        return new PendingRecord(this, p, partition, offset);
+    }
+
+    /**
+     * Marks a record complete.
+     *
+     * @param partition
+     *            the partition the record has been tracked in.
+     * @param offset
+     *            the offset of the record.
+     */
+    void complete(Partition partition, long offset) {
+        if (partition.complete(offset)) {
+            completedSinceCommit.incrementAndGet();
+        }
+    }
+
+    /**
+     * Gets the number of records completed since the offsets have been taken
+     * for commit the last time.
+     *
+     * @return the number of records.
+     */
+    public int getCompletedSinceCommit() {
+        return completedSinceCommit.get();
+    }
+
+    /**
+     * Takes the offsets to commit.
+     *
+     * @param all
+     *            true to include every partition, false to include only the
+     *            partitions whose committable offset moved since last time.
+     * @return the offsets to commit, possibly empty.
+     */
+    public Map<TopicPartition, OffsetAndMetadata> committable(boolean all) {
+        completedSinceCommit.set(0);
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<TopicPartition, OffsetAndMetadata>();
+        for (Map.Entry<TopicPartition, Partition> e : partitions.entrySet()) {
+            long offset = e.getValue().takeCommittable(all);
+            if (offset >= 0) {
+                offsets.put(e.getKey(), new OffsetAndMetadata(offset));
+            }
+        }
+        return offsets;
+    }
+
+    /**
+     * Stops tracking given partitions, typically after they have been revoked.
+     *
+     * @param revoked
+     *            the partitions.
+     */
+    public void forget(Collection<TopicPartition> revoked) {
+        for (TopicPartition tp : revoked) {
+            Partition p = partitions.remove(tp);
+            if (p != null) {
+                p.forget();
+            }
+        }
+    }
+
+    /**
+     * Offsets of one partition kept in a ring buffer in polled order.
+     */
+    static final class Partition {
+        private long[] offsets = new long[64];
+        private boolean[] done = new boolean[64];
+        private int head;
+        private int size;
+        private long next = -1;
+        private long taken = -1;
+        private boolean forgotten;
+
+        synchronized void track(long offset) {
+            if (size == offsets.length) {
+                grow();
+            }
+            int i = (head + size) & (offsets.length - 1);
+            offsets[i] = offset;
+            done[i] = false;
+            size++;
+            next = offset + 1;
+        }
+
+        synchronized boolean complete(long offset) {
+            if (forgotten) {
+                return false;
+            }
+            int mask = offsets.length - 1;
+            int lo = 0;
+            int hi = size - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                long value = offsets[(head + mid) & mask];
+                if (value < offset) {
+                    lo = mid + 1;
+                } else if (value > offset) {
+                    hi = mid - 1;
+                } else {
+                    done[(head + mid) & mask] = true;
+                    while (size > 0 && done[head]) {
+                        head = (head + 1) & mask;
+                        size--;
+                    }
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        synchronized void forget() {
+            forgotten = true;
+        }
+
+        synchronized long takeCommittable(boolean all) {
+            long committable = size > 0 ? offsets[head] : next;
+            if (committable < 0 || (!all && committable == taken)) {
+                return -1;
+            }
+            taken = committable;
+            return committable;
+        }
+
+        private void grow() {
+            int length = offsets.length;
+            long[] o = new long[length * 2];
+            boolean[] d = new boolean[length * 2];
+            for (int i = 0; i < size; i++) {
+                o[i] = offsets[(head + i) & (length - 1)];
+                d[i] = done[(head + i) & (length - 1)];
+            }
+            offsets = o;
+            done = d;
+            head = 0;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import hudson.model.BooleanParameterDefinition;
+import hudson.model.ChoiceParameterDefinition;
+import hudson.model.ParameterDefinition;
+import hudson.model.ParameterValue;
+import hudson.model.ParametersDefinitionProperty;
+import hudson.model.PasswordParameterDefinition;
+import hudson.model.StringParameterDefinition;
+import hudson.model.StringParameterValue;
+import hudson.model.TextParameterDefinition;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parameter definitions of a job compiled for merging message parameters.
+ *
+ * <p>Holds a case-insensitive hash table from parameter name to slot and the
+ * default value of every slot, so a message is merged in one pass over its
+ * parameters without folding the case of any string. Defaults of the built-in
+ * string, text, boolean, choice and password definitions are computed once;
+ * other definitions may compute their defaults dynamically and are asked for
+ * them on every merge.</p>
+ */
+final class ParameterTemplate {
+
+    private static final ParameterTemplate EMPTY = new ParameterTemplate(null, new ParameterDefinition[0]);
+
+    private final ParametersDefinitionProperty source;
+    private final String[] names;
+    private final ParameterDefinition[] definitions;
+    private final ParameterValue[] defaults;
+    private final boolean[] staticDefaults;
+    /** Open addressing table of slot + 1, 0 marks a free entry. */
+    private final int[] table;
+    private final int mask;
+
+    private ParameterTemplate(ParametersDefinitionProperty source, ParameterDefinition[] definitions) {
+        this.source = source;
+        this.definitions = definitions;
+        int size = definitions.length;
+        this.names = new String[size];
+        this.defaults = new ParameterValue[size];
+        this.staticDefaults = new boolean[size];
+        int capacity = Integer.highestOneBit(Math.max(2, size * 2 - 1)) << 1;
+        this.table = new int[capacity];
+        this.mask = capacity - 1;
+        for (int slot = 0; slot < size; slot++) {
+            ParameterDefinition definition = definitions[slot];
+            names[slot] = definition.getName();
+            if (isStaticDefault(definition)) {
+                defaults[slot] = definition.getDefaultParameterValue();
+                staticDefaults[slot] = true;
+            }
+            // A later definition with the same name shadows the earlier one.
+            int existing = find(names[slot]);
+            if (existing >= 0) {
+                table[indexOf(names[slot], existing)] = slot + 1;
+            } else {
+                int i = hash(names[slot]) & mask;
+                while (table[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                table[i] = slot + 1;
+            }
+        }
+    }
+
+    /**
+     * Compiles parameter definitions of given property.
+     *
+     * @param property
+     *            the property, may be null.
+     * @return the template.
+     */
+    static ParameterTemplate compile(ParametersDefinitionProperty property) {
+        if (property == null) {
+            return EMPTY;
+        }
+        List<ParameterDefinition> definitions = property.getParameterDefinitions();
+        return new ParameterTemplate(property, definitions.toArray(new ParameterDefinition[0]));
+    }
+
+    /**
+     * Gets whether this template has been compiled from given property.
+     *
+     * @param property
+     *            the current property of the job, may be null.
+     * @return true if the template is still valid for the job.
+     */
+    boolean isCompiledFrom(ParametersDefinitionProperty property) {
+        return source == property;
+    }
+
+    /**
+     * Merges message parameters with the defaults of the job. Message
+     * parameters are matched to definitions ignoring case and override their
+     * defaults; parameters the job does not define are ignored.
+     *
+     * @param parameters
+     *            the alternating parameter names and values of the message.
+     * @return the parameter values in definition order.
+     */
+    List<ParameterValue> merge(String[] parameters) {
+        int size = definitions.length;
+        ParameterValue[] values = new ParameterValue[size];
+        for (int i = 0; i + 1 < parameters.length; i += 2) {
+            String name = parameters[i];
+            if (name == null) {
+                continue;
+            }
+            int slot = find(name);
+            if (slot >= 0) {
+                values[slot] = new StringParameterValue(names[slot], parameters[i + 1]);
+            }
+        }
+        List<ParameterValue> result = new ArrayList<ParameterValue>(size);
+        for (int slot = 0; slot < size; slot++) {
+            ParameterValue value = values[slot];
+            if (value == null) {
+                value = staticDefaults[slot] ? defaults[slot] : definitions[slot].getDefaultParameterValue();
+            }
+            if (value != null) {
+                result.add(value);
+            }
+        }
+        return result;
+    }
+
+    private int find(String name) {
+        int i = hash(name) & mask;
+        int entry;
+        while ((entry = table[i]) != 0) {
+            if (names[entry - 1].equalsIgnoreCase(name)) {
+                return entry - 1;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int indexOf(String name, int slot) {
+        int i = hash(name) & mask;
+        while (table[i] != slot + 1) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * Hashes name consistently with {@link String#equalsIgnoreCase(String)}.
+     */
+    private static int hash(String name) {
+        int h = 0;
+        for (int i = 0; i < name.length(); i++) {
+            h = 31 * h + Character.toLowerCase(Character.toUpperCase(name.charAt(i)));
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean isStaticDefault(ParameterDefinition definition) {
+        Class<?> type = definition.getClass();
+        return type == StringParameterDefinition.class
+                || type == TextParameterDefinition.class
+                || type == BooleanParameterDefinition.class
+                || type == ChoiceParameterDefinition.class
+                || type == PasswordParameterDefinition.class;
+    }
+}
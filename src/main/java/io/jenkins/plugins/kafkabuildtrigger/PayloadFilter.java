@@ -0,0 +1,351 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import java.util.Objects;
+import java.util.function.IntPredicate;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Compiled predicate over the fields of a message, deciding whether a
+ * trigger builds for it, e.g.
+ * <code>branch == "main" &amp;&amp; repo startsWith "core-"</code>.
+ *
+ * <p>The grammar is</p>
+ *
+ * <pre>
+ * expression := and ( "||" and )*
+ * and        := unary ( "&amp;&amp;" unary )*
+ * unary      := "!" unary | "(" expression ")" | operand [ operator operand ]
+ * operator   := "==" | "!=" | "&lt;" | "&lt;=" | "&gt;" | "&gt;=" | "startsWith" | "endsWith" | "contains" | "matches"
+ * operand    := field | "string" | number | true | false | null
+ * </pre>
+ *
+ * <p>Fields are read from a {@link MessageFields}. A field on its own holds
+ * if it is set and neither empty nor {@code false}. A comparison with a
+ * number compares numerically, the other comparisons compare text
+ * lexicographically. All operators but {@code ==} and {@code !=} are false
+ * if a side is null. The pattern of {@code matches} must be a string and is
+ * compiled with the filter.</p>
+ */
+final class PayloadFilter {
+
+    private final String expression;
+    private final Condition condition;
+
+    private PayloadFilter(String expression, Condition condition) {
+        this.expression = expression;
+        this.condition = condition;
+    }
+
+    /**
+     * Compiles given expression.
+     *
+     * @param expression
+     *            the expression.
+     * @return the filter.
+     * @throws IllegalArgumentException
+     *             throw if the expression is malformed.
+     */
+    static PayloadFilter compile(String expression) {
+        Parser parser = new Parser(expression);
+        Condition condition = parser.parseExpression();
+        parser.skipSpaces();
+        if (parser.pos < expression.length()) {
+            throw parser.error("Unexpected '" + expression.charAt(parser.pos) + "'");
+        }
+        return new PayloadFilter(expression, condition);
+    }
+
+    /**
+     * Tests the fields of a message.
+     *
+     * @param fields
+     *            the fields.
+     * @return true if the trigger builds for the message.
+     */
+    boolean test(MessageFields fields) {
+        return condition.test(fields);
+    }
+
+    String getExpression() {
+        return expression;
+    }
+
+    private interface Condition {
+        boolean test(MessageFields fields);
+    }
+
+    private interface Operand {
+        String value(MessageFields fields);
+    }
+
+    /**
+     * Recursive descent parser of the grammar above.
+     */
+    private static final class Parser {
+        private final String text;
+        private int pos;
+
+        Parser(String text) {
+            this.text = text;
+        }
+
+        Condition parseExpression() {
+            Condition left = parseAnd();
+            while (accept("||")) {
+                Condition first = left;
+                Condition second = parseAnd();
+                left = fields -> first.test(fields) || second.test(fields);
+            }
+            return left;
+        }
+
+        private Condition parseAnd() {
+            Condition left = parseUnary();
+            while (accept("&&")) {
+                Condition first = left;
+                Condition second = parseUnary();
+                left = fields -> first.test(fields) && second.test(fields);
+            }
+            return left;
+        }
+
+        private Condition parseUnary() {
+            skipSpaces();
+            if (peek('!') && !text.startsWith("!=", pos)) {
+                pos++;
+                Condition negated = parseUnary();
+                return fields -> !negated.test(fields);
+            }
+            if (accept("(")) {
+                Condition inner = parseExpression();
+                if (!accept(")")) {
+                    throw error("Missing ')'");
+                }
+                return inner;
+            }
+            return parseComparison();
+        }
+
+        private Condition parseComparison() {
+            int leftStart = skipSpaces();
+            Operand left = parseOperand();
+            boolean leftNumber = isNumber(leftStart);
+            String operator = parseOperator();
+            if (operator == null) {
+                return fields -> isTrue(left.value(fields));
+            }
+            int rightStart = skipSpaces();
+            if (operator.equals("matches")) {
+                if (!peek('"')) {
+                    throw error("'matches' needs a string pattern");
+                }
+                String regex = parseString();
+                Pattern pattern;
+                try {
+                    pattern = Pattern.compile(regex);
+                } catch (PatternSyntaxException e) {
+                    throw error("Invalid pattern: " + e.getDescription());
+                }
+                return fields -> {
+                    String value = left.value(fields);
+                    return value != null && pattern.matcher(value).matches();
+                };
+            }
+            Operand right = parseOperand();
+            boolean numeric = leftNumber || isNumber(rightStart);
+            switch (operator) {
+            case "==":
+                return numeric ? fields -> compare(left.value(fields), right.value(fields), c -> c == 0)
+                        : fields -> Objects.equals(left.value(fields), right.value(fields));
+            case "!=":
+                return numeric ? fields -> !compare(left.value(fields), right.value(fields), c -> c == 0)
+                        : fields -> !Objects.equals(left.value(fields), right.value(fields));
+            case "<":
+                return numeric ? fields -> compare(left.value(fields), right.value(fields), c -> c < 0)
+                        : fields -> compareText(left.value(fields), right.value(fields), c -> c < 0);
+            case "<=":
+                return numeric ? fields -> compare(left.value(fields), right.value(fields), c -> c <= 0)
+                        : fields -> compareText(left.value(fields), right.value(fields), c -> c <= 0);
+            case ">":
+                return numeric ? fields -> compare(left.value(fields), right.value(fields), c -> c > 0)
+                        : fields -> compareText(left.value(fields), right.value(fields), c -> c > 0);
+            case ">=":
+                return numeric ? fields -> compare(left.value(fields), right.value(fields), c -> c >= 0)
+                        : fields -> compareText(left.value(fields), right.value(fields), c -> c >= 0);
+            case "startsWith":
+                return fields -> {
+                    String value = left.value(fields);
+                    String prefix = right.value(fields);
+                    return value != null && prefix != null && value.startsWith(prefix);
+                };
+            case "endsWith":
+                return fields -> {
+                    String value = left.value(fields);
+                    String suffix = right.value(fields);
+                    return value != null && suffix != null && value.endsWith(suffix);
+                };
+            default:
+                return fields -> {
+                    String value = left.value(fields);
+                    String part = right.value(fields);
+                    return value != null && part != null && value.contains(part);
+                };
+            }
+        }
+
+        private String parseOperator() {
+            skipSpaces();
+            for (String operator : new String[] { "==", "!=", "<=", ">=", "<", ">" }) {
+                if (accept(operator)) {
+                    return operator;
+                }
+            }
+            int start = pos;
+            String word = parseWord();
+            if (word == null) {
+                return null;
+            }
+            switch (word) {
+            case "startsWith":
+            case "endsWith":
+            case "contains":
+            case "matches":
+                return word;
+            default:
+                pos = start;
+                throw error("Unknown operator '" + word + "'");
+            }
+        }
+
+        private Operand parseOperand() {
+            skipSpaces();
+            if (pos >= text.length()) {
+                throw error("Missing operand");
+            }
+            if (peek('"')) {
+                String value = parseString();
+                return fields -> value;
+            }
+            char c = text.charAt(pos);
+            if (c == '-' || Character.isDigit(c)) {
+                int start = pos++;
+                while (pos < text.length() && (Character.isDigit(text.charAt(pos)) || text.charAt(pos) == '.')) {
+                    pos++;
+                }
+                String number = text.substring(start, pos);
+                try {
+                    Double.parseDouble(number);
+                } catch (NumberFormatException e) {
+                    pos = start;
+                    throw error("Invalid number '" + number + "'");
+                }
+                return fields -> number;
+            }
+            String word = parseWord();
+            if (word == null) {
+                throw error("Unexpected '" + c + "'");
+            }
+            switch (word) {
+            case "true":
+            case "false":
+                return fields -> word;
+            case "null":
+                return fields -> null;
+            default:
+                return fields -> fields.get(word);
+            }
+        }
+
+        private String parseWord() {
+            int start = pos;
+            if (pos < text.length() && (Character.isLetter(text.charAt(pos)) || text.charAt(pos) == '_')) {
+                pos++;
+                while (pos < text.length() && isWordPart(text.charAt(pos))) {
+                    pos++;
+                }
+            }
+            return pos > start ? text.substring(start, pos) : null;
+        }
+
+        private String parseString() {
+            StringBuilder value = new StringBuilder();
+            // Opening quote.
+            pos++;
+            while (pos < text.length()) {
+                char c = text.charAt(pos++);
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c == '\\' && pos < text.length()) {
+                    c = text.charAt(pos++);
+                }
+                value.append(c);
+            }
+            throw error("Unterminated string");
+        }
+
+        private boolean isNumber(int start) {
+            return start < text.length() && (text.charAt(start) == '-' || Character.isDigit(text.charAt(start)));
+        }
+
+        private static boolean isWordPart(char c) {
+            return Character.isLetterOrDigit(c) || c == '_' || c == '.' || c == '-';
+        }
+
+        private boolean accept(String token) {
+            skipSpaces();
+            if (text.startsWith(token, pos)) {
+                pos += token.length();
+                return true;
+            }
+            return false;
+        }
+
+        private boolean peek(char c) {
+            return pos < text.length() && text.charAt(pos) == c;
+        }
+
+        int skipSpaces() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+            return pos;
+        }
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + (pos + 1));
+        }
+    }
+
+    private static boolean isTrue(String value) {
+        return value != null && !value.isEmpty() && !value.equals("false");
+    }
+
+    /**
+     * Compares two values as numbers.
+     *
+     * @return the result of given test of the comparison, false if a value is
+     *         not a number.
+     */
+    private static boolean compare(String left, String right, IntPredicate test) {
+        if (left == null || right == null) {
+            return false;
+        }
+        try {
+            return test.test(Double.compare(Double.parseDouble(left), Double.parseDouble(right)));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Compares two values as text.
+     *
+     * @return the result of given test of the comparison, false if a value is
+     *         null.
+     */
+    private static boolean compareText(String left, String right, IntPredicate test) {
+        return left != null && right != null && test.test(left.compareTo(right));
+    }
+}
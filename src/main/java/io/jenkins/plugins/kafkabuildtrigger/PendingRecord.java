@@ -0,0 +1,94 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Consumed record whose offset may only be committed once every build it
+ * triggered has been handed to the Jenkins queue.
+ *
+ * <p>The record starts with one reference held by the consumer while the
+ * record is being matched. Every build created from the record retains
+ * another one and releases it after the queue has taken the build. When the
+ * last reference is released the record is completed in the partition of
+ * its {@link OffsetTracker} it has been tracked in, which ignores the
+ * completion if the partition has been revoked or lost since.</p>
+ *
+ * <p>With duplicate suppression, the identity of the record is recorded in
+ * the {@link DedupeStore} on completion as well, and given back if a build of
+ * the record is discarded instead.</p>
+ */
+final class PendingRecord {
+
+    private final OffsetTracker tracker;
+    private final OffsetTracker.Partition trackedIn;
+    private final TopicPartition partition;
+    private final long offset;
+    private final AtomicInteger references = new AtomicInteger(1);
+    private DedupeStore dedupeStore;
+    private long identity;
+    private long ttlMillis;
+
+    PendingRecord(OffsetTracker tracker, OffsetTracker.Partition trackedIn, TopicPartition partition, long offset) {
+        this.tracker = tracker;
+        this.trackedIn = trackedIn;
+        this.partition = partition;
+        this.offset = offset;
+    }
+
+    public TopicPartition getPartition() {
+        return partition;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Records given reserved identity in given store once this record
+     * completes. Called by the consumer before any build is handed on.
+     *
+     * @param dedupeStore
+     *            the store.
+     * @param identity
+     *            the identity of this record.
+     * @param ttlMillis
+     *            how long the identity is kept.
+     */
+    void recordOnCompletion(DedupeStore dedupeStore, long identity, long ttlMillis) {
+        this.dedupeStore = dedupeStore;
+        this.identity = identity;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Gives back the reserved identity of this record, one of whose builds
+     * has been discarded without being released, so the record never
+     * completes and is consumed again.
+     */
+    void discard() {
+        if (dedupeStore != null) {
+            dedupeStore.cancel(identity);
+        }
+    }
+
+    /**
+     * Adds a reference for a build created from this record.
+     */
+    public void retain() {
+        references.incrementAndGet();
+    }
+
+    /**
+     * Releases a reference, completing the record when it was the last one.
+     */
+    public void release() {
+        if (references.decrementAndGet() == 0) {
+            if (dedupeStore != null) {
+                dedupeStore.complete(identity, System.currentTimeMillis(), ttlMillis);
+            }
+            tracker.complete(trackedIn, offset);
+        }
+    }
+}
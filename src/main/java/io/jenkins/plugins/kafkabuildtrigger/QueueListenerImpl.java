@@ -0,0 +1,30 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import hudson.Extension;
+import hudson.model.Queue;
+import hudson.model.queue.QueueListener;
+
+/**
+ * Publishes the queued and cancelled events of remotely triggered builds.
+ * Builds folded into an item already waiting do not enter the queue, their
+ * queued events are published by {@link RemoteBuildTrigger#scheduleBuild(hudson.model.Action...)}.
+ */
+@Extension
+public class QueueListenerImpl extends QueueListener {
+
+    @Override
+    public void onEnterWaiting(Queue.WaitingItem wi) {
+        BuildEventPublisher publisher = BuildEventPublisher.getInstance();
+        if (publisher != null) {
+            publisher.publish(BuildEventPublisher.QUEUED, wi);
+        }
+    }
+
+    @Override
+    public void onLeft(Queue.LeftItem li) {
+        BuildEventPublisher publisher = BuildEventPublisher.getInstance();
+        if (publisher != null && li.isCancelled()) {
+            publisher.publish(BuildEventPublisher.CANCELLED, li);
+        }
+    }
+}
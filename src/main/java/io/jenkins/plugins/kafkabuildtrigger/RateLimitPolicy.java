@@ -0,0 +1,31 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+/**
+ * What happens to trigger messages over the rate limit of their job or of all
+ * jobs.
+ */
+public enum RateLimitPolicy {
+
+    /**
+     * Messages are held back until the limit allows their builds. The
+     * consumer pauses once too many are held back by the global limit. A job
+     * holds back at most one minute of builds at its own limit, and further
+     * builds are dead-lettered.
+     */
+    DEFER("Defer builds until the limit allows them"),
+
+    /**
+     * Messages are dropped.
+     */
+    DROP("Drop builds over the limit");
+
+    private final String displayName;
+
+    RateLimitPolicy(String displayName) {
+        this.displayName = displayName;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+}
@@ -0,0 +1,98 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket limiting builds per minute, implemented as the
+ * generic cell rate algorithm.
+ *
+ * <p>The bucket is a single theoretical arrival time. A build is allowed if
+ * taking its token does not move that time further than the burst ahead of
+ * now, and is then taken with one compare-and-set.</p>
+ */
+final class RateLimiter {
+
+    private static RateLimiter global;
+
+    private final int perMinute;
+    private final int burst;
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final AtomicLong arrival = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * Creates instance with specified parameters.
+     *
+     * @param perMinute
+     *            the builds allowed per minute, at least 1.
+     * @param burst
+     *            the builds allowed at once, at least 1.
+     */
+    RateLimiter(int perMinute, int burst) {
+        this.perMinute = perMinute;
+        this.burst = Math.max(1, burst);
+        this.intervalNanos = TimeUnit.MINUTES.toNanos(1) / Math.max(1, perMinute);
+        this.toleranceNanos = intervalNanos * (this.burst - 1);
+    }
+
+    /**
+     * Gets the limiter shared by all consumers, replacing it when the limit
+     * has changed.
+     *
+     * @param perMinute
+     *            the builds allowed per minute, 0 for no limit.
+     * @param burst
+     *            the builds allowed at once.
+     * @return the limiter, or null if there is no limit.
+     */
+    static synchronized RateLimiter global(int perMinute, int burst) {
+        if (perMinute <= 0) {
+            global = null;
+        } else if (global == null || !global.hasLimit(perMinute, burst)) {
+            global = new RateLimiter(perMinute, burst);
+        }
+        return global;
+    }
+
+    /**
+     * Gets whether this limiter allows given rate and burst.
+     *
+     * @param perMinute
+     *            the builds per minute.
+     * @param burst
+     *            the burst.
+     * @return true if both are equal.
+     */
+    boolean hasLimit(int perMinute, int burst) {
+        return this.perMinute == perMinute && this.burst == Math.max(1, burst);
+    }
+
+    /**
+     * Takes a token if one is available.
+     *
+     * @param now
+     *            the current {@link System#nanoTime()}.
+     * @return true if the build is allowed.
+     */
+    boolean tryAcquire(long now) {
+        while (true) {
+            long current = arrival.get();
+            long next = Math.max(current, now) + intervalNanos;
+            if (next - now > toleranceNanos + intervalNanos) {
+                return false;
+            }
+            if (arrival.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Gives back a token taken by {@link #tryAcquire(long)}, when another
+     * limit did not allow the build.
+     */
+    void release() {
+        arrival.addAndGet(-intervalNanos);
+    }
+}
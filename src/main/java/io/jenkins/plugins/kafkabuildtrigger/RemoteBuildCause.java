@@ -10,6 +10,11 @@ import org.kohsuke.stapler.export.Exported;
 
     private final String topicName;
 
+    private final String correlationId;
+
+    /** Whether the queued event has been published, not kept across restarts. */
+    private transient volatile boolean queuedPublished;
+
     /**
      * Creates instance with specified parameter.
      *
@@ -17,7 +22,48 @@ import org.kohsuke.stapler.export.Exported;
      *            the queue name.
      */
     public RemoteBuildCause(String topicName) {
+        this(topicName, null);
+    }
+
+    /**
+     * Creates instance with specified parameters.
+     *
+     * @param topicName
+     *            the queue name.
+     * @param correlationId
+     *            the id the build events are published with, or null.
+     */
+    public RemoteBuildCause(String topicName, String correlationId) {
         this.topicName = topicName;
+        this.correlationId = correlationId;
+    }
+
+    /**
+     * Gets the topic name the message was read from.
+     *
+     * @return the topic name.
+     */
+    public String getTopicName() {
+        return topicName;
+    }
+
+    /**
+     * Gets the id producers correlate the events of the build with.
+     *
+     * @return the correlation id, or null for builds caused before it was
+     *         recorded.
+     */
+    @Exported(visibility = 3)
+    public String getCorrelationId() {
+        return correlationId;
+    }
+
+    boolean isQueuedPublished() {
+        return queuedPublished;
+    }
+
+    void setQueuedPublished() {
+        queuedPublished = true;
     }
 
     @Override
@@ -26,4 +72,4 @@ import org.kohsuke.stapler.export.Exported;
         return "Triggered by remote build message from Kafka topic: " + topicName;
     }
 
-}
\ No newline at end of file
+}
@@ -6,12 +6,12 @@ import hudson.model.*;
 import hudson.model.listeners.ItemListener;
 import hudson.triggers.Trigger;
 import hudson.triggers.TriggerDescriptor;
-import jenkins.model.Jenkins;
+import hudson.util.FormValidation;
 import jenkins.model.ParameterizedJobMixIn;
-import net.sf.json.JSONArray;
-import net.sf.json.JSONObject;
 import org.apache.commons.lang3.StringUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
 
 import java.util.*;
 import java.util.logging.Logger;
@@ -27,11 +27,22 @@ public class RemoteBuildTrigger <T extends Job<?, ?> & ParameterizedJobMixIn.Par
 
     private static final String PLUGIN_NAME = "Kafka Build Trigger";
 
-    private static final String KEY_PARAM_NAME = "name";
-    private static final String KEY_PARAM_VALUE = "value";
+    private static final Logger LOGGER = Logger.getLogger(RemoteBuildTrigger.class.getName());
 
     private String remoteBuildToken;
 
+    private String subscriptions;
+
+    private int rateLimitPerMinute;
+
+    private String payloadFilter;
+
+    private transient volatile ParameterTemplate parameterTemplate;
+
+    private transient volatile RateLimiter rateLimiter;
+
+    private transient volatile PayloadFilter payloadFilterMatcher;
+
     /**
      * Creates instance with specified parameters.
      *
@@ -46,13 +57,12 @@ public class RemoteBuildTrigger <T extends Job<?, ?> & ParameterizedJobMixIn.Par
 
     @Override
     public void start(T project, boolean newInstance) {
+        super.start(project, newInstance);
         TriggerManager listener = TriggerManager.getInstance();
 
         if (listener != null) {
             listener.addTrigger(this);
         }
-        removeDuplicatedTrigger(listener.getTriggers());
-        super.start(project, newInstance);
     }
 
     @Override
@@ -61,21 +71,6 @@ public class RemoteBuildTrigger <T extends Job<?, ?> & ParameterizedJobMixIn.Par
         super.stop();
     }
 
-    /**
-     * Remove the duplicated trigger from the triggers.
-     *
-     * @param triggers
-     *          the set of current trigger instances which have already been loaded in the memory
-     */
-    public void removeDuplicatedTrigger(Set<RemoteBuildTrigger> triggers){
-        Map<String,RemoteBuildTrigger>  tempHashMap= new HashMap<String,RemoteBuildTrigger>();
-        for(RemoteBuildTrigger trigger:triggers){
-            tempHashMap.put(trigger.getProjectName(), trigger);
-        }
-        triggers.clear();
-        triggers.addAll(tempHashMap.values());
-    }
-
     /**
      * Gets token.
      *
@@ -94,6 +89,129 @@ public class RemoteBuildTrigger <T extends Job<?, ?> & ParameterizedJobMixIn.Par
         this.remoteBuildToken = remoteBuildToken;
     }
 
+    /**
+     * Gets the names of the subscriptions this trigger listens to.
+     *
+     * @return the comma separated subscription names, or null for the default
+     *         subscription.
+     */
+    public String getSubscriptions() {
+        return subscriptions;
+    }
+
+    /**
+     * Sets the names of the subscriptions this trigger listens to.
+     *
+     * @param subscriptions
+     *            the comma separated subscription names, or empty for the
+     *            default subscription.
+     */
+    @DataBoundSetter
+    public void setSubscriptions(String subscriptions) {
+        this.subscriptions = StringUtils.stripToNull(subscriptions);
+    }
+
+    /**
+     * Gets how many builds this job may be triggered with per minute.
+     *
+     * @return the number of builds, 0 for no limit.
+     */
+    public int getRateLimitPerMinute() {
+        return rateLimitPerMinute;
+    }
+
+    /**
+     * Sets how many builds this job may be triggered with per minute.
+     *
+     * @param rateLimitPerMinute
+     *            the number of builds, 0 for no limit.
+     */
+    @DataBoundSetter
+    public void setRateLimitPerMinute(int rateLimitPerMinute) {
+        this.rateLimitPerMinute = Math.max(0, rateLimitPerMinute);
+    }
+
+    /**
+     * Gets the limiter of this job, creating it again when the limit has
+     * changed.
+     *
+     * @param burst
+     *            the builds allowed at once.
+     * @return the limiter, or null if the job has no limit.
+     */
+    RateLimiter getRateLimiter(int burst) {
+        if (rateLimitPerMinute <= 0) {
+            return null;
+        }
+        RateLimiter limiter = rateLimiter;
+        if (limiter == null || !limiter.hasLimit(rateLimitPerMinute, burst)) {
+            limiter = new RateLimiter(rateLimitPerMinute, burst);
+            rateLimiter = limiter;
+        }
+        return limiter;
+    }
+
+    /**
+     * Gets the expression messages have to match to build this job.
+     *
+     * @return the expression, or null if all messages build it.
+     */
+    public String getPayloadFilter() {
+        return payloadFilter;
+    }
+
+    /**
+     * Sets the expression messages have to match to build this job, see
+     * {@link PayloadFilter}.
+     *
+     * @param payloadFilter
+     *            the expression, or empty if all messages build it.
+     */
+    @DataBoundSetter
+    public void setPayloadFilter(String payloadFilter) {
+        this.payloadFilter = StringUtils.stripToNull(payloadFilter);
+        this.payloadFilterMatcher = null;
+    }
+
+    /**
+     * Gets the compiled payload filter, compiling it on first use after the
+     * trigger has been saved or loaded. A filter that does not compile, which
+     * the form warns about, matches no message.
+     *
+     * @return the filter, or null if all messages build this job.
+     */
+    PayloadFilter getPayloadFilterMatcher() {
+        String expression = payloadFilter;
+        if (expression == null) {
+            return null;
+        }
+        PayloadFilter filter = payloadFilterMatcher;
+        if (filter == null || !filter.getExpression().equals(expression)) {
+            try {
+                filter = PayloadFilter.compile(expression);
+            } catch (IllegalArgumentException e) {
+                LOGGER.warning("Invalid payload filter of project " + getProjectFullName() + ": "
+                        + e.getMessage());
+                filter = PayloadFilter.compile("false");
+            }
+            payloadFilterMatcher = filter;
+        }
+        return filter;
+    }
+
+    /**
+     * Gets the subscription names this trigger listens to.
+     *
+     * @return the subscription names, the default one if none is set.
+     */
+    public String[] getSubscriptionNames() {
+        String[] names = StringUtils.split(subscriptions, ", ");
+        if (names == null || names.length == 0) {
+            return new String[] { KafkaSubscription.DEFAULT_NAME };
+        }
+        return names;
+    }
+
     /**
      * Gets project name.
      *
@@ -106,75 +224,136 @@ public class RemoteBuildTrigger <T extends Job<?, ?> & ParameterizedJobMixIn.Par
         return "";
     }
 
+    /**
+     * Gets project full name.
+     *
+     * @return the project full name.
+     */
+    public String getProjectFullName() {
+        if(job!=null){
+            return job.getFullName();
+        }
+        return "";
+    }
+
     /**
      * Schedules build for triggered job using application message.
      *
      * @param queueName
      *            the queue name.
-     * @param jsonArray
-     *            the content of application message.
+     * @param parameters
+     *            the alternating parameter names and values of application
+     *            message, or null if the message has no parameters.
+     * @return true if the build has been accepted by the queue.
      */
-    public void scheduleBuild(String queueName, JSONArray jsonArray) {
+    public boolean scheduleBuild(String queueName, String[] parameters) {
         if (job != null) {
-            if (jsonArray != null) {
-                List<ParameterValue> parameters = getUpdatedParameters(jsonArray, getDefinitionParameters(job));
-                ParameterizedJobMixIn.scheduleBuild2(job, 0, new CauseAction(new RemoteBuildCause(queueName)), new ParametersAction(parameters));
-            } else {
-                ParameterizedJobMixIn.scheduleBuild2(job, 0, new CauseAction(new RemoteBuildCause(queueName)));
-            }
+            return scheduleBuild(createActions(queueName, parameters));
         }
+        return false;
     }
 
     /**
-     * Gets updated parameters in job.
+     * Creates the actions to schedule a build with, resolving the parameters
+     * of application message against the job definition.
      *
-     * @param jsonParameters
-     *            the array of JSONObjects.
-     * @param definedParameters
-     *            the list of defined paramters.
-     * @return the list of parameter values.
+     * @param queueName
+     *            the queue name.
+     * @param parameters
+     *            the alternating parameter names and values of application
+     *            message, or null if the message has no parameters.
+     * @return the actions for the build.
      */
-    private List<ParameterValue> getUpdatedParameters(JSONArray jsonParameters, List<ParameterValue> definedParameters) {
-        List<ParameterValue> newParams = new ArrayList<ParameterValue>();
-        for (ParameterValue defParam : definedParameters) {
-            boolean updated = false;
-            for (int i = 0; i < jsonParameters.size(); i++) {
-                JSONObject jsonParam = jsonParameters.getJSONObject(i);
+    public Action[] createActions(String queueName, String[] parameters) {
+        return createActions(queueName, parameters, (String[]) null);
+    }
 
-                if (defParam.getName().toUpperCase().equals(jsonParam.getString(KEY_PARAM_NAME).toUpperCase())) {
-                    newParams.add(new StringParameterValue(defParam.getName(), jsonParam.getString(KEY_PARAM_VALUE)));
-                    updated = true;
-                }
+    /**
+     * Creates the actions to schedule a build with, resolving the parameters
+     * of application message against the job definition.
+     *
+     * @param queueName
+     *            the queue name.
+     * @param parameters
+     *            the alternating parameter names and values of application
+     *            message, or null if the message has no parameters.
+     * @param correlationId
+     *            the id the events of the build are published with, or null.
+     * @return the actions for the build.
+     */
+    public Action[] createActions(String queueName, String[] parameters, String correlationId) {
+        return createActions(queueName, parameters, correlationId != null ? new String[] { correlationId } : null);
+    }
+
+    /**
+     * Creates the actions to schedule a build coalesced from several
+     * messages, with one cause per message so that the events of the build
+     * are published with the id of each of them.
+     *
+     * @param queueName
+     *            the queue name.
+     * @param parameters
+     *            the alternating parameter names and values of application
+     *            message, or null if the message has no parameters.
+     * @param correlationIds
+     *            the ids the events of the build are published with, or null.
+     * @return the actions for the build.
+     */
+    public Action[] createActions(String queueName, String[] parameters, String[] correlationIds) {
+        CauseAction cause;
+        if (correlationIds == null || correlationIds.length == 0) {
+            cause = new CauseAction(new RemoteBuildCause(queueName, null));
+        } else {
+            Cause[] causes = new Cause[correlationIds.length];
+            for (int i = 0; i < causes.length; i++) {
+                causes[i] = new RemoteBuildCause(queueName, correlationIds[i]);
             }
-            if (!updated) {
-                newParams.add(defParam);
+            cause = new CauseAction(causes);
+        }
+        if (job != null && parameters != null) {
+            List<ParameterValue> values = getParameterTemplate(job).merge(parameters);
+            return new Action[] { cause, new ParametersAction(values) };
+        }
+        return new Action[] { cause };
+    }
+
+    /**
+     * Schedules build for triggered job with given actions.
+     *
+     * @param actions
+     *            the actions created by {@link #createActions(String, String[])}.
+     * @return true if the build has been accepted by the queue.
+     */
+    public boolean scheduleBuild(Action... actions) {
+        if (job != null) {
+            if (ParameterizedJobMixIn.scheduleBuild2(job, 0, actions) == null) {
+                return false;
+            }
+            BuildEventPublisher events = BuildEventPublisher.getInstance();
+            if (events != null) {
+                events.publishFolded(job, actions);
             }
+            return true;
         }
-        return newParams;
+        return false;
     }
 
     /**
-     * Gets definition parameters.
+     * Gets the compiled parameter definitions of the job, compiling them again
+     * when the job configuration has changed.
      *
      * @param project
      *            the project.
-     * @return the list of parameter values.
-     */
-    private List<ParameterValue> getDefinitionParameters(Job<?, ?> project) {
-        List<ParameterValue> parameters = new ArrayList<ParameterValue>();
-        ParametersDefinitionProperty properties = project
-                .getProperty(ParametersDefinitionProperty.class);
-
-        if (properties != null) {
-            for (ParameterDefinition paramDef : properties.getParameterDefinitions()) {
-                ParameterValue param = paramDef.getDefaultParameterValue();
-                if (param != null) {
-                    parameters.add(param);
-                }
-            }
+     * @return the parameter template.
+     */
+    private ParameterTemplate getParameterTemplate(Job<?, ?> project) {
+        ParametersDefinitionProperty property = project.getProperty(ParametersDefinitionProperty.class);
+        ParameterTemplate template = parameterTemplate;
+        if (template == null || !template.isCompiledFrom(property)) {
+            template = ParameterTemplate.compile(property);
+            parameterTemplate = template;
         }
-
-        return parameters;
+        return template;
     }
 
     @Override
@@ -201,7 +380,31 @@ public class RemoteBuildTrigger <T extends Job<?, ?> & ParameterizedJobMixIn.Par
         }
 
         /**
-         * ItemListener implementation class.
+         * Checks the payload filter of the form.
+         *
+         * @param value
+         *            the expression.
+         * @return the result of validation.
+         */
+        public FormValidation doCheckPayloadFilter(@QueryParameter String value) {
+            if (StringUtils.isBlank(value)) {
+                return FormValidation.ok();
+            }
+            try {
+                PayloadFilter.compile(value.trim());
+                return FormValidation.ok();
+            } catch (IllegalArgumentException e) {
+                return FormValidation.error(e.getMessage());
+            }
+        }
+
+        /**
+         * Keeps the trigger index in line with the item tree.
+         *
+         * <p>Triggers of every kind of job, in folders or not, register
+         * themselves when they are started while their job is loaded, so the
+         * item tree is not walked at boot. Afterwards only the items that are
+         * created, deleted or moved are looked at.</p>
          *
          * @author Radhika Gupta
          */
@@ -209,14 +412,48 @@ public class RemoteBuildTrigger <T extends Job<?, ?> & ParameterizedJobMixIn.Par
         public static class ItemListenerImpl extends ItemListener {
 
             @Override
-            public void onLoaded() {
+            public void onCreated(Item item) {
+                RemoteBuildTrigger trigger = getTrigger(item);
+                if (trigger != null) {
+                    TriggerManager.getInstance().addTrigger(trigger);
+                }
+            }
+
+            @Override
+            public void onDeleted(Item item) {
                 TriggerManager triggerMgr = TriggerManager.getInstance();
-                for (Project<?, ?> p : Jenkins.getInstance().getAllItems(Project.class)) {
-                    RemoteBuildTrigger t = p.getTrigger(RemoteBuildTrigger.class);
-                    if (t != null) {
-                        triggerMgr.addTrigger(t);
-                    }
+                if (item instanceof ItemGroup) {
+                    triggerMgr.removeTriggersIn(item.getFullName());
+                }
+                RemoteBuildTrigger trigger = triggerMgr.getTriggerByJob(item.getFullName());
+                if (trigger != null) {
+                    triggerMgr.removeTrigger(trigger);
+                }
+            }
+
+            /**
+             * Reindexes a renamed or moved job. Jenkins calls this for the
+             * item and for every item inside it, and after
+             * {@link #onRenamed(Item, String, String)}, so renames are handled
+             * here only.
+             */
+            @Override
+            public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+                TriggerManager triggerMgr = TriggerManager.getInstance();
+                RemoteBuildTrigger trigger = triggerMgr.getTriggerByJob(oldFullName);
+                if (trigger == null) {
+                    trigger = getTrigger(item);
+                }
+                if (trigger != null) {
+                    triggerMgr.addTrigger(trigger);
+                }
+            }
+
+            private static RemoteBuildTrigger getTrigger(Item item) {
+                if (item instanceof Job && item instanceof ParameterizedJobMixIn.ParameterizedJob) {
+                    return ParameterizedJobMixIn.getTrigger((Job<?, ?>) item, RemoteBuildTrigger.class);
                 }
+                return null;
             }
         }
     }
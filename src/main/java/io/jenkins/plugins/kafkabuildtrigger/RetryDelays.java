@@ -0,0 +1,122 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Holds back records of the retry topic until they are due.
+ *
+ * <p>A partition whose next record is not due yet is paused and rewound to
+ * that record, so delayed records are neither held in memory nor committed
+ * early. Records polled behind it are skipped, they are fetched again once
+ * the partition is resumed. The records of a partition are due in about the
+ * order they were published, so waiting for the first one does not hold back
+ * a later one that is already due.</p>
+ *
+ * <p>Instances are only used by the thread of their consumer.</p>
+ */
+final class RetryDelays {
+
+    private final Consumer<?, ?> consumer;
+
+    /** Paused partitions and the time they are due. */
+    private final Map<TopicPartition, Long> delayed = new HashMap<TopicPartition, Long>();
+
+    /**
+     * Creates instance pausing partitions of given consumer.
+     *
+     * @param consumer
+     *            the consumer.
+     */
+    RetryDelays(Consumer<?, ?> consumer) {
+        this.consumer = consumer;
+    }
+
+    /**
+     * Gets whether given record of the retry topic is not due yet, pausing
+     * and rewinding its partition until it is.
+     *
+     * @param record
+     *            the record.
+     * @param now
+     *            the current time in milliseconds since the epoch.
+     * @return true if the record must be skipped.
+     */
+    boolean isDelayed(ConsumerRecord<byte[], byte[]> record, long now) {
+        TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+        if (delayed.containsKey(partition)) {
+            return true;
+        }
+        long retryAt = FailureRouter.getRetryAt(record);
+        if (retryAt <= now) {
+            return false;
+        }
+        consumer.pause(Collections.singleton(partition));
+        consumer.seek(partition, record.offset());
+        delayed.put(partition, retryAt);
+        return true;
+    }
+
+    /**
+     * Stops delaying the partitions that are due.
+     *
+     * @param now
+     *            the current time in milliseconds since the epoch.
+     * @param resume
+     *            false if the consumer is paused as a whole, so the
+     *            partitions are resumed with all others.
+     */
+    void resumeDue(long now, boolean resume) {
+        Iterator<Map.Entry<TopicPartition, Long>> it = delayed.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<TopicPartition, Long> entry = it.next();
+            if (entry.getValue() <= now) {
+                it.remove();
+                if (resume) {
+                    consumer.resume(Collections.singleton(entry.getKey()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the time the first delayed partition is due.
+     *
+     * @return the time in milliseconds since the epoch, or
+     *         {@link Long#MAX_VALUE} if no partition is delayed.
+     */
+    long getFirstDue() {
+        return delayed.isEmpty() ? Long.MAX_VALUE : Collections.min(delayed.values());
+    }
+
+    boolean isEmpty() {
+        return delayed.isEmpty();
+    }
+
+    /**
+     * Gets the delayed partitions.
+     *
+     * @return the partitions, a view.
+     */
+    Set<TopicPartition> getPartitions() {
+        return Collections.unmodifiableSet(delayed.keySet());
+    }
+
+    /**
+     * Stops delaying given partitions, which are no longer assigned.
+     *
+     * @param partitions
+     *            the partitions.
+     */
+    void forget(Collection<TopicPartition> partitions) {
+        delayed.keySet().removeAll(partitions);
+    }
+}
@@ -0,0 +1,29 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import hudson.Extension;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+
+/**
+ * Publishes the started and completed events of remotely triggered builds.
+ */
+@Extension
+public class RunListenerImpl extends RunListener<Run<?, ?>> {
+
+    @Override
+    public void onStarted(Run<?, ?> run, TaskListener listener) {
+        BuildEventPublisher publisher = BuildEventPublisher.getInstance();
+        if (publisher != null) {
+            publisher.publish(BuildEventPublisher.STARTED, run);
+        }
+    }
+
+    @Override
+    public void onCompleted(Run<?, ?> run, TaskListener listener) {
+        BuildEventPublisher publisher = BuildEventPublisher.getInstance();
+        if (publisher != null) {
+            publisher.publish(BuildEventPublisher.COMPLETED, run);
+        }
+    }
+}
@@ -1,8 +1,21 @@
 package io.jenkins.plugins.kafkabuildtrigger;
 
-import java.util.Set;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+/**
+ * Registry of the started triggers, resolving the project of a message to
+ * the triggers to build.
+ *
+ * <p>Triggers are registered and removed under the lock of the manager, so
+ * concurrent changes of the same job keep the indexes consistent with each
+ * other. Messages are resolved without the lock, each lookup reading one
+ * concurrent map or array that is replaced as a whole.</p>
+ */
 public class TriggerManager {
 
     private static class InstanceHolder {
@@ -18,17 +31,115 @@ public class TriggerManager {
         return InstanceHolder.INSTANCE;
     }
 
+    private static final RemoteBuildTrigger[] NO_TRIGGERS = new RemoteBuildTrigger[0];
 
-    private final Set<RemoteBuildTrigger> triggers = new CopyOnWriteArraySet<RemoteBuildTrigger>();
+    private static final String[] DEFAULT_SUBSCRIPTIONS = { KafkaSubscription.DEFAULT_NAME };
 
+    /**
+     * Index per subscription from job name to the triggers registered under it.
+     * Every trigger is registered under its job full name and, when it differs,
+     * its short name so that messages addressed by either one are resolved with
+     * a single lookup.
+     */
+    private final ConcurrentMap<String, ConcurrentMap<String, RemoteBuildTrigger[]>> indexes = new ConcurrentHashMap<String, ConcurrentMap<String, RemoteBuildTrigger[]>>();
+
+    /**
+     * Registered trigger per job full name. A job owns at most one trigger, so
+     * registering a new trigger for a job replaces the previous one.
+     */
+    private final ConcurrentMap<String, RemoteBuildTrigger> jobs = new ConcurrentHashMap<String, RemoteBuildTrigger>();
+
+    /**
+     * Where each registered trigger is indexed, so it can be unregistered even
+     * after its job has been renamed.
+     */
+    private final ConcurrentMap<RemoteBuildTrigger, Registration> registered = new ConcurrentHashMap<RemoteBuildTrigger, Registration>();
+
+    /**
+     * Triggers per subscription by the path segments of their job full names,
+     * resolving messages that address jobs by pattern.
+     */
+    private final ConcurrentMap<String, TriggerPatternIndex> patternIndexes = new ConcurrentHashMap<String, TriggerPatternIndex>();
+
+    private volatile boolean ready;
+
+    /**
+     * Gets whether the triggers of all loaded jobs have been registered.
+     *
+     * @return true once the jobs have been loaded.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Marks the index as complete, once the triggers of all loaded jobs have
+     * been started.
+     */
+    void setReady() {
+        ready = true;
+    }
 
     /**
      * Get triggers.
      *
-     *       the triggers.
+     * @return the unmodifiable view of all registered triggers.
+     */
+    public Collection<RemoteBuildTrigger> getTriggers(){
+        return Collections.unmodifiableSet(registered.keySet());
+    }
+
+    /**
+     * Gets triggers of the default subscription registered under given project
+     * name.
+     *
+     * @param projectName
+     *            the job full name or short name.
+     * @return the matched triggers, or an empty array.
+     * @see #getTriggers(String, String)
+     */
+    public RemoteBuildTrigger[] getTriggers(String projectName) {
+        return getTriggers(KafkaSubscription.DEFAULT_NAME, projectName);
+    }
+
+    /**
+     * Gets triggers bound to given subscription registered under given project
+     * name. The returned array is shared and must not be modified.
+     *
+     * @param subscription
+     *            the subscription name.
+     * @param projectName
+     *            the job full name or short name.
+     * @return the matched triggers, or an empty array.
+     */
+    public RemoteBuildTrigger[] getTriggers(String subscription, String projectName) {
+        if (projectName == null) {
+            return NO_TRIGGERS;
+        }
+        ConcurrentMap<String, RemoteBuildTrigger[]> index = indexes.get(subscription);
+        if (index == null) {
+            return NO_TRIGGERS;
+        }
+        RemoteBuildTrigger[] triggers = index.get(projectName);
+        return triggers != null ? triggers : NO_TRIGGERS;
+    }
+
+    /**
+     * Gets triggers bound to given subscription whose job full names match
+     * given glob or regular expression. The returned array is shared and must
+     * not be modified.
+     *
+     * @param subscription
+     *            the subscription name.
+     * @param pattern
+     *            the pattern, see {@link TriggerPatternIndex}.
+     * @param regexAllowed
+     *            false if regular expressions match nothing.
+     * @return the matched triggers, or an empty array.
      */
-    public  Set<RemoteBuildTrigger> getTriggers(){
-        return this.triggers;
+    public RemoteBuildTrigger[] getMatchingTriggers(String subscription, String pattern, boolean regexAllowed) {
+        TriggerPatternIndex index = patternIndexes.get(subscription);
+        return index != null ? index.match(pattern, regexAllowed) : NO_TRIGGERS;
     }
 
     /**
@@ -38,7 +149,66 @@ public class TriggerManager {
      *            the trigger.
      */
     public void addTrigger(RemoteBuildTrigger trigger) {
-        triggers.add(trigger);
+        String fullName = trigger.getProjectFullName();
+        String name = trigger.getProjectName();
+        String[] names = fullName.equals(name) ? new String[] { fullName } : new String[] { fullName, name };
+        register(trigger, trigger.getSubscriptionNames(), names);
+    }
+
+    /**
+     * Adds trigger of the default subscription under given names.
+     *
+     * @param trigger
+     *            the trigger.
+     * @param names
+     *            the job full name followed by any other names to index the
+     *            trigger under.
+     */
+    void addTrigger(RemoteBuildTrigger trigger, String... names) {
+        register(trigger, DEFAULT_SUBSCRIPTIONS, names);
+    }
+
+    /**
+     * Adds trigger under given names, replacing any other trigger registered
+     * for the same job.
+     *
+     * @param trigger
+     *            the trigger.
+     * @param subscriptions
+     *            the subscriptions the trigger is bound to.
+     * @param names
+     *            the job full name followed by any other names to index the
+     *            trigger under.
+     */
+    synchronized void register(RemoteBuildTrigger trigger, String[] subscriptions, String[] names) {
+        Registration previous = registered.put(trigger, new Registration(subscriptions, names));
+        if (previous != null) {
+            jobs.remove(previous.names[0], trigger);
+            unindex(trigger, previous);
+        }
+        RemoteBuildTrigger replaced = jobs.put(names[0], trigger);
+        if (replaced != null && replaced != trigger) {
+            removeTrigger(replaced);
+        }
+        for (String subscription : subscriptions) {
+            ConcurrentMap<String, RemoteBuildTrigger[]> index = indexes.computeIfAbsent(subscription,
+                    k -> new ConcurrentHashMap<String, RemoteBuildTrigger[]>());
+            for (String name : names) {
+                index.compute(name, (k, triggers) -> append(triggers, trigger));
+            }
+            patternIndexes.computeIfAbsent(subscription, k -> new TriggerPatternIndex()).add(names[0], trigger);
+        }
+    }
+
+    /**
+     * Gets trigger registered for given job.
+     *
+     * @param fullName
+     *            the job full name.
+     * @return the trigger, or null if the job has none.
+     */
+    public RemoteBuildTrigger getTriggerByJob(String fullName) {
+        return jobs.get(fullName);
     }
 
     /**
@@ -47,15 +217,90 @@ public class TriggerManager {
      * @param trigger
      *            the trigger.
      */
-    public void removeTrigger(RemoteBuildTrigger trigger) {
-        triggers.remove(trigger);
+    public synchronized void removeTrigger(RemoteBuildTrigger trigger) {
+        Registration registration = registered.remove(trigger);
+        if (registration != null) {
+            jobs.remove(registration.names[0], trigger);
+            unindex(trigger, registration);
+        }
     }
 
     /**
-     * Creates instance.
+     * Removes the triggers of all jobs inside given folder.
+     *
+     * @param folderFullName
+     *            the folder full name.
      */
-    private TriggerManager() {
+    synchronized void removeTriggersIn(String folderFullName) {
+        String prefix = folderFullName + "/";
+        for (Map.Entry<String, RemoteBuildTrigger> entry : jobs.entrySet()) {
+            if (entry.getKey().startsWith(prefix)) {
+                removeTrigger(entry.getValue());
+            }
+        }
     }
 
+    private void unindex(RemoteBuildTrigger trigger, Registration registration) {
+        for (String subscription : registration.subscriptions) {
+            ConcurrentMap<String, RemoteBuildTrigger[]> index = indexes.get(subscription);
+            if (index != null) {
+                for (String name : registration.names) {
+                    index.computeIfPresent(name, (k, triggers) -> remove(triggers, trigger));
+                }
+            }
+            TriggerPatternIndex patternIndex = patternIndexes.get(subscription);
+            if (patternIndex != null) {
+                patternIndex.remove(registration.names[0], trigger);
+            }
+        }
+    }
 
+    private static RemoteBuildTrigger[] append(RemoteBuildTrigger[] triggers, RemoteBuildTrigger trigger) {
+        if (triggers == null) {
+            return new RemoteBuildTrigger[] { trigger };
+        }
+        for (RemoteBuildTrigger t : triggers) {
+            if (t == trigger) {
+                return triggers;
+            }
+        }
+        RemoteBuildTrigger[] result = Arrays.copyOf(triggers, triggers.length + 1);
+        result[triggers.length] = trigger;
+        return result;
+    }
+
+    private static RemoteBuildTrigger[] remove(RemoteBuildTrigger[] triggers, RemoteBuildTrigger trigger) {
+        for (int i = 0; i < triggers.length; i++) {
+            if (triggers[i] == trigger) {
+                if (triggers.length == 1) {
+                    return null;
+                }
+                RemoteBuildTrigger[] result = new RemoteBuildTrigger[triggers.length - 1];
+                System.arraycopy(triggers, 0, result, 0, i);
+                System.arraycopy(triggers, i + 1, result, i, triggers.length - i - 1);
+                return result;
+            }
+        }
+        return triggers;
+    }
+
+    /**
+     * Subscriptions and names a trigger is indexed under. The first name is
+     * the job full name.
+     */
+    private static final class Registration {
+        private final String[] subscriptions;
+        private final String[] names;
+
+        Registration(String[] subscriptions, String[] names) {
+            this.subscriptions = subscriptions;
+            this.names = names;
+        }
+    }
+
+    /**
+     * Creates instance.
+     */
+    TriggerManager() {
+    }
 }
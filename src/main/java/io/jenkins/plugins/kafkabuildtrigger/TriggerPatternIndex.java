@@ -0,0 +1,382 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Triggers of one subscription in a trie over the path segments of their job
+ * full names, resolving messages that address a family of jobs by pattern.
+ *
+ * <p>A project containing {@code *} or {@code ?}, which job names cannot
+ * contain, is a glob: {@code *} and {@code ?} match within a path segment and
+ * a {@code **} segment matches any number of segments, so
+ * {@code platform/*} addresses the jobs directly in folder {@code platform}
+ * and {@code platform/**} all jobs below it. A project starting with
+ * {@value #REGEX_PREFIX} is a regular expression over full names, matched in
+ * the subtree of its literal prefix only, if the global configuration allows
+ * it.</p>
+ *
+ * <p>Patterns come from producers, so they are bounded: patterns longer than
+ * {@value #MAX_PATTERN_LENGTH} characters match nothing, and so does a
+ * pattern whose resolution visits more than {@value #MAX_MATCH_STEPS} nodes
+ * and characters.</p>
+ *
+ * <p>Triggers are added and removed under the lock of the index, and messages
+ * are resolved without it against an immutable copy of the trie, taken after
+ * the first change. Matches are cached with that copy, so a pattern is
+ * compiled and the trie walked once, not per message. Once
+ * {@value #MAX_CACHED} patterns are cached, further ones are resolved per
+ * message.</p>
+ */
+final class TriggerPatternIndex {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TriggerPatternIndex.class);
+
+    /**
+     * The prefix of projects given as regular expression.
+     */
+    static final String REGEX_PREFIX = "regex:";
+
+    /**
+     * The maximum number of patterns whose matches are cached.
+     */
+    static final int MAX_CACHED = 1024;
+
+    /**
+     * The maximum length of a pattern.
+     */
+    static final int MAX_PATTERN_LENGTH = 256;
+
+    /**
+     * The maximum number of trie nodes and name characters resolving one
+     * pattern may visit.
+     */
+    static final int MAX_MATCH_STEPS = 1000000;
+
+    private static final RemoteBuildTrigger[] NO_TRIGGERS = new RemoteBuildTrigger[0];
+
+    private static final String REGEX_METACHARACTERS = "\\^$.|?*+()[]{}";
+
+    /** The root, guarded by this. */
+    private final Node root = new Node();
+
+    /** The copy messages are resolved against, null after a change. */
+    private volatile Snapshot snapshot;
+
+    /**
+     * Gets whether given project addresses jobs by pattern.
+     *
+     * @param project
+     *            the project of a message.
+     * @return true for a glob or a regular expression.
+     */
+    static boolean isPattern(String project) {
+        return project.indexOf('*') >= 0 || project.indexOf('?') >= 0 || project.startsWith(REGEX_PREFIX);
+    }
+
+    synchronized void add(String fullName, RemoteBuildTrigger trigger) {
+        Node node = root;
+        for (String segment : fullName.split("/")) {
+            node = node.children.computeIfAbsent(segment, k -> new Node());
+        }
+        node.fullName = fullName;
+        node.triggers.add(trigger);
+        snapshot = null;
+    }
+
+    synchronized void remove(String fullName, RemoteBuildTrigger trigger) {
+        if (remove(root, fullName.split("/"), 0, trigger)) {
+            snapshot = null;
+        }
+    }
+
+    /**
+     * Removes trigger below given node, pruning nodes left empty.
+     */
+    private static boolean remove(Node node, String[] segments, int index, RemoteBuildTrigger trigger) {
+        if (index == segments.length) {
+            return node.triggers.remove(trigger);
+        }
+        Node child = node.children.get(segments[index]);
+        if (child == null || !remove(child, segments, index + 1, trigger)) {
+            return false;
+        }
+        if (child.triggers.isEmpty() && child.children.isEmpty()) {
+            node.children.remove(segments[index]);
+        }
+        return true;
+    }
+
+    /**
+     * Gets the triggers of the jobs given pattern matches. The returned array
+     * is shared and must not be modified.
+     *
+     * @param pattern
+     *            the glob, or the regular expression with its prefix.
+     * @param regexAllowed
+     *            false if regular expressions match nothing.
+     * @return the triggers, or an empty array.
+     */
+    RemoteBuildTrigger[] match(String pattern, boolean regexAllowed) {
+        if (pattern.length() > MAX_PATTERN_LENGTH) {
+            LOGGER.debug("Ignoring project pattern of {} characters", pattern.length());
+            return NO_TRIGGERS;
+        }
+        if (!regexAllowed && pattern.startsWith(REGEX_PREFIX)) {
+            LOGGER.debug("Ignoring project pattern {}: regular expressions are not allowed", pattern);
+            return NO_TRIGGERS;
+        }
+        Snapshot current = snapshot;
+        if (current == null) {
+            current = takeSnapshot();
+        }
+        RemoteBuildTrigger[] triggers = current.matches.get(pattern);
+        if (triggers == null) {
+            triggers = resolve(current.root, pattern);
+            if (current.matches.size() < MAX_CACHED) {
+                current.matches.put(pattern, triggers);
+            }
+        }
+        return triggers;
+    }
+
+    private synchronized Snapshot takeSnapshot() {
+        if (snapshot == null) {
+            snapshot = new Snapshot(new Frozen(root));
+        }
+        return snapshot;
+    }
+
+    private static RemoteBuildTrigger[] resolve(Frozen root, String pattern) {
+        Set<RemoteBuildTrigger> found = new LinkedHashSet<RemoteBuildTrigger>();
+        Steps steps = new Steps();
+        try {
+            if (pattern.startsWith(REGEX_PREFIX)) {
+                String regex = pattern.substring(REGEX_PREFIX.length());
+                try {
+                    matchRegex(root, Pattern.compile(regex), literalPrefix(regex), steps, found);
+                } catch (PatternSyntaxException e) {
+                    LOGGER.warn("Ignoring invalid project pattern {}: {}", regex, e.getDescription());
+                }
+            } else {
+                matchGlob(root, pattern.split("/"), 0, steps, found);
+            }
+        } catch (TooManyStepsException e) {
+            LOGGER.warn("Ignoring project pattern {}: matching it takes more than {} steps", pattern,
+                    MAX_MATCH_STEPS);
+            return NO_TRIGGERS;
+        }
+        return found.isEmpty() ? NO_TRIGGERS : found.toArray(NO_TRIGGERS);
+    }
+
+    private static void matchGlob(Frozen node, String[] segments, int index, Steps steps,
+                                  Set<RemoteBuildTrigger> found) {
+        steps.take(1);
+        if (index == segments.length) {
+            Collections.addAll(found, node.triggers);
+            return;
+        }
+        String segment = segments[index];
+        if (segment.equals("**")) {
+            if (index + 1 < segments.length && segments[index + 1].equals("**")) {
+                // Consecutive ones match the same.
+                matchGlob(node, segments, index + 1, steps, found);
+                return;
+            }
+            matchGlob(node, segments, index + 1, steps, found);
+            for (Frozen child : node.children.values()) {
+                matchGlob(child, segments, index, steps, found);
+            }
+        } else if (segment.indexOf('*') < 0 && segment.indexOf('?') < 0) {
+            Frozen child = node.children.get(segment);
+            if (child != null) {
+                matchGlob(child, segments, index + 1, steps, found);
+            }
+        } else {
+            for (Map.Entry<String, Frozen> entry : node.children.entrySet()) {
+                steps.take(entry.getKey().length());
+                if (matchesSegment(segment, entry.getKey())) {
+                    matchGlob(entry.getValue(), segments, index + 1, steps, found);
+                }
+            }
+        }
+    }
+
+    /**
+     * Matches a glob segment of {@code *} and {@code ?} wildcards, going back
+     * to the last {@code *} on a mismatch.
+     */
+    static boolean matchesSegment(String glob, String name) {
+        int g = 0;
+        int n = 0;
+        int star = -1;
+        int starName = 0;
+        while (n < name.length()) {
+            if (g < glob.length() && (glob.charAt(g) == '?' || glob.charAt(g) == name.charAt(n))) {
+                g++;
+                n++;
+            } else if (g < glob.length() && glob.charAt(g) == '*') {
+                star = g++;
+                starName = n;
+            } else if (star >= 0) {
+                g = star + 1;
+                n = ++starName;
+            } else {
+                return false;
+            }
+        }
+        while (g < glob.length() && glob.charAt(g) == '*') {
+            g++;
+        }
+        return g == glob.length();
+    }
+
+    /**
+     * Matches given expression against the jobs in the folder its literal
+     * prefix names, or against all jobs if the prefix names no folder.
+     */
+    private static void matchRegex(Frozen root, Pattern regex, String prefix, Steps steps,
+                                   Set<RemoteBuildTrigger> found) {
+        Frozen node = root;
+        int end = prefix.lastIndexOf('/');
+        if (end > 0) {
+            for (String segment : prefix.substring(0, end).split("/")) {
+                node = node.children.get(segment);
+                if (node == null) {
+                    return;
+                }
+            }
+        }
+        collect(node, regex, steps, found);
+    }
+
+    private static void collect(Frozen node, Pattern regex, Steps steps, Set<RemoteBuildTrigger> found) {
+        steps.take(1);
+        if (node.triggers.length > 0 && regex.matcher(new CountedName(node.fullName, steps)).matches()) {
+            Collections.addAll(found, node.triggers);
+        }
+        for (Frozen child : node.children.values()) {
+            collect(child, regex, steps, found);
+        }
+    }
+
+    /**
+     * Gets the leading part of given expression matching only itself. A
+     * quantifier makes the character before it optional, so it is dropped,
+     * and an alternation leaves no prefix every match shares.
+     */
+    static String literalPrefix(String regex) {
+        if (regex.indexOf('|') >= 0) {
+            return "";
+        }
+        int end = 0;
+        while (end < regex.length() && REGEX_METACHARACTERS.indexOf(regex.charAt(end)) < 0) {
+            end++;
+        }
+        if (end > 0 && end < regex.length() && "?*{".indexOf(regex.charAt(end)) >= 0) {
+            end--;
+        }
+        return regex.substring(0, end);
+    }
+
+    private static final class Node {
+        private final Map<String, Node> children = new HashMap<String, Node>();
+        private final Set<RemoteBuildTrigger> triggers = new LinkedHashSet<RemoteBuildTrigger>();
+        private String fullName;
+    }
+
+    /**
+     * Immutable copy of a node and its children.
+     */
+    private static final class Frozen {
+        private final Map<String, Frozen> children;
+        private final RemoteBuildTrigger[] triggers;
+        private final String fullName;
+
+        Frozen(Node node) {
+            Map<String, Frozen> copies = new HashMap<String, Frozen>(node.children.size() * 2);
+            for (Map.Entry<String, Node> entry : node.children.entrySet()) {
+                copies.put(entry.getKey(), new Frozen(entry.getValue()));
+            }
+            this.children = copies.isEmpty() ? Collections.<String, Frozen>emptyMap() : copies;
+            this.triggers = node.triggers.toArray(NO_TRIGGERS);
+            this.fullName = node.fullName;
+        }
+    }
+
+    private static final class Snapshot {
+        private final Frozen root;
+        private final ConcurrentMap<String, RemoteBuildTrigger[]> matches = new ConcurrentHashMap<String, RemoteBuildTrigger[]>();
+
+        Snapshot(Frozen root) {
+            this.root = root;
+        }
+    }
+
+    /**
+     * The steps left to resolve a pattern.
+     */
+    private static final class Steps {
+        private long left = MAX_MATCH_STEPS;
+
+        void take(int count) {
+            left -= count;
+            if (left < 0) {
+                throw new TooManyStepsException();
+            }
+        }
+    }
+
+    private static final class TooManyStepsException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        TooManyStepsException() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * A job full name taking a step for every character a regular expression
+     * reads, so that backtracking is bounded.
+     */
+    private static final class CountedName implements CharSequence {
+        private final String name;
+        private final Steps steps;
+
+        CountedName(String name, Steps steps) {
+            this.name = name;
+            this.steps = steps;
+        }
+
+        @Override
+        public int length() {
+            return name.length();
+        }
+
+        @Override
+        public char charAt(int index) {
+            steps.take(1);
+            return name.charAt(index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new CountedName(name.substring(start, end), steps);
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaNormalization;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.message.BinaryMessageDecoder;
+import org.apache.avro.message.BinaryMessageEncoder;
+import org.apache.kafka.common.errors.SerializationException;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class AvroBuildMessageCodecTest {
+
+    private static Schema schema;
+    private static Schema parameterSchema;
+
+    private final AvroBuildMessageCodec codec = new AvroBuildMessageCodec();
+
+    @BeforeClass
+    public static void parseSchema() throws IOException {
+        try (InputStream in = AvroBuildMessageCodec.class.getResourceAsStream("BuildMessage.avsc")) {
+            schema = new Schema.Parser().parse(in);
+        }
+        parameterSchema = schema.getField("parameter").schema().getTypes().get(1).getElementType();
+    }
+
+    @Test
+    public void canonicalSchemaIsTheParsingFormOfTheSchemaFile() {
+        assertEquals(SchemaNormalization.toParsingForm(schema), AvroBuildMessageCodec.CANONICAL_SCHEMA);
+    }
+
+    @Test
+    public void fingerprintIsTheFingerprintOfTheSchemaFile() {
+        assertEquals(SchemaNormalization.parsingFingerprint64(schema), AvroBuildMessageCodec.FINGERPRINT);
+    }
+
+    @Test
+    public void avroDecodesEncodedMessages() throws IOException {
+        BinaryMessageDecoder<GenericRecord> decoder = new BinaryMessageDecoder<GenericRecord>(GenericData.get(),
+                schema);
+
+        GenericRecord record = decoder.decode(codec.encode(new BuildMessage("folder/job", "secret",
+                new String[] { "BRANCH", "main", "EMPTY", null })));
+        assertEquals("folder/job", record.get("project").toString());
+        assertEquals("secret", record.get("token").toString());
+        List<?> parameters = (List<?>) record.get("parameter");
+        assertEquals(2, parameters.size());
+        assertEquals("BRANCH", ((GenericRecord) parameters.get(0)).get("name").toString());
+        assertEquals("main", ((GenericRecord) parameters.get(0)).get("value").toString());
+        assertEquals("EMPTY", ((GenericRecord) parameters.get(1)).get("name").toString());
+        assertNull(((GenericRecord) parameters.get(1)).get("value"));
+
+        record = decoder.decode(codec.encode(new BuildMessage("job", null, new String[0])));
+        assertNull(record.get("token"));
+        assertEquals(0, ((List<?>) record.get("parameter")).size());
+
+        record = decoder.decode(codec.encode(new BuildMessage("job", null, null)));
+        assertNull(record.get("parameter"));
+    }
+
+    @Test
+    public void decodesMessagesEncodedByAvro() throws IOException {
+        BinaryMessageEncoder<GenericRecord> encoder = new BinaryMessageEncoder<GenericRecord>(GenericData.get(),
+                schema);
+
+        BuildMessage message = codec.decode("builds", bytes(encoder.encode(record("folder/job", "secret",
+                parameter("BRANCH", "main"), parameter("EMPTY", null)))));
+        assertEquals("folder/job", message.getProject());
+        assertEquals("secret", message.getToken());
+        assertArrayEquals(new String[] { "BRANCH", "main", "EMPTY", null }, message.getParameters());
+
+        message = codec.decode("builds", bytes(encoder.encode(record("job", null))));
+        assertNull(message.getToken());
+        assertEquals(0, message.getParameterCount());
+
+        GenericRecord record = record("job", null);
+        record.put("parameter", null);
+        message = codec.decode("builds", bytes(encoder.encode(record)));
+        assertFalse(message.hasParameters());
+    }
+
+    @Test
+    public void decodesPlainBinaryData() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+        new GenericDatumWriter<GenericRecord>(schema).write(record("job", "secret", parameter("A", "1")), encoder);
+        encoder.flush();
+
+        BuildMessage message = codec.decode("builds", out.toByteArray());
+        assertEquals("job", message.getProject());
+        assertEquals("secret", message.getToken());
+        assertArrayEquals(new String[] { "A", "1" }, message.getParameters());
+    }
+
+    @Test(expected = SerializationException.class)
+    public void rejectsOtherSchemas() throws IOException {
+        Schema other = new Schema.Parser().parse("{\"type\":\"record\",\"name\":\"Other\",\"fields\":"
+                + "[{\"name\":\"project\",\"type\":\"string\"}]}");
+        GenericRecord record = new GenericData.Record(other);
+        record.put("project", "job");
+        codec.decode("builds", bytes(new BinaryMessageEncoder<GenericRecord>(GenericData.get(), other)
+                .encode(record)));
+    }
+
+    private static GenericRecord record(String project, String token, GenericRecord... parameters) {
+        GenericRecord record = new GenericData.Record(schema);
+        record.put("project", project);
+        record.put("token", token);
+        record.put("parameter", new ArrayList<GenericRecord>(Arrays.asList(parameters)));
+        return record;
+    }
+
+    private static GenericRecord parameter(String name, String value) {
+        GenericRecord parameter = new GenericData.Record(parameterSchema);
+        parameter.put("name", name);
+        parameter.put("value", value);
+        return parameter;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
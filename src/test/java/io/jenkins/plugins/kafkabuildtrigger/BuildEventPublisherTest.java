@@ -0,0 +1,164 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import hudson.model.Action;
+import hudson.model.Cause;
+import hudson.model.CauseAction;
+import hudson.model.FreeStyleProject;
+import hudson.model.Queue;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BuildEventPublisherTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private final ConsumerMetrics metrics = ConsumerMetrics.getInstance();
+
+    @Test
+    public void dropsOldestEventsWhenBufferIsFull() throws InterruptedException {
+        BlockingProducer producer = new BlockingProducer();
+        BuildEventPublisher publisher = new BuildEventPublisher("events", producer);
+        long dropped = metrics.getEventsDropped();
+
+        publish(publisher, "id-0");
+        // The sender holds the first event until released.
+        assertTrue(producer.sending.await(10, TimeUnit.SECONDS));
+        int count = BuildEventPublisher.MAX_PENDING + 3;
+        for (int i = 1; i < count; i++) {
+            publish(publisher, "id-" + i);
+        }
+        assertEquals(dropped + 2, metrics.getEventsDropped());
+
+        producer.release.countDown();
+        publisher.close();
+        List<ProducerRecord<byte[], byte[]>> history = producer.history();
+        assertEquals(BuildEventPublisher.MAX_PENDING + 1, history.size());
+        assertEquals("id-0", key(history.get(0)));
+        assertEquals("id-3", key(history.get(1)));
+        assertEquals("id-" + (count - 1), key(history.get(history.size() - 1)));
+    }
+
+    @Test
+    public void keysEventsByJobWithoutCorrelationId() {
+        MockProducer<byte[], byte[]> producer = mockProducer();
+        BuildEventPublisher publisher = new BuildEventPublisher("events", producer);
+
+        publisher.publish(BuildEventPublisher.QUEUED, Arrays.<Cause>asList(new RemoteBuildCause("builds"),
+                new Cause.UserIdCause(), new RemoteBuildCause("builds", "id-1")), "platform/api", 7, 1000, null);
+        publisher.close();
+
+        List<ProducerRecord<byte[], byte[]>> history = producer.history();
+        assertEquals(2, history.size());
+        assertEquals("events", history.get(0).topic());
+        assertEquals("platform/api", key(history.get(0)));
+        assertTrue(value(history.get(0)).contains("\"correlationId\":null"));
+        assertEquals("id-1", key(history.get(1)));
+        assertTrue(value(history.get(1)).contains("\"queuedAt\":1000"));
+    }
+
+    @Test
+    public void publishesQueuedEventOfBuildFoldedIntoWaitingItem() throws Exception {
+        FreeStyleProject project = j.createFreeStyleProject("api");
+        Queue queue = j.jenkins.getQueue();
+        RemoteBuildCause first = new RemoteBuildCause("builds", "id-1");
+        RemoteBuildCause second = new RemoteBuildCause("builds", "id-2");
+        assertTrue(queue.schedule2(project, 3600, new CauseAction(first)).isCreated());
+        // Equal to the waiting build, so the queue folds it into that item.
+        Action[] actions = { new CauseAction(second) };
+        assertFalse(queue.schedule2(project, 3600, actions).isCreated());
+        Queue.Item item = queue.getItem(project);
+        assertTrue(item.getCauses().contains(second));
+
+        MockProducer<byte[], byte[]> producer = mockProducer();
+        BuildEventPublisher publisher = new BuildEventPublisher("events", producer);
+        publisher.publishFolded(project, actions);
+        // Published once only.
+        publisher.publishFolded(project, actions);
+        publisher.close();
+        queue.clear();
+
+        List<ProducerRecord<byte[], byte[]>> history = producer.history();
+        assertEquals(1, history.size());
+        assertEquals("id-2", key(history.get(0)));
+        String value = value(history.get(0));
+        assertTrue(value.contains("\"type\":\"queued\""));
+        assertTrue(value.contains("\"job\":\"api\""));
+        assertTrue(value.contains("\"queueId\":" + item.getId()));
+    }
+
+    @Test
+    public void sendsPendingEventsOnClose() {
+        MockProducer<byte[], byte[]> producer = mockProducer();
+        BuildEventPublisher publisher = new BuildEventPublisher("events", producer);
+        for (int i = 0; i < 1000; i++) {
+            publish(publisher, "id-" + i);
+        }
+        publisher.close();
+
+        assertEquals(1000, producer.history().size());
+        assertTrue(producer.closed());
+        // Closed publishers ignore further events.
+        publish(publisher, "late");
+        assertEquals(1000, producer.history().size());
+    }
+
+    private static void publish(BuildEventPublisher publisher, String correlationId) {
+        publisher.publish(BuildEventPublisher.QUEUED,
+                Collections.<Cause>singletonList(new RemoteBuildCause("builds", correlationId)), "api", 1, 1, null);
+    }
+
+    private static MockProducer<byte[], byte[]> mockProducer() {
+        return new MockProducer<byte[], byte[]>(true, new ByteArraySerializer(), new ByteArraySerializer());
+    }
+
+    private static String key(ProducerRecord<byte[], byte[]> record) {
+        return new String(record.key(), StandardCharsets.UTF_8);
+    }
+
+    private static String value(ProducerRecord<byte[], byte[]> record) {
+        return new String(record.value(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Producer whose first send waits until released, as on a full producer
+     * buffer.
+     */
+    private static final class BlockingProducer extends MockProducer<byte[], byte[]> {
+        private final CountDownLatch sending = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        BlockingProducer() {
+            super(true, new ByteArraySerializer(), new ByteArraySerializer());
+        }
+
+        @Override
+        public Future<RecordMetadata> send(ProducerRecord<byte[], byte[]> record, Callback callback) {
+            sending.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.send(record, callback);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@SuppressWarnings("rawtypes")
+public class CoalescerTest {
+
+    private final RemoteBuildTrigger trigger = new RemoteBuildTrigger("secret");
+    private final List<String[]> parameters = new ArrayList<String[]>();
+    private final List<String[]> correlationIds = new ArrayList<String[]>();
+    private final BuildSink sink = (t, topicName, p, ids, records) -> {
+        parameters.add(p);
+        correlationIds.add(ids);
+    };
+
+    @Test
+    public void keepsCorrelationIdsOfAbsorbedMessages() {
+        Coalescer coalescer = new Coalescer(60000, CoalesceMode.LAST_WINS);
+
+        assertFalse(coalescer.offer(trigger, "builds", new String[] { "A", "1" }, ids("id-1"), null));
+        assertTrue(coalescer.offer(trigger, "builds", new String[] { "A", "2" }, ids("id-2"), null));
+        assertTrue(coalescer.offer(trigger, "builds", new String[] { "A", "3" }, ids("id-3", "id-4"), null));
+        coalescer.drainAll(sink);
+
+        assertEquals(1, correlationIds.size());
+        assertArrayEquals(ids("id-1", "id-2", "id-3", "id-4"), correlationIds.get(0));
+        assertArrayEquals(new String[] { "A", "3" }, parameters.get(0));
+        assertEquals(2, coalescer.getAbsorbedCount());
+        assertFalse(coalescer.hasPending());
+    }
+
+    @Test
+    public void coalescesOnlyEqualParameters() {
+        Coalescer coalescer = new Coalescer(60000, CoalesceMode.EQUAL_PARAMETERS);
+
+        assertFalse(coalescer.offer(trigger, "builds", new String[] { "A", "1" }, ids("id-1"), null));
+        assertFalse(coalescer.offer(trigger, "builds", new String[] { "A", "2" }, ids("id-2"), null));
+        assertTrue(coalescer.offer(trigger, "builds", new String[] { "A", "1" }, ids("id-3"), null));
+        coalescer.drainAll(sink);
+
+        assertEquals(2, correlationIds.size());
+        assertArrayEquals(ids("id-1", "id-3"), correlationIds.get(0));
+        assertArrayEquals(ids("id-2"), correlationIds.get(1));
+    }
+
+    @Test
+    public void drainsOnlyBuildsWhoseWindowHasClosed() {
+        Coalescer coalescer = new Coalescer(60000, CoalesceMode.LAST_WINS);
+        coalescer.offer(trigger, "builds", null, null, null);
+
+        coalescer.drainDue(sink);
+        assertTrue(correlationIds.isEmpty());
+        assertTrue(coalescer.hasPending());
+
+        coalescer = new Coalescer(0, CoalesceMode.LAST_WINS);
+        coalescer.offer(trigger, "builds", null, null, null);
+        coalescer.drainDue(sink);
+        assertEquals(1, correlationIds.size());
+        assertNull(correlationIds.get(0));
+    }
+
+    private static String[] ids(String... ids) {
+        return ids;
+    }
+}
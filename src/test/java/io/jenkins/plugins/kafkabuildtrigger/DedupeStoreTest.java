@@ -0,0 +1,73 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DedupeStoreTest {
+
+    private static final long NOW = 1700000000000L;
+    private static final long TTL_MILLIS = 60000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsIdentitiesBackOnOpen() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("dedupe.bin");
+        DedupeStore store = DedupeStore.open(file, NOW);
+        assertTrue(store.markSeen(1, NOW, TTL_MILLIS));
+        assertTrue(store.markSeen(2, NOW, 1));
+        store.close();
+
+        store = DedupeStore.open(file, NOW + 10);
+        assertFalse(store.markSeen(1, NOW + 10, TTL_MILLIS));
+        assertTrue(store.markSeen(2, NOW + 10, TTL_MILLIS));
+        store.close();
+    }
+
+    @Test
+    public void compactionReplacesFileWithLiveEntries() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("dedupe.bin");
+        DedupeStore store = DedupeStore.open(file, NOW);
+        for (long id = 1; id <= DedupeStore.INITIAL_CAPACITY; id++) {
+            store.markSeen(id, NOW, id % 2 == 0 ? TTL_MILLIS : 1);
+        }
+        // Kept on the heap only while the file is full.
+        assertTrue(store.markSeen(-1, NOW, TTL_MILLIS));
+
+        store.compact(NOW + 10);
+        assertTrue(store.markSeen(-2, NOW + 10, TTL_MILLIS));
+        store.close();
+
+        assertFalse(Files.exists(file.resolveSibling("dedupe.bin.compact")));
+        store = DedupeStore.open(file, NOW + 10);
+        assertEquals(DedupeStore.INITIAL_CAPACITY / 2 + 2, store.size());
+        assertFalse(store.markSeen(2, NOW + 10, TTL_MILLIS));
+        assertTrue(store.markSeen(3, NOW + 10, TTL_MILLIS));
+        assertFalse(store.markSeen(-1, NOW + 10, TTL_MILLIS));
+        assertFalse(store.markSeen(-2, NOW + 10, TTL_MILLIS));
+        assertEquals(4 * (DedupeStore.INITIAL_CAPACITY / 2 + 1), store.getCapacity());
+        store.close();
+    }
+
+    @Test
+    public void reservedIdentitiesAreRecordedOnCompletion() throws IOException {
+        DedupeStore store = DedupeStore.open(folder.getRoot().toPath().resolve("dedupe.bin"), NOW);
+        assertTrue(store.reserve(1, NOW));
+        assertFalse(store.reserve(1, NOW));
+        store.cancel(1);
+        assertTrue(store.reserve(1, NOW));
+        store.complete(1, NOW, TTL_MILLIS);
+        assertFalse(store.reserve(1, NOW));
+        store.close();
+    }
+}
@@ -0,0 +1,101 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FailurePublisherTest {
+
+    private final ConsumerMetrics metrics = ConsumerMetrics.getInstance();
+
+    @Test
+    public void publishesRecordsAndClosesProducer() {
+        MockProducer<byte[], byte[]> producer = new MockProducer<byte[], byte[]>(true, new ByteArraySerializer(),
+                new ByteArraySerializer());
+        FailurePublisher publisher = new FailurePublisher(producer, metrics);
+        long dropped = metrics.getFailuresDropped();
+
+        publisher.publish(record("dead-letter", "first"));
+        publisher.publish(record("retry", "second"));
+        publisher.close();
+
+        List<ProducerRecord<byte[], byte[]>> history = producer.history();
+        assertEquals(2, history.size());
+        assertEquals("dead-letter", history.get(0).topic());
+        assertArrayEquals(bytes("first"), history.get(0).value());
+        assertEquals("retry", history.get(1).topic());
+        assertArrayEquals(bytes("second"), history.get(1).value());
+        assertTrue(producer.closed());
+        assertEquals(dropped, metrics.getFailuresDropped());
+    }
+
+    @Test
+    public void countsRecordsTheClusterDoesNotAccept() throws InterruptedException {
+        MockProducer<byte[], byte[]> producer = new MockProducer<byte[], byte[]>(false, new ByteArraySerializer(),
+                new ByteArraySerializer());
+        FailurePublisher publisher = new FailurePublisher(producer, metrics);
+        long dropped = metrics.getFailuresDropped();
+
+        publisher.publish(record("dead-letter", "value"));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (producer.history().isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(producer.errorNext(new RuntimeException("not leader")));
+
+        assertEquals(dropped + 1, metrics.getFailuresDropped());
+        publisher.close();
+    }
+
+    @Test
+    public void countsRecordsTheProducerRejects() {
+        MockProducer<byte[], byte[]> producer = new MockProducer<byte[], byte[]>(true, new ByteArraySerializer(),
+                new ByteArraySerializer());
+        producer.close();
+        FailurePublisher publisher = new FailurePublisher(producer, metrics);
+        long dropped = metrics.getFailuresDropped();
+
+        publisher.publish(record("dead-letter", "value"));
+        publisher.close();
+
+        assertTrue(producer.history().isEmpty());
+        assertEquals(dropped + 1, metrics.getFailuresDropped());
+    }
+
+    @Test
+    public void closesSharedPublisherOnLastRelease() {
+        int count = FailurePublisher.getPublisherCount();
+        FailurePublisher first = FailurePublisher.acquire("localhost:9092", "", metrics);
+        FailurePublisher second = FailurePublisher.acquire("localhost:9092", "", metrics);
+        assertSame(first, second);
+        assertEquals(count + 1, FailurePublisher.getPublisherCount());
+
+        first.release();
+        assertEquals(count + 1, FailurePublisher.getPublisherCount());
+        second.release();
+        assertEquals(count, FailurePublisher.getPublisherCount());
+
+        FailurePublisher third = FailurePublisher.acquire("localhost:9092", "", metrics);
+        assertNotSame(first, third);
+        third.release();
+        assertEquals(count, FailurePublisher.getPublisherCount());
+    }
+
+    private static ProducerRecord<byte[], byte[]> record(String topic, String value) {
+        return new ProducerRecord<byte[], byte[]>(topic, bytes(value));
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,173 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FailureRouterTest {
+
+    private static final long RETRY_DELAY_MILLIS = 60000;
+
+    private final ConsumerMetrics metrics = ConsumerMetrics.getInstance();
+    private final MockProducer<byte[], byte[]> producer = new MockProducer<byte[], byte[]>(true,
+            new ByteArraySerializer(), new ByteArraySerializer());
+    private final FailurePublisher publisher = new FailurePublisher(producer, metrics);
+    private final BuildMessageCodec codec = new JsonBuildMessageCodec();
+    @SuppressWarnings("rawtypes")
+    private final RemoteBuildTrigger trigger = new RemoteBuildTrigger("secret");
+
+    @Test
+    public void retriesRefusedBuildThroughRetryTopic() {
+        FailureRouter router = new FailureRouter(publisher, "ci", "dead-letter", "retry", RETRY_DELAY_MILLIS, codec,
+                metrics);
+        long retried = metrics.getRetried();
+        long before = System.currentTimeMillis();
+
+        router.buildFailed(trigger, "builds", new String[] { "BRANCH", "main" }, new String[] { "id-1" }, true,
+                "refused");
+
+        ProducerRecord<byte[], byte[]> record = published();
+        assertEquals("retry", record.topic());
+        assertEquals("builds", header(record, FailureRouter.ORIGINAL_TOPIC_HEADER));
+        assertEquals("ci", header(record, FailureRouter.SUBSCRIPTION_HEADER));
+        assertEquals("id-1", header(record, FailureRouter.CORRELATION_ID_HEADER));
+        assertEquals("refused", header(record, FailureRouter.REASON_HEADER));
+        long retryAt = Long.parseLong(header(record, FailureRouter.RETRY_AT_HEADER));
+        assertTrue(retryAt >= before + RETRY_DELAY_MILLIS);
+        assertTrue(retryAt <= System.currentTimeMillis() + RETRY_DELAY_MILLIS);
+        assertEquals(retried + 1, metrics.getRetried());
+
+        BuildMessage message = codec.decode("retry", record.value());
+        assertEquals("secret", message.getToken());
+        assertArrayEquals(new String[] { "BRANCH", "main" }, message.getParameters());
+    }
+
+    @Test
+    public void deadLettersBuildRefusedAgainOnRetry() {
+        FailureRouter router = new FailureRouter(publisher, "ci", "dead-letter", "retry", RETRY_DELAY_MILLIS, codec,
+                metrics);
+        long deadLettered = metrics.getDeadLettered();
+
+        router.buildFailed(trigger, "retry", null, null, true, "refused");
+
+        ProducerRecord<byte[], byte[]> record = published();
+        assertEquals("dead-letter", record.topic());
+        assertEquals("retry", header(record, FailureRouter.ORIGINAL_TOPIC_HEADER));
+        assertNull(record.headers().lastHeader(FailureRouter.RETRY_AT_HEADER));
+        assertNull(record.headers().lastHeader(FailureRouter.CORRELATION_ID_HEADER));
+        assertEquals(deadLettered + 1, metrics.getDeadLettered());
+    }
+
+    @Test
+    public void deadLettersBuildThatCannotSucceedOnRetry() {
+        FailureRouter router = new FailureRouter(publisher, "ci", "dead-letter", "retry", RETRY_DELAY_MILLIS, codec,
+                metrics);
+
+        router.buildFailed(trigger, "builds", null, new String[] { "id-1" }, false, "no such parameter");
+
+        ProducerRecord<byte[], byte[]> record = published();
+        assertEquals("dead-letter", record.topic());
+        assertEquals("no such parameter", header(record, FailureRouter.REASON_HEADER));
+    }
+
+    @Test
+    public void keepsEveryCorrelationIdOfCoalescedBuild() {
+        FailureRouter router = new FailureRouter(publisher, "ci", "dead-letter", "retry", RETRY_DELAY_MILLIS, codec,
+                metrics);
+
+        router.buildFailed(trigger, "builds", null, new String[] { "id-1", "id-2" }, true, "refused");
+
+        Header[] headers = published().headers().toArray();
+        int found = 0;
+        for (Header header : headers) {
+            if (header.key().equals(FailureRouter.CORRELATION_ID_HEADER)) {
+                assertEquals(found == 0 ? "id-1" : "id-2", new String(header.value(), StandardCharsets.UTF_8));
+                found++;
+            }
+        }
+        assertEquals(2, found);
+    }
+
+    @Test
+    public void dropsBuildWithoutTopicForFailure() {
+        FailureRouter router = new FailureRouter(publisher, "ci", null, "retry", RETRY_DELAY_MILLIS, codec,
+                metrics);
+
+        router.buildFailed(trigger, "retry", null, null, true, "refused");
+        router.deadLetter(new ConsumerRecord<byte[], byte[]>("builds", 0, 0, null, bytes("{")), "malformed");
+        publisher.close();
+
+        assertTrue(producer.history().isEmpty());
+    }
+
+    @Test
+    public void deadLettersRecordAsItWasRead() {
+        FailureRouter router = new FailureRouter(publisher, "ci", "dead-letter", null, RETRY_DELAY_MILLIS, codec,
+                metrics);
+        ConsumerRecord<byte[], byte[]> read = new ConsumerRecord<byte[], byte[]>("builds", 2, 42, bytes("key"),
+                bytes("{"));
+        read.headers().add(ConsumerThread.PROJECT_HEADER, bytes("folder/job"));
+
+        router.deadLetter(read, "malformed");
+
+        ProducerRecord<byte[], byte[]> record = published();
+        assertEquals("dead-letter", record.topic());
+        assertArrayEquals(bytes("key"), record.key());
+        assertArrayEquals(bytes("{"), record.value());
+        assertEquals("folder/job", header(record, ConsumerThread.PROJECT_HEADER));
+        assertEquals("builds", header(record, FailureRouter.ORIGINAL_TOPIC_HEADER));
+        assertEquals("2", header(record, FailureRouter.ORIGINAL_PARTITION_HEADER));
+        assertEquals("42", header(record, FailureRouter.ORIGINAL_OFFSET_HEADER));
+        assertEquals("malformed", header(record, FailureRouter.REASON_HEADER));
+    }
+
+    @Test
+    public void scopesRetriedRecordsToTheirSubscription() {
+        ConsumerRecord<byte[], byte[]> scoped = new ConsumerRecord<byte[], byte[]>("retry", 0, 0, null, bytes("{}"));
+        scoped.headers().add(FailureRouter.SUBSCRIPTION_HEADER, bytes("ci"));
+        ConsumerRecord<byte[], byte[]> unscoped = new ConsumerRecord<byte[], byte[]>("retry", 0, 1, null,
+                bytes("{}"));
+
+        assertTrue(FailureRouter.isRetriedBy(scoped, "ci"));
+        assertFalse(FailureRouter.isRetriedBy(scoped, "release"));
+        assertTrue(FailureRouter.isRetriedBy(unscoped, "release"));
+    }
+
+    @Test
+    public void readsRetryTime() {
+        ConsumerRecord<byte[], byte[]> record = new ConsumerRecord<byte[], byte[]>("retry", 0, 0, null, bytes("{}"));
+        assertEquals(0, FailureRouter.getRetryAt(record));
+        record.headers().add(FailureRouter.RETRY_AT_HEADER, bytes("1700000000000"));
+        assertEquals(1700000000000L, FailureRouter.getRetryAt(record));
+        record.headers().add(FailureRouter.RETRY_AT_HEADER, bytes("soon"));
+        assertEquals(0, FailureRouter.getRetryAt(record));
+    }
+
+    private ProducerRecord<byte[], byte[]> published() {
+        publisher.close();
+        List<ProducerRecord<byte[], byte[]>> history = producer.history();
+        assertEquals(1, history.size());
+        return history.get(0);
+    }
+
+    private static String header(ProducerRecord<byte[], byte[]> record, String name) {
+        Header header = record.headers().lastHeader(name);
+        return header != null ? new String(header.value(), StandardCharsets.UTF_8) : null;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,66 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LongHashSetTest {
+
+    @Test
+    public void addsAndRemovesValues() {
+        LongHashSet set = new LongHashSet(4);
+        assertTrue(set.add(1));
+        assertFalse(set.add(1));
+        assertTrue(set.add(-1));
+        assertTrue(set.contains(-1));
+        assertEquals(2, set.size());
+
+        assertTrue(set.remove(1));
+        assertFalse(set.remove(1));
+        assertFalse(set.contains(1));
+        assertTrue(set.contains(-1));
+        assertEquals(1, set.size());
+    }
+
+    @Test
+    public void keepsCollidingValuesReachableOnRemoval() {
+        LongHashSet set = new LongHashSet(16);
+        // Same slot, so each is probed past the ones before.
+        assertTrue(set.add(16));
+        assertTrue(set.add(32));
+        assertTrue(set.add(48));
+        assertTrue(set.add(17));
+
+        assertTrue(set.remove(16));
+
+        assertTrue(set.contains(32));
+        assertTrue(set.contains(48));
+        assertTrue(set.contains(17));
+        assertFalse(set.contains(16));
+    }
+
+    @Test
+    public void matchesHashSet() {
+        Random random = new Random(42);
+        LongHashSet set = new LongHashSet(4);
+        Set<Long> expected = new HashSet<Long>();
+        for (int i = 0; i < 100000; i++) {
+            long value = random.nextInt(2000) + 1;
+            if (random.nextBoolean()) {
+                assertEquals(expected.add(value), set.add(value));
+            } else {
+                assertEquals(expected.remove(value), set.remove(value));
+            }
+        }
+        assertEquals(expected.size(), set.size());
+        for (long value = 1; value <= 2000; value++) {
+            assertEquals(expected.contains(value), set.contains(value));
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class MessageFieldsTest {
+
+    private static final BuildMessage MESSAGE = new BuildMessage("job", "secret",
+            new String[] { "branch", "from-parameters", "repo", "core" });
+
+    @Test
+    public void resumesLookupWhereThePreviousOneStopped() {
+        MessageFields fields = fields("{\"a\":\"1\",\"b\":{\"c\":\"2\"},\"c\":\"3\",\"d\":4,\"e\":true}");
+
+        assertEquals("3", fields.get("c"));
+        // Passed by the first lookup.
+        assertEquals("1", fields.get("a"));
+        assertEquals("4", fields.get("d"));
+        assertEquals("true", fields.get("e"));
+        assertEquals("3", fields.get("c"));
+    }
+
+    @Test
+    public void skipsNestedValues() {
+        MessageFields fields = fields("{\"nested\":{\"branch\":\"dev\",\"list\":[{\"repo\":\"x\"}]},"
+                + "\"items\":[1,2],\"branch\":\"main\"}");
+
+        assertEquals("main", fields.get("branch"));
+        assertEquals("core", fields.get("repo"));
+        assertNull(fields.get("nested"));
+        assertNull(fields.get("items"));
+    }
+
+    @Test
+    public void fallsBackToParameters() {
+        assertEquals("from-parameters", new MessageFields(null, MESSAGE).get("branch"));
+        assertEquals("from-parameters", fields("{\"branch\":null}").get("branch"));
+        assertEquals("from-parameters", fields("[\"branch\"]").get("branch"));
+        assertEquals("core", fields("{\"branch\":\"main\"}").get("repo"));
+        assertNull(fields("{}").get("missing"));
+        assertNull(new MessageFields(null, new BuildMessage("job", "secret", null)).get("branch"));
+    }
+
+    @Test
+    public void keepsValuesReadBeforeBrokenPart() {
+        MessageFields fields = fields("{\"branch\":\"main\",\"repo\":");
+
+        assertEquals("main", fields.get("branch"));
+        assertEquals("core", fields.get("repo"));
+        assertNull(fields.get("other"));
+    }
+
+    private static MessageFields fields(String json) {
+        return new MessageFields(json.getBytes(StandardCharsets.UTF_8), MESSAGE);
+    }
+}
@@ -0,0 +1,113 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OffsetTrackerTest {
+
+    private final TopicPartition partition = new TopicPartition("builds", 0);
+    private final OffsetTracker tracker = new OffsetTracker();
+
+    @Test
+    public void commitsUpToOldestIncompleteRecord() {
+        PendingRecord first = tracker.track(partition, 10);
+        PendingRecord second = tracker.track(partition, 11);
+        PendingRecord third = tracker.track(partition, 12);
+        assertEquals(10, committable(true));
+
+        second.release();
+        assertEquals(10, committable(true));
+        assertTrue(tracker.committable(false).isEmpty());
+
+        first.release();
+        assertEquals(12, committable(false));
+
+        third.release();
+        assertEquals(13, committable(false));
+        assertEquals(13, committable(true));
+    }
+
+    @Test
+    public void findsRecordsAcrossOffsetGaps() {
+        OffsetTracker.Partition p = new OffsetTracker.Partition();
+        for (long offset = 0; offset < 40; offset += 2) {
+            p.track(offset);
+        }
+        // Offsets compacted away or taken by transaction markers are not tracked.
+        assertFalse(p.complete(7));
+        assertFalse(p.complete(40));
+        for (long offset = 38; offset > 0; offset -= 2) {
+            assertTrue(p.complete(offset));
+        }
+        assertEquals(0, p.takeCommittable(true));
+
+        assertTrue(p.complete(0));
+        assertEquals(39, p.takeCommittable(true));
+        assertFalse(p.complete(0));
+    }
+
+    @Test
+    public void growsBufferWrappedAround() {
+        List<PendingRecord> records = new ArrayList<PendingRecord>();
+        for (long offset = 0; offset < 50; offset++) {
+            records.add(tracker.track(partition, offset));
+        }
+        for (int i = 0; i < 40; i++) {
+            records.get(i).release();
+        }
+        // The buffer of 64 wraps around before it grows.
+        for (long offset = 50; offset < 200; offset++) {
+            records.add(tracker.track(partition, offset));
+        }
+
+        List<Integer> order = new ArrayList<Integer>();
+        for (int i = 40; i < records.size(); i++) {
+            order.add(i);
+        }
+        Collections.shuffle(order, new Random(42));
+        boolean[] done = new boolean[records.size()];
+        int oldest = 40;
+        for (int i : order) {
+            records.get(i).release();
+            done[i] = true;
+            while (oldest < done.length && done[oldest]) {
+                oldest++;
+            }
+            assertEquals(oldest, committable(true));
+        }
+        assertEquals(200, committable(true));
+    }
+
+    @Test
+    public void ignoresLateCompletionsOfForgottenPartition() {
+        PendingRecord stale = tracker.track(partition, 5);
+        tracker.forget(Collections.singletonList(partition));
+        assertTrue(tracker.committable(true).isEmpty());
+
+        // Assigned again and consumed from the committed offset.
+        PendingRecord current = tracker.track(partition, 5);
+        stale.release();
+        assertEquals(0, tracker.getCompletedSinceCommit());
+        assertEquals(5, committable(true));
+
+        current.release();
+        assertEquals(6, committable(true));
+    }
+
+    private long committable(boolean all) {
+        Map<TopicPartition, OffsetAndMetadata> offsets = tracker.committable(all);
+        assertEquals(1, offsets.size());
+        return offsets.get(partition).offset();
+    }
+}
@@ -0,0 +1,105 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PayloadFilterTest {
+
+    private static final String JSON = "{\"branch\":\"main\",\"count\":10,\"version\":\"10\",\"draft\":false,"
+            + "\"quote\":\"a\\\"b\",\"path\":\"a\\\\b\",\"empty\":\"\",\"nothing\":null}";
+
+    @Test
+    public void andBindsTighterThanOr() {
+        assertTrue(test("true || false && false"));
+        assertFalse(test("(true || false) && false"));
+        assertTrue(test("false && false || true"));
+        assertFalse(test("!true || false"));
+        assertTrue(test("!(true && false)"));
+    }
+
+    @Test
+    public void distinguishesNotFromNotEquals() {
+        assertTrue(test("branch != \"dev\""));
+        assertFalse(test("!branch"));
+        assertTrue(test("!draft"));
+        assertTrue(test("! branch == \"dev\""));
+        assertTrue(test("!!branch"));
+        assertFalse(test("!(branch!=\"dev\")"));
+    }
+
+    @Test
+    public void readsEscapesInStrings() {
+        assertTrue(test("quote == \"a\\\"b\""));
+        assertTrue(test("path == \"a\\\\b\""));
+        assertTrue(test("quote contains \"\\\"\""));
+    }
+
+    @Test
+    public void comparesNumbersNumericallyAndTextLexicographically() {
+        assertTrue(test("count > 9"));
+        assertTrue(test("version > 9"));
+        assertTrue(test("count == 10.0"));
+        assertFalse(test("count == \"10.0\""));
+        assertTrue(test("-1 < count"));
+        assertFalse(test("branch > 9"));
+
+        assertFalse(test("version > \"9\""));
+        assertTrue(test("branch < \"release\""));
+        assertTrue(test("branch >= \"main\""));
+        assertTrue(test("branch <= version || branch > version"));
+        assertFalse(test("nothing < \"a\""));
+        assertFalse(test("missing >= \"\""));
+    }
+
+    @Test
+    public void treatsSetValuesAsTrue() {
+        assertTrue(test("branch"));
+        assertFalse(test("draft"));
+        assertFalse(test("empty"));
+        assertFalse(test("nothing"));
+        assertTrue(test("nothing == null"));
+        assertTrue(test("missing != \"x\""));
+    }
+
+    @Test
+    public void matchesTextOperators() {
+        assertTrue(test("branch startsWith \"ma\""));
+        assertTrue(test("branch endsWith \"in\""));
+        assertTrue(test("branch matches \"m[a-z]+\""));
+        assertFalse(test("branch matches \"m\""));
+        assertFalse(test("missing startsWith \"\""));
+    }
+
+    @Test
+    public void rejectsMalformedExpressions() {
+        assertRejected("branch ==", "Missing operand at position 10");
+        assertRejected("(branch", "Missing ')' at position 8");
+        assertRejected("branch is \"main\"", "Unknown operator 'is' at position 8");
+        assertRejected("branch == \"main", "Unterminated string at position 16");
+        assertRejected("branch matches main", "'matches' needs a string pattern at position 16");
+        assertRejected("branch matches \"(\"", "Invalid pattern: Unclosed group at position 19");
+        assertRejected("branch == 1.2.3", "Invalid number '1.2.3' at position 11");
+        assertRejected("branch )", "Unexpected ')' at position 8");
+    }
+
+    private static boolean test(String expression) {
+        MessageFields fields = new MessageFields(JSON.getBytes(StandardCharsets.UTF_8),
+                new BuildMessage("job", "secret", null));
+        return PayloadFilter.compile(expression).test(fields);
+    }
+
+    private static void assertRejected(String expression, String message) {
+        try {
+            PayloadFilter.compile(expression);
+            fail("Compiled " + expression);
+        } catch (IllegalArgumentException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@SuppressWarnings("rawtypes")
+public class PendingRecordTest {
+
+    private static final long TTL_MILLIS = 60000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final TopicPartition partition = new TopicPartition("builds", 0);
+    private final OffsetTracker tracker = new OffsetTracker();
+    private final RemoteBuildTrigger trigger = new RemoteBuildTrigger("secret");
+
+    @Test
+    public void completesAfterEveryFannedOutBuild() {
+        PendingRecord record = tracker.track(partition, 7);
+        // One build per matched job.
+        record.retain();
+        record.retain();
+        record.release();
+        assertEquals(7, committable());
+
+        record.release();
+        assertEquals(7, committable());
+        record.release();
+        assertEquals(8, committable());
+    }
+
+    @Test
+    public void completesCoalescedRecordsOnceTheBuildIsQueued() {
+        Coalescer coalescer = new Coalescer(60000, CoalesceMode.LAST_WINS);
+        PendingRecord first = tracker.track(partition, 0);
+        PendingRecord second = tracker.track(partition, 1);
+        for (PendingRecord record : new PendingRecord[] { first, second }) {
+            record.retain();
+            coalescer.offer(trigger, "builds", null, null, record);
+            record.release();
+        }
+        assertEquals(0, committable());
+
+        List<List<PendingRecord>> queued = new ArrayList<List<PendingRecord>>();
+        coalescer.drainAll((t, topicName, parameters, ids, records) -> queued.add(records));
+        assertEquals(1, queued.size());
+        assertEquals(2, queued.get(0).size());
+        assertEquals(0, committable());
+
+        for (PendingRecord record : queued.get(0)) {
+            record.release();
+        }
+        assertEquals(2, committable());
+    }
+
+    @Test
+    public void recordsIdentityOnlyWhenDeferredBuildIsReleased() throws IOException {
+        long now = System.currentTimeMillis();
+        DedupeStore store = DedupeStore.open(folder.getRoot().toPath().resolve("dedupe.bin"), now);
+        PendingRecord record = tracker.track(partition, 3);
+        assertTrue(store.reserve(42, now));
+        record.recordOnCompletion(store, 42, TTL_MILLIS);
+
+        // Deferred by the rate limit.
+        record.retain();
+        record.release();
+        assertFalse(store.reserve(42, now));
+        assertEquals(3, committable());
+
+        record.release();
+        assertEquals(4, committable());
+        // Recorded rather than only reserved.
+        store.cancel(42);
+        assertFalse(store.reserve(42, now));
+        store.close();
+    }
+
+    @Test
+    public void givesBackIdentityOfDiscardedBuild() throws IOException {
+        long now = System.currentTimeMillis();
+        DedupeStore store = DedupeStore.open(folder.getRoot().toPath().resolve("dedupe.bin"), now);
+        PendingRecord record = tracker.track(partition, 3);
+        assertTrue(store.reserve(42, now));
+        record.recordOnCompletion(store, 42, TTL_MILLIS);
+
+        // Deferred, then dropped when the consumer stops.
+        record.retain();
+        record.release();
+        record.discard();
+
+        assertEquals(3, committable());
+        assertTrue(store.reserve(42, now));
+        store.close();
+    }
+
+    private long committable() {
+        return tracker.committable(true).get(partition).offset();
+    }
+}
@@ -0,0 +1,100 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetryDelaysTest {
+
+    private static final long NOW = 1700000000000L;
+
+    private final TopicPartition first = new TopicPartition("retry", 0);
+    private final TopicPartition second = new TopicPartition("retry", 1);
+    private final MockConsumer<byte[], byte[]> consumer = new MockConsumer<byte[], byte[]>(
+            OffsetResetStrategy.EARLIEST);
+    private final RetryDelays delays = new RetryDelays(consumer);
+
+    @Before
+    public void assign() {
+        consumer.assign(Arrays.asList(first, second));
+        consumer.seek(first, 10);
+        consumer.seek(second, 10);
+    }
+
+    @Test
+    public void handsOnDueRecords() {
+        assertFalse(delays.isDelayed(record(first, 3, NOW), NOW));
+        assertFalse(delays.isDelayed(record(first, 4, 0), NOW));
+
+        assertTrue(consumer.paused().isEmpty());
+        assertTrue(delays.isEmpty());
+        assertEquals(Long.MAX_VALUE, delays.getFirstDue());
+    }
+
+    @Test
+    public void pausesAndRewindsPartitionUntilDue() {
+        assertTrue(delays.isDelayed(record(first, 3, NOW + 1000), NOW));
+
+        assertEquals(Collections.singleton(first), consumer.paused());
+        assertEquals(3, consumer.position(first));
+        assertEquals(10, consumer.position(second));
+        assertEquals(NOW + 1000, delays.getFirstDue());
+
+        // Records polled behind it are fetched again once it is resumed.
+        assertTrue(delays.isDelayed(record(first, 4, NOW), NOW));
+        assertEquals(3, consumer.position(first));
+        assertFalse(delays.isDelayed(record(second, 7, NOW), NOW));
+
+        delays.resumeDue(NOW + 999, true);
+        assertEquals(Collections.singleton(first), consumer.paused());
+
+        delays.resumeDue(NOW + 1000, true);
+        assertTrue(consumer.paused().isEmpty());
+        assertTrue(delays.isEmpty());
+        assertFalse(delays.isDelayed(record(first, 3, NOW + 1000), NOW + 1000));
+    }
+
+    @Test
+    public void leavesResumingToPausedConsumer() {
+        assertTrue(delays.isDelayed(record(first, 3, NOW + 1000), NOW));
+        assertTrue(delays.isDelayed(record(second, 5, NOW + 2000), NOW));
+        assertEquals(NOW + 1000, delays.getFirstDue());
+
+        delays.resumeDue(NOW + 1500, false);
+
+        assertEquals(Collections.singleton(second), delays.getPartitions());
+        assertEquals(2, consumer.paused().size());
+        assertEquals(NOW + 2000, delays.getFirstDue());
+    }
+
+    @Test
+    public void forgetsRevokedPartitions() {
+        assertTrue(delays.isDelayed(record(first, 3, NOW + 1000), NOW));
+
+        delays.forget(Collections.singleton(first));
+
+        assertTrue(delays.isEmpty());
+        assertFalse(delays.isDelayed(record(first, 3, NOW), NOW));
+    }
+
+    private static ConsumerRecord<byte[], byte[]> record(TopicPartition partition, long offset, long retryAt) {
+        ConsumerRecord<byte[], byte[]> record = new ConsumerRecord<byte[], byte[]>(partition.topic(),
+                partition.partition(), offset, null, "{}".getBytes(StandardCharsets.UTF_8));
+        if (retryAt > 0) {
+            record.headers().add(FailureRouter.RETRY_AT_HEADER,
+                    Long.toString(retryAt).getBytes(StandardCharsets.UTF_8));
+        }
+        return record;
+    }
+}
@@ -0,0 +1,123 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@SuppressWarnings("rawtypes")
+public class TriggerManagerTest {
+
+    private final TriggerManager manager = new TriggerManager();
+
+    @Test
+    public void replacesTriggerOfSameJob() {
+        RemoteBuildTrigger first = add("platform/api", "api");
+        RemoteBuildTrigger second = add("platform/api", "api");
+
+        assertArrayEquals(new RemoteBuildTrigger[] { second }, manager.getTriggers("platform/api"));
+        assertArrayEquals(new RemoteBuildTrigger[] { second }, manager.getTriggers("api"));
+        assertArrayEquals(new RemoteBuildTrigger[] { second }, match("platform/*"));
+        assertSame(second, manager.getTriggerByJob("platform/api"));
+        assertFalse(manager.getTriggers().contains(first));
+    }
+
+    @Test
+    public void resolvesShortNameToEveryJobWithIt() {
+        RemoteBuildTrigger platform = add("platform/api", "api");
+        RemoteBuildTrigger billing = add("billing/api", "api");
+
+        assertArrayEquals(new RemoteBuildTrigger[] { platform, billing }, manager.getTriggers("api"));
+        assertArrayEquals(new RemoteBuildTrigger[] { billing }, manager.getTriggers("billing/api"));
+
+        manager.removeTrigger(platform);
+        assertArrayEquals(new RemoteBuildTrigger[] { billing }, manager.getTriggers("api"));
+        assertEquals(0, manager.getTriggers("platform/api").length);
+    }
+
+    @Test
+    public void removesTriggersInsideDeletedFolder() {
+        RemoteBuildTrigger api = add("platform/api", "api");
+        RemoteBuildTrigger nested = add("platform/tools/lint", "lint");
+        RemoteBuildTrigger sibling = add("platform-legacy/api", "api");
+
+        manager.removeTriggersIn("platform");
+
+        assertNull(manager.getTriggerByJob("platform/api"));
+        assertNull(manager.getTriggerByJob("platform/tools/lint"));
+        assertEquals(0, manager.getTriggers("lint").length);
+        assertArrayEquals(new RemoteBuildTrigger[] { sibling }, manager.getTriggers("api"));
+        assertEquals(0, match("platform/**").length);
+        assertFalse(manager.getTriggers().contains(api));
+        assertFalse(manager.getTriggers().contains(nested));
+    }
+
+    @Test
+    public void reindexesMovedJob() {
+        RemoteBuildTrigger trigger = add("platform/api", "api");
+
+        // As the item listener does on a rename or move.
+        manager.addTrigger(trigger, "services/api-v2", "api-v2");
+
+        assertNull(manager.getTriggerByJob("platform/api"));
+        assertEquals(0, manager.getTriggers("platform/api").length);
+        assertEquals(0, manager.getTriggers("api").length);
+        assertEquals(0, match("platform/*").length);
+        assertSame(trigger, manager.getTriggerByJob("services/api-v2"));
+        assertArrayEquals(new RemoteBuildTrigger[] { trigger }, manager.getTriggers("api-v2"));
+        assertArrayEquals(new RemoteBuildTrigger[] { trigger }, match("services/*"));
+        assertEquals(1, manager.getTriggers().size());
+    }
+
+    @Test
+    public void keepsIndexesConsistentUnderConcurrentChanges() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int t = 0; t < 4; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 2000; i++) {
+                        RemoteBuildTrigger trigger = add("platform/api", "api");
+                        if (i % 3 == 0) {
+                            manager.removeTrigger(trigger);
+                        }
+                        // Reads never block nor see a trigger twice.
+                        RemoteBuildTrigger[] triggers = manager.getTriggers("api");
+                        assertTrue(triggers.length <= 1 || triggers[0] != triggers[1]);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        RemoteBuildTrigger current = add("platform/api", "api");
+
+        assertEquals(1, manager.getTriggers().size());
+        assertArrayEquals(new RemoteBuildTrigger[] { current }, manager.getTriggers("api"));
+        assertArrayEquals(new RemoteBuildTrigger[] { current }, manager.getTriggers("platform/api"));
+        assertArrayEquals(new RemoteBuildTrigger[] { current }, match("platform/*"));
+    }
+
+    private RemoteBuildTrigger add(String fullName, String name) {
+        RemoteBuildTrigger trigger = new RemoteBuildTrigger("secret");
+        manager.addTrigger(trigger, fullName, name);
+        return trigger;
+    }
+
+    private RemoteBuildTrigger[] match(String pattern) {
+        return manager.getMatchingTriggers(KafkaSubscription.DEFAULT_NAME, pattern, false);
+    }
+}
@@ -0,0 +1,122 @@
+package io.jenkins.plugins.kafkabuildtrigger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@SuppressWarnings("rawtypes")
+public class TriggerPatternIndexTest {
+
+    private final TriggerPatternIndex index = new TriggerPatternIndex();
+
+    @Test
+    public void matchesStarWithinOneSegment() {
+        RemoteBuildTrigger api = add("platform/api");
+        RemoteBuildTrigger web = add("platform/web");
+        add("platform/tools/lint");
+        add("billing/api");
+
+        assertArrayEquals(new RemoteBuildTrigger[] { api, web }, index.match("platform/*", false));
+        assertArrayEquals(new RemoteBuildTrigger[] { api }, index.match("platform/a*", false));
+        assertArrayEquals(new RemoteBuildTrigger[] { web }, index.match("platform/?eb", false));
+        assertEquals(2, index.match("*/api", false).length);
+        assertEquals(0, index.match("platform/*/*/*", false).length);
+    }
+
+    @Test
+    public void matchesDoubleStarAcrossSegments() {
+        RemoteBuildTrigger api = add("platform/api");
+        RemoteBuildTrigger lint = add("platform/tools/lint");
+        RemoteBuildTrigger nested = add("platform/tools/ci/lint");
+        add("billing/lint");
+
+        assertEquals(3, index.match("platform/**", false).length);
+        assertArrayEquals(new RemoteBuildTrigger[] { lint, nested }, index.match("platform/**/lint", false));
+        assertArrayEquals(new RemoteBuildTrigger[] { lint, nested }, index.match("platform/**/**/lint", false));
+        assertEquals(3, index.match("**/lint", false).length);
+        assertArrayEquals(new RemoteBuildTrigger[] { api }, index.match("**/api", false));
+    }
+
+    @Test
+    public void matchesRegexInSubtreeOfItsLiteralPrefix() {
+        RemoteBuildTrigger api = add("platform/api");
+        RemoteBuildTrigger apiV2 = add("platform/api-v2");
+        add("platform/web");
+        add("billing/api");
+
+        assertArrayEquals(new RemoteBuildTrigger[] { api, apiV2 }, index.match("regex:platform/api.*", true));
+        assertArrayEquals(new RemoteBuildTrigger[] { apiV2 }, index.match("regex:platform/api-v\\d", true));
+        assertEquals(2, index.match("regex:.*/api", true).length);
+        assertEquals(0, index.match("regex:platform/(", true).length);
+    }
+
+    @Test
+    public void ignoresRegexUnlessAllowed() {
+        RemoteBuildTrigger job = add("platform/api");
+
+        assertEquals(0, index.match("regex:platform/.*", false).length);
+        assertArrayEquals(new RemoteBuildTrigger[] { job }, index.match("regex:platform/.*", true));
+        assertArrayEquals(new RemoteBuildTrigger[] { job }, index.match("platform/*", false));
+    }
+
+    @Test
+    public void ignoresTooLongPatterns() {
+        add("platform/api");
+        StringBuilder pattern = new StringBuilder("platform/");
+        while (pattern.length() < TriggerPatternIndex.MAX_PATTERN_LENGTH) {
+            pattern.append('*');
+        }
+        assertEquals(1, index.match(pattern.toString(), false).length);
+        assertEquals(0, index.match(pattern.append('*').toString(), false).length);
+    }
+
+    @Test
+    public void boundsCatastrophicBacktracking() {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            name.append('a');
+        }
+        add(name.append('!').toString());
+
+        long start = System.nanoTime();
+        assertEquals(0, index.match("regex:(.*a){20}b", true).length);
+        // Unbounded, this takes hours.
+        assertTrue(System.nanoTime() - start < 10000000000L);
+    }
+
+    @Test
+    public void keepsCachedMatchesOnceFull() {
+        add("platform/api");
+        RemoteBuildTrigger[] cached = index.match("platform/*", false);
+        for (int i = 0; i < TriggerPatternIndex.MAX_CACHED * 2; i++) {
+            index.match("other-" + i + "/*", false);
+        }
+        assertSame(cached, index.match("platform/*", false));
+    }
+
+    @Test
+    public void resolvesAgainAfterChange() {
+        RemoteBuildTrigger api = add("platform/api");
+        RemoteBuildTrigger[] before = index.match("platform/*", false);
+
+        RemoteBuildTrigger web = add("platform/web");
+        RemoteBuildTrigger[] after = index.match("platform/*", false);
+
+        assertNotSame(before, after);
+        assertArrayEquals(new RemoteBuildTrigger[] { api }, before);
+        assertEquals(2, after.length);
+
+        index.remove("platform/api", api);
+        assertArrayEquals(new RemoteBuildTrigger[] { web }, index.match("platform/*", false));
+    }
+
+    private RemoteBuildTrigger add(String fullName) {
+        RemoteBuildTrigger trigger = new RemoteBuildTrigger("secret");
+        index.add(fullName, trigger);
+        return trigger;
+    }
+}